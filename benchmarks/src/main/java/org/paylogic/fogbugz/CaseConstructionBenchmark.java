@@ -0,0 +1,48 @@
+package org.paylogic.fogbugz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.NodeList;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building cases from an already parsed DOM, without the XML parsing itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaseConstructionBenchmark {
+
+    @Param({"1", "100", "5000", "50000"})
+    public int caseCount;
+
+    private DefaultFogbugzManager manager;
+    private NodeList caseNodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.manager = ResponseFixtures.managerFor(new byte[0]);
+        this.caseNodes = ResponseFixtures.parse(ResponseFixtures.caseList(this.caseCount)).getElementsByTagName("case");
+    }
+
+    @Benchmark
+    public void constructCaseFromXmlNode(Blackhole blackhole) {
+        for (int i = 0; i < this.caseNodes.getLength(); i++) {
+            blackhole.consume(this.manager.constructCaseFromXmlNode(this.caseNodes.item(i)));
+        }
+    }
+}
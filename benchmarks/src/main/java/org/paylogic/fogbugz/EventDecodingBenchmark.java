@@ -0,0 +1,57 @@
+package org.paylogic.fogbugz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding the event log of a case, as done by getEventsForCase and the getLastAssignedTo* lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventDecodingBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int eventCount;
+
+    private DefaultFogbugzManager streamingManager;
+    private DefaultFogbugzManager domManager;
+
+    @Setup
+    public void setUp() {
+        byte[] response = ResponseFixtures.eventList(this.eventCount);
+        this.streamingManager = ResponseFixtures.managerFor(response);
+        this.domManager = ResponseFixtures.managerFor(response);
+        this.domManager.setDomDecoding(true);
+    }
+
+    @Benchmark
+    public List<FogbugzEvent> streaming() {
+        return this.streamingManager.getEventsForCase(7);
+    }
+
+    @Benchmark
+    public List<FogbugzEvent> dom() {
+        return this.domManager.getEventsForCase(7);
+    }
+
+    @Benchmark
+    public FogbugzEvent lastAssignedTo() {
+        return this.streamingManager.getLastAssignedTo(7, 3);
+    }
+}
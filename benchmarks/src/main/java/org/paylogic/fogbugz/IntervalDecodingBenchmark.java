@@ -0,0 +1,55 @@
+package org.paylogic.fogbugz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a listIntervals response, as done by the getTimeintervals methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntervalDecodingBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int intervalCount;
+
+    private DefaultFogbugzManager streamingManager;
+    private DefaultFogbugzManager domManager;
+    private final LocalDate from = LocalDate.of(2013, 4, 1);
+    private final LocalDate till = LocalDate.of(2013, 4, 30);
+
+    @Setup
+    public void setUp() {
+        byte[] response = ResponseFixtures.intervalList(this.intervalCount);
+        this.streamingManager = ResponseFixtures.managerFor(response);
+        this.domManager = ResponseFixtures.managerFor(response);
+        this.domManager.setDomDecoding(true);
+    }
+
+    @Benchmark
+    public List<FogbugzTimeinterval> streaming() throws Exception {
+        return this.streamingManager.getTimeintervals(this.from, this.till);
+    }
+
+    @Benchmark
+    public List<FogbugzTimeinterval> dom() throws Exception {
+        return this.domManager.getTimeintervals(this.from, this.till);
+    }
+}
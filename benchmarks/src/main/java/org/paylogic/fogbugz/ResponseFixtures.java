@@ -0,0 +1,129 @@
+package org.paylogic.fogbugz;
+
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates synthetic Fogbugz API responses in the shape of the test_case_list.xml and
+ * test_case_events.xml test fixtures.
+ */
+public class ResponseFixtures {
+
+    public static final String FEATURE_BRANCH = "plugin_customfields_at_fogcreek_com_featurexbranchx12";
+    public static final String ORIGINAL_BRANCH = "plugin_customfields_at_fogcreek_com_originalxbranchv23";
+    public static final String TARGET_BRANCH = "plugin_customfields_at_fogcreek_com_targetxbranchj81";
+    public static final String APPROVED_REVISION = "plugin_customfields_at_fogcreek_com_approvedxrevisiona44";
+    public static final String CI_PROJECT = "cixproject";
+
+    /**
+     * Builds a search response with the given number of cases.
+     */
+    public static byte[] caseList(int caseCount) {
+        StringBuilder xml = new StringBuilder(caseCount * 900 + 100);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response>\n    <cases count=\"")
+                .append(caseCount).append("\">\n");
+        for (int i = 1; i <= caseCount; i++) {
+            xml.append("        <case ixBug=\"").append(i).append("\" operations=\"edit,assign,resolve,remind\">\n")
+                    .append("            <ixBug>").append(i).append("</ixBug>\n")
+                    .append("            <ixBugParent>").append(i % 10 == 0 ? 0 : i - i % 10).append("</ixBugParent>\n")
+                    .append("            <fOpen>").append(i % 3 != 0).append("</fOpen>\n")
+                    .append("            <sTitle>\n<![CDATA[ Test case name ").append(i).append(" ]]>\n            </sTitle>\n")
+                    .append("            <sFixFor>\n<![CDATA[ Release ").append(i % 12).append(" ]]>\n            </sFixFor>\n")
+                    .append("            <ixPersonOpenedBy>").append(i % 40 + 1).append("</ixPersonOpenedBy>\n")
+                    .append("            <ixPersonAssignedTo>").append(i % 25 + 1).append("</ixPersonAssignedTo>\n")
+                    .append("            <ixProject>").append(i % 7 + 1).append("</ixProject>\n")
+                    .append("            <sProject><![CDATA[Project ").append(i % 7 + 1).append("]]></sProject>\n")
+                    .append("            <sStatus><![CDATA[").append(i % 3 != 0 ? "Active" : "Closed (Fixed)").append("]]></sStatus>\n")
+                    .append("            <hrsOrigEst>").append(i % 16).append("</hrsOrigEst>\n")
+                    .append("            <hrsCurrEst>").append(i % 16).append(".5</hrsCurrEst>\n")
+                    .append("            <hrsElapsed>").append(i % 9).append(".25</hrsElapsed>\n")
+                    .append("            <tags><tag><![CDATA[merged]]></tag><tag><![CDATA[team").append(i % 5)
+                    .append("]]></tag></tags>\n")
+                    .append("            <").append(FEATURE_BRANCH).append("><![CDATA[repo1#c").append(i).append("]]></")
+                    .append(FEATURE_BRANCH).append(">\n")
+                    .append("            <").append(ORIGINAL_BRANCH).append("><![CDATA[r1336]]></").append(ORIGINAL_BRANCH).append(">\n")
+                    .append("            <").append(TARGET_BRANCH).append("><![CDATA[r1336]]></").append(TARGET_BRANCH).append(">\n")
+                    .append("            <").append(APPROVED_REVISION).append("/>\n")
+                    .append("            <").append(CI_PROJECT).append("><![CDATA[myproject]]></").append(CI_PROJECT).append(">\n")
+                    .append("        </case>\n");
+        }
+        xml.append("    </cases>\n</response>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a search response with cols=events for one case, in the shape of test_case_events.xml.
+     */
+    public static byte[] eventList(int eventCount) {
+        StringBuilder xml = new StringBuilder(eventCount * 600 + 200);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><cases count=\"1\">")
+                .append("<case ixBug=\"7\" operations=\"edit,assign,resolve,remind\"><events>");
+        for (int i = 1; i <= eventCount; i++) {
+            int person = i % 25 + 1;
+            xml.append("<event ixBugEvent=\"").append(i).append("\" ixBug=\"7\">")
+                    .append("<ixBugEvent>").append(i).append("</ixBugEvent><evt>3</evt>")
+                    .append("<sVerb><![CDATA[Assigned]]></sVerb>")
+                    .append("<ixPerson>").append(person).append("</ixPerson>")
+                    .append("<ixPersonAssignedTo>").append((i + 7) % 25 + 1).append("</ixPersonAssignedTo>")
+                    .append("<dt>2013-04-").append(String.format("%02d", i % 28 + 1)).append("T14:30:00Z</dt>")
+                    .append("<evtDescription><![CDATA[Assigned to Dev ").append((i + 7) % 25 + 1)
+                    .append(" by Dev ").append(person).append("]]></evtDescription>")
+                    .append("<sChanges></sChanges><rgAttachments/>")
+                    .append("<sPerson><![CDATA[Dev ").append(person).append("]]></sPerson></event>");
+        }
+        xml.append("</events></case></cases></response>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a listIntervals response with the given number of intervals.
+     */
+    public static byte[] intervalList(int intervalCount) {
+        StringBuilder xml = new StringBuilder(intervalCount * 300 + 100);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><intervals>");
+        for (int i = 1; i <= intervalCount; i++) {
+            String day = String.format("2013-04-%02d", i % 28 + 1);
+            xml.append("<interval><ixInterval>").append(i).append("</ixInterval>")
+                    .append("<ixBug>").append(i % 500 + 1).append("</ixBug>")
+                    .append("<ixPerson>").append(i % 25 + 1).append("</ixPerson>")
+                    .append("<dtStart>").append(day).append("T09:00:00Z</dtStart>")
+                    .append("<dtEnd>").append(day).append("T11:15:00Z</dtEnd>")
+                    .append("<fDeleted>false</fDeleted>")
+                    .append("<sTitle><![CDATA[Test case name ").append(i % 500 + 1).append("]]></sTitle></interval>");
+        }
+        xml.append("</intervals></response>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a response into a DOM document, like the DOM decoding path does.
+     */
+    public static Document parse(byte[] response) throws Exception {
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        return builder.parse(new ByteArrayInputStream(response));
+    }
+
+    /**
+     * Creates a manager with the fixture custom fields that answers every call with the given response.
+     */
+    public static DefaultFogbugzManager managerFor(final byte[] response) {
+        FogbugzTransport transport = new FogbugzTransport() {
+            public ByteArrayInputStream get(String url) {
+                return new ByteArrayInputStream(response);
+            }
+
+            public void close() {
+            }
+        };
+        // The manager logs every url at INFO level, which would flood the benchmark output.
+        Logger.getLogger(DefaultFogbugzManager.class.getName()).setLevel(Level.WARNING);
+        return new DefaultFogbugzManager(transport, "http://localhost/fogbugz/", "asdfasdf12341234",
+                FEATURE_BRANCH, ORIGINAL_BRANCH, TARGET_BRANCH, APPROVED_REVISION, CI_PROJECT, 2, 2);
+    }
+}
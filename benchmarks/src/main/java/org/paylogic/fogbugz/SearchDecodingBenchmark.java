@@ -0,0 +1,53 @@
+package org.paylogic.fogbugz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a search response with the streaming parser against the DOM parser.
+ * Run with -prof gc to see the allocation difference as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchDecodingBenchmark {
+
+    @Param({"1", "100", "5000", "50000"})
+    public int caseCount;
+
+    private DefaultFogbugzManager streamingManager;
+    private DefaultFogbugzManager domManager;
+
+    @Setup
+    public void setUp() {
+        byte[] response = ResponseFixtures.caseList(this.caseCount);
+        this.streamingManager = ResponseFixtures.managerFor(response);
+        this.domManager = ResponseFixtures.managerFor(response);
+        this.domManager.setDomDecoding(true);
+    }
+
+    @Benchmark
+    public List<FogbugzCase> streaming() throws Exception {
+        return this.streamingManager.searchForCases("status:active");
+    }
+
+    @Benchmark
+    public List<FogbugzCase> dom() throws Exception {
+        return this.domManager.searchForCases("status:active");
+    }
+}
@@ -0,0 +1,55 @@
+package org.paylogic.fogbugz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting case tags from and to the CSV form used by the API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagsBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int tagCount;
+
+    private String csv;
+    private FogbugzCase fbCase;
+
+    @Setup
+    public void setUp() {
+        List<String> tags = new ArrayList<String>();
+        for (int i = 0; i < this.tagCount; i++) {
+            tags.add("tag" + i);
+        }
+        this.fbCase = new FogbugzCase(1, "Title", 1, 1, tags, true, "", "", "", "", "", "");
+        this.csv = this.fbCase.tagsToCSV();
+    }
+
+    @Benchmark
+    public List<String> tagsFromCSV() {
+        return FogbugzCase.tagsFromCSV(this.csv);
+    }
+
+    @Benchmark
+    public String tagsToCSV() {
+        return this.fbCase.tagsToCSV();
+    }
+}
@@ -0,0 +1,70 @@
+package org.paylogic.fogbugz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building API urls for a search and for saving a case with all custom fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlBuildingBenchmark {
+
+    private DefaultFogbugzManager manager;
+    private Map<String, String> searchParams;
+    private Map<String, String> saveParams;
+
+    @Setup
+    public void setUp() {
+        this.manager = ResponseFixtures.managerFor(new byte[0]);
+
+        this.searchParams = new HashMap<String, String>();
+        this.searchParams.put("cmd", "search");
+        this.searchParams.put("q", "status:active project:\"Project 1\" milestone:\"Release 3\"");
+        this.searchParams.put("cols", "ixBug,tags,fOpen,sTitle,sFixFor,ixPersonOpenedBy,ixPersonAssignedTo,ixBugParent,"
+                + "ixProject,sProject,sStatus,hrsOrigEst,hrsCurrEst,hrsElapsed,dtLastUpdated,"
+                + ResponseFixtures.FEATURE_BRANCH + "," + ResponseFixtures.ORIGINAL_BRANCH + ","
+                + ResponseFixtures.TARGET_BRANCH + "," + ResponseFixtures.APPROVED_REVISION + ","
+                + ResponseFixtures.CI_PROJECT);
+
+        this.saveParams = new HashMap<String, String>();
+        this.saveParams.put("cmd", "edit");
+        this.saveParams.put("ixBug", "12345");
+        this.saveParams.put("ixPersonAssignedTo", "2");
+        this.saveParams.put("ixPersonOpenedBy", "3");
+        this.saveParams.put("sTags", "merged,team1,needs review,release/2.2");
+        this.saveParams.put(ResponseFixtures.FEATURE_BRANCH, "repo1#c12345");
+        this.saveParams.put(ResponseFixtures.ORIGINAL_BRANCH, "r1336");
+        this.saveParams.put(ResponseFixtures.TARGET_BRANCH, "r1336");
+        this.saveParams.put(ResponseFixtures.APPROVED_REVISION, "a1b2c3d4e5f6");
+        this.saveParams.put(ResponseFixtures.CI_PROJECT, "myproject");
+        this.saveParams.put("sFixFor", "Release 3");
+        this.saveParams.put("sEvent", "Merged into release branch & pushed, see https://ci.example.com/job/42?x=1");
+    }
+
+    @Benchmark
+    public String searchUrl() throws Exception {
+        return this.manager.mapToFogbugzUrl(this.searchParams);
+    }
+
+    @Benchmark
+    public String saveUrl() throws Exception {
+        return this.manager.mapToFogbugzUrl(this.saveParams);
+    }
+}
@@ -0,0 +1,129 @@
+package org.paylogic.fogbugz;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Non-blocking variant of FogbugzManager. Every operation returns immediately with a future,
+ * which fails with the exception the blocking call would have thrown.
+ */
+public interface AsyncFogbugzManager {
+
+    /**
+     * Retrieves a case using the Fogbugz API by caseId.
+     * @param id the id of the case to fetch.
+     * @return future with the case.
+     */
+    public CompletableFuture<FogbugzCase> getCaseById(int id);
+
+    /**
+     * Retrieves many cases at once, in a few batched searches instead of one search per id.
+     * @param ids ids of the cases to fetch.
+     * @return future with the found cases by id, and the ids Fogbugz returned no case for.
+     */
+    public CompletableFuture<FogbugzCaseLookup> getCasesByIds(Collection<Integer> ids);
+
+    /**
+     * Retrieves cases using the Fogbugz API by a query
+     * @param query fogbugz search query
+     * @return future with the list of cases
+     */
+    public CompletableFuture<List<FogbugzCase>> searchForCases(String query);
+
+    /**
+     * Starts a search, completing as soon as the response is coming in. Cases are decoded while the stream is consumed.
+     * @param query fogbugz search query
+     * @return future with a stream of cases, which must be closed.
+     */
+    public CompletableFuture<Stream<FogbugzCase>> streamCases(String query);
+
+    public CompletableFuture<List<FogbugzProject>> getFogbugzProjects();
+
+    /**
+     * Retrieves all events for a certain case.
+     * @param id Case id to fetch events from
+     * @return future with the list of FogbugzEvents
+     */
+    public CompletableFuture<List<FogbugzEvent>> getEventsForCase(int id);
+
+    /**
+     * Fetches the events of a case once, to answer several questions about its history.
+     * @param caseId Case id to fetch events from
+     * @return future with the timeline of the events, or null when they could not be fetched.
+     */
+    public CompletableFuture<FogbugzEventTimeline> getEventTimeline(int caseId);
+
+    /**
+     * Appends the events that happened since the timeline was fetched.
+     * @param timeline timeline to update.
+     * @return future with the number of events added, or -1 when they could not be fetched.
+     */
+    public CompletableFuture<Integer> updateEventTimeline(FogbugzEventTimeline timeline);
+
+    /**
+     * Finds the last (in time) event with assignment to gatekeepers.
+     * @param caseId
+     * @return future with the last event with gatekeeper assignment, or null.
+     */
+    public CompletableFuture<FogbugzEvent> getLastAssignedToGatekeepersEvent(int caseId);
+
+    /**
+     * Finds the last (in time) event with assignment to given user.
+     * @param caseId
+     * @param userId
+     * @return future with the last event with user assignment, or null.
+     */
+    public CompletableFuture<FogbugzEvent> getLastAssignedTo(int caseId, int userId);
+
+    /**
+     * Saves a case to fogbugz using its API.
+     * Supports creating new cases, by setting caseId to 0 on case object.
+     * @param fbCase The case to save.
+     * @param comment A message to pass for this edit.
+     * @return future with true if all is well, else false.
+     */
+    public CompletableFuture<Boolean> saveCase(FogbugzCase fbCase, String comment);
+
+    /**
+     * Additional save method that does not propagate a comment.
+     * @param fbCase The case to save.
+     * @return future with true if all is well, else false.
+     */
+    public CompletableFuture<Boolean> saveCase(FogbugzCase fbCase);
+
+    /**
+     * Saves many cases at once. A failing case does not stop the others.
+     * @param cases The cases to save.
+     * @param comment Comment added to every case.
+     * @return future with the outcome and latency of every case, in the order of the given list.
+     */
+    public CompletableFuture<FogbugzSaveReport> saveCases(List<FogbugzCase> cases, String comment);
+
+    public CompletableFuture<FogbugzUser> getFogbugzUser(int ix);
+
+    public CompletableFuture<List<FogbugzUser>> getFogbugzUsers();
+
+    /**
+     * Retrieves all milestones.
+     * @return future with the list of FogbugzMilestones
+     */
+    public CompletableFuture<List<FogbugzMilestone>> getMilestones();
+
+    /**
+     * Creates new Milestone in Fogbugz. Please leave id of milestone object empty.
+     * Only creates global milestones.
+     * @param milestone to edit/create
+     */
+    public CompletableFuture<Boolean> createMilestone(FogbugzMilestone milestone);
+
+    public CompletableFuture<Boolean> createMilestoneIfNotExists(String milestoneName);
+
+    public CompletableFuture<List<FogbugzTimeinterval>> getTimeintervals(int caseId);
+
+    public CompletableFuture<List<FogbugzTimeinterval>> getTimeintervals(LocalDate from, LocalDate till);
+
+    public CompletableFuture<List<FogbugzTimeinterval>> getTimeintervals(int userId, LocalDate from, LocalDate till);
+}
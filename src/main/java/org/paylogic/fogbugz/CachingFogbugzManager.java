@@ -0,0 +1,255 @@
+package org.paylogic.fogbugz;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * FogbugzManager that keeps snapshots of recently fetched cases, so repeated getCaseById calls
+ * for the same case are served without a round trip. Cases are copied in and out of the cache,
+ * so callers can modify the cases they get. Saving a case through this manager invalidates it.
+ * All other calls are passed on to the wrapped manager.
+ */
+public class CachingFogbugzManager implements FogbugzManager {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final long DEFAULT_TTL_SECONDS = 60;
+
+    private static final int STRIPES = 1024;
+
+    private final FogbugzManager manager;
+    private final ExpiringLruCache<Integer, FogbugzCase> cases;
+    // Sequence number of the last invalidation per stripe of case ids, so a fetch that started before
+    // an invalidation does not store its older copy afterwards. Ids sharing a stripe at worst skip caching.
+    private final long[] invalidatedAt = new long[STRIPES];
+    private long sequence;
+
+    /**
+     * Creates a cache of DEFAULT_MAX_SIZE cases, kept for DEFAULT_TTL_SECONDS.
+     * @param manager manager to fetch cases with.
+     */
+    public CachingFogbugzManager(FogbugzManager manager) {
+        this(manager, DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param manager manager to fetch cases with.
+     * @param maxSize maximum number of cases to keep, the least recently used is evicted first.
+     * @param ttl time a case is served from the cache after it was fetched.
+     * @param unit unit of ttl.
+     */
+    public CachingFogbugzManager(FogbugzManager manager, int maxSize, long ttl, TimeUnit unit) {
+        this(manager, new ExpiringLruCache<Integer, FogbugzCase>(maxSize, ttl, unit));
+    }
+
+    CachingFogbugzManager(FogbugzManager manager, ExpiringLruCache<Integer, FogbugzCase> cases) {
+        this.manager = manager;
+        this.cases = cases;
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the case cache.
+     */
+    public FogbugzCacheStats getStats() {
+        return this.cases.getStats();
+    }
+
+    /**
+     * Drops a case from the cache, so it is fetched again on next use.
+     */
+    public synchronized void invalidate(int caseId) {
+        this.invalidatedAt[stripe(caseId)] = ++this.sequence;
+        this.cases.remove(caseId);
+    }
+
+    /**
+     * Drops all cases from the cache.
+     */
+    public synchronized void invalidateAll() {
+        Arrays.fill(this.invalidatedAt, ++this.sequence);
+        this.cases.clear();
+    }
+
+    private static int stripe(int caseId) {
+        return caseId & (STRIPES - 1);
+    }
+
+    /**
+     * @return sequence number to pass to store, taken before fetching.
+     */
+    private synchronized long begin() {
+        return this.sequence;
+    }
+
+    /**
+     * Caches a fetched case, unless it was invalidated since the fetch began.
+     */
+    private synchronized void store(FogbugzCase fbCase, long begun) {
+        if (this.invalidatedAt[stripe(fbCase.getId())] <= begun) {
+            this.cases.put(fbCase.getId(), new FogbugzCase(fbCase));
+        }
+    }
+
+    public FogbugzCase getCaseById(int id) throws InvalidResponseException, NoSuchCaseException {
+        FogbugzCase cached = this.cases.get(id);
+        if (cached != null) {
+            return new FogbugzCase(cached);
+        }
+        long begun = this.begin();
+        FogbugzCase fbCase = this.manager.getCaseById(id);
+        this.store(fbCase, begun);
+        return fbCase;
+    }
+
+    public FogbugzCaseLookup getCasesByIds(Collection<Integer> ids) throws InvalidResponseException {
+        Map<Integer, FogbugzCase> hits = new LinkedHashMap<Integer, FogbugzCase>();
+        List<Integer> missed = new ArrayList<Integer>();
+        for (Integer id : new LinkedHashSet<Integer>(ids)) {
+            FogbugzCase cached = this.cases.get(id);
+            if (cached != null) {
+                hits.put(id, new FogbugzCase(cached));
+            } else {
+                missed.add(id);
+            }
+        }
+        if (missed.isEmpty()) {
+            return new FogbugzCaseLookup(hits, new LinkedHashSet<Integer>());
+        }
+
+        long begun = this.begin();
+        FogbugzCaseLookup fetched = this.manager.getCasesByIds(missed);
+        for (FogbugzCase fbCase : fetched.getCases().values()) {
+            this.store(fbCase, begun);
+        }
+
+        // Keep the order in which the ids were asked for.
+        Map<Integer, FogbugzCase> found = new LinkedHashMap<Integer, FogbugzCase>();
+        Set<Integer> missingIds = new LinkedHashSet<Integer>();
+        for (Integer id : new LinkedHashSet<Integer>(ids)) {
+            FogbugzCase fbCase = hits.containsKey(id) ? hits.get(id) : fetched.getCases().get(id);
+            if (fbCase != null) {
+                found.put(id, fbCase);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new FogbugzCaseLookup(found, missingIds);
+    }
+
+    /**
+     * Always asks Fogbugz, and refreshes the cached snapshots of the returned cases.
+     */
+    public List<FogbugzCase> searchForCases(String query) throws InvalidResponseException, NoSuchCaseException {
+        long begun = this.begin();
+        List<FogbugzCase> found = this.manager.searchForCases(query);
+        for (FogbugzCase fbCase : found) {
+            this.store(fbCase, begun);
+        }
+        return found;
+    }
+
+    /**
+     * Always asks Fogbugz, and refreshes the cached snapshots of the cases as they are consumed.
+     */
+    public Stream<FogbugzCase> streamCases(String query) throws InvalidResponseException {
+        long begun = this.begin();
+        return this.manager.streamCases(query).peek(fbCase -> this.store(fbCase, begun));
+    }
+
+    public List<FogbugzProject> getFogbugzProjects() throws InvalidResponseException {
+        return this.manager.getFogbugzProjects();
+    }
+
+    public List<FogbugzEvent> getEventsForCase(int id) {
+        return this.manager.getEventsForCase(id);
+    }
+
+    public FogbugzEventTimeline getEventTimeline(int caseId) {
+        return this.manager.getEventTimeline(caseId);
+    }
+
+    public int updateEventTimeline(FogbugzEventTimeline timeline) {
+        return this.manager.updateEventTimeline(timeline);
+    }
+
+    public FogbugzEvent getLastAssignedToGatekeepersEvent(int caseId) {
+        return this.manager.getLastAssignedToGatekeepersEvent(caseId);
+    }
+
+    public FogbugzEvent getLastAssignedTo(int caseId, int userId) {
+        return this.manager.getLastAssignedTo(caseId, userId);
+    }
+
+    /**
+     * Saves the case and drops it from the cache, since Fogbugz may have changed more than we sent.
+     */
+    public boolean saveCase(FogbugzCase fbCase, String comment) {
+        try {
+            return this.manager.saveCase(fbCase, comment);
+        } finally {
+            this.invalidate(fbCase.getId());
+        }
+    }
+
+    public boolean saveCase(FogbugzCase fbCase) {
+        return this.saveCase(fbCase, "");
+    }
+
+    public FogbugzSaveReport saveCases(List<FogbugzCase> cases, String comment) {
+        try {
+            return this.manager.saveCases(cases, comment);
+        } finally {
+            for (FogbugzCase fbCase : cases) {
+                this.invalidate(fbCase.getId());
+            }
+        }
+    }
+
+    public FogbugzCase assignToMergekeepers(FogbugzCase fbCase) {
+        return this.manager.assignToMergekeepers(fbCase);
+    }
+
+    public FogbugzCase assignToGatekeepers(FogbugzCase fbCase) {
+        return this.manager.assignToGatekeepers(fbCase);
+    }
+
+    public FogbugzUser getFogbugzUser(int ix) {
+        return this.manager.getFogbugzUser(ix);
+    }
+
+    public List<FogbugzUser> getFogbugzUsers() {
+        return this.manager.getFogbugzUsers();
+    }
+
+    public List<FogbugzMilestone> getMilestones() {
+        return this.manager.getMilestones();
+    }
+
+    public boolean createMilestone(FogbugzMilestone milestone) {
+        return this.manager.createMilestone(milestone);
+    }
+
+    public boolean createMilestoneIfNotExists(String milestoneName) {
+        return this.manager.createMilestoneIfNotExists(milestoneName);
+    }
+
+    public List<FogbugzTimeinterval> getTimeintervals(int caseId) throws InvalidResponseException {
+        return this.manager.getTimeintervals(caseId);
+    }
+
+    public List<FogbugzTimeinterval> getTimeintervals(LocalDate from, LocalDate till) throws InvalidResponseException {
+        return this.manager.getTimeintervals(from, till);
+    }
+
+    public List<FogbugzTimeinterval> getTimeintervals(int userId, LocalDate from, LocalDate till) throws InvalidResponseException {
+        return this.manager.getTimeintervals(userId, from, till);
+    }
+}
@@ -0,0 +1,167 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * AsyncFogbugzManager that runs the calls of a blocking FogbugzManager on an executor,
+ * so requests and response decoding are exactly the same as for the blocking manager.
+ */
+public class DefaultAsyncFogbugzManager implements AsyncFogbugzManager, Closeable {
+
+    /**
+     * A blocking call that may throw the checked exceptions of FogbugzManager.
+     */
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    @Getter private final FogbugzManager manager;
+    @Getter private final Executor executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates an async manager running on virtual threads when the JDK supports them,
+     * else on a pool of daemon threads. The executor is shut down by close().
+     * @param manager blocking manager to run calls on.
+     */
+    public DefaultAsyncFogbugzManager(FogbugzManager manager) {
+        this(manager, FogbugzExecutors.newAsyncExecutor("fogbugz-async"), true);
+    }
+
+    /**
+     * Creates an async manager running on the given executor, which is not shut down by close().
+     * @param manager blocking manager to run calls on.
+     * @param executor executor to run blocking calls on.
+     */
+    public DefaultAsyncFogbugzManager(FogbugzManager manager, Executor executor) {
+        this(manager, executor, false);
+    }
+
+    private DefaultAsyncFogbugzManager(FogbugzManager manager, Executor executor, boolean ownsExecutor) {
+        this.manager = manager;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Runs the call on the executor, completing the future with its result or exception.
+     */
+    private <T> CompletableFuture<T> submit(final Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<FogbugzCase> getCaseById(int id) {
+        return this.submit(() -> this.manager.getCaseById(id));
+    }
+
+    public CompletableFuture<FogbugzCaseLookup> getCasesByIds(Collection<Integer> ids) {
+        return this.submit(() -> this.manager.getCasesByIds(ids));
+    }
+
+    public CompletableFuture<List<FogbugzCase>> searchForCases(String query) {
+        return this.submit(() -> this.manager.searchForCases(query));
+    }
+
+    public CompletableFuture<Stream<FogbugzCase>> streamCases(String query) {
+        return this.submit(() -> this.manager.streamCases(query));
+    }
+
+    public CompletableFuture<List<FogbugzProject>> getFogbugzProjects() {
+        return this.submit(() -> this.manager.getFogbugzProjects());
+    }
+
+    public CompletableFuture<List<FogbugzEvent>> getEventsForCase(int id) {
+        return this.submit(() -> this.manager.getEventsForCase(id));
+    }
+
+    public CompletableFuture<FogbugzEventTimeline> getEventTimeline(int caseId) {
+        return this.submit(() -> this.manager.getEventTimeline(caseId));
+    }
+
+    public CompletableFuture<Integer> updateEventTimeline(FogbugzEventTimeline timeline) {
+        return this.submit(() -> this.manager.updateEventTimeline(timeline));
+    }
+
+    public CompletableFuture<FogbugzEvent> getLastAssignedToGatekeepersEvent(int caseId) {
+        return this.submit(() -> this.manager.getLastAssignedToGatekeepersEvent(caseId));
+    }
+
+    public CompletableFuture<FogbugzEvent> getLastAssignedTo(int caseId, int userId) {
+        return this.submit(() -> this.manager.getLastAssignedTo(caseId, userId));
+    }
+
+    public CompletableFuture<Boolean> saveCase(FogbugzCase fbCase, String comment) {
+        return this.submit(() -> this.manager.saveCase(fbCase, comment));
+    }
+
+    public CompletableFuture<Boolean> saveCase(FogbugzCase fbCase) {
+        return this.submit(() -> this.manager.saveCase(fbCase));
+    }
+
+    public CompletableFuture<FogbugzSaveReport> saveCases(List<FogbugzCase> cases, String comment) {
+        return this.submit(() -> this.manager.saveCases(cases, comment));
+    }
+
+    public CompletableFuture<FogbugzUser> getFogbugzUser(int ix) {
+        return this.submit(() -> this.manager.getFogbugzUser(ix));
+    }
+
+    public CompletableFuture<List<FogbugzUser>> getFogbugzUsers() {
+        return this.submit(() -> this.manager.getFogbugzUsers());
+    }
+
+    public CompletableFuture<List<FogbugzMilestone>> getMilestones() {
+        return this.submit(() -> this.manager.getMilestones());
+    }
+
+    public CompletableFuture<Boolean> createMilestone(FogbugzMilestone milestone) {
+        return this.submit(() -> this.manager.createMilestone(milestone));
+    }
+
+    public CompletableFuture<Boolean> createMilestoneIfNotExists(String milestoneName) {
+        return this.submit(() -> this.manager.createMilestoneIfNotExists(milestoneName));
+    }
+
+    public CompletableFuture<List<FogbugzTimeinterval>> getTimeintervals(int caseId) {
+        return this.submit(() -> this.manager.getTimeintervals(caseId));
+    }
+
+    public CompletableFuture<List<FogbugzTimeinterval>> getTimeintervals(LocalDate from, LocalDate till) {
+        return this.submit(() -> this.manager.getTimeintervals(from, till));
+    }
+
+    public CompletableFuture<List<FogbugzTimeinterval>> getTimeintervals(int userId, LocalDate from, LocalDate till) {
+        return this.submit(() -> this.manager.getTimeintervals(userId, from, till));
+    }
+
+    /**
+     * Shuts down the executor if it was created by this manager. Does not close the blocking manager.
+     */
+    public void close() {
+        if (this.ownsExecutor && this.executor instanceof ExecutorService) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+}
@@ -4,6 +4,8 @@ import edu.umd.cs.findbugs.annotations.Nullable;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.java.Log;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.*;
 import org.xml.sax.SAXException;
 
@@ -11,42 +13,133 @@ import javax.xml.bind.DatatypeConverter;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Manager for FogbugzCase objects. Use this to retrieve, save and create cases.
  */
 @Log
-public class DefaultFogbugzManager implements FogbugzManager{
+public class DefaultFogbugzManager implements FogbugzManager, Closeable {
 
+    private FogbugzTransport transport;
     private String url;
     private String token;
     @Getter private String featureBranchFieldname;
     @Getter private String originalBranchFieldname;
     @Getter private String targetBranchFieldname;
     @Getter private String approvedRevisionFieldname;
-    @Getter @Setter private String ciProjectFieldName;
+    @Getter private String ciProjectFieldName;
     @Getter private int mergekeeperUserId;
     @Getter private int gatekeeperUserId;
 
+    private FogbugzRequestBuilder requestBuilder;
+    // Columns requested in every search, computed once from the custom field names.
+    private String searchColumns;
+
     /**
-     * Constructor of DefaultFogbugzManager.
+     * When true, search responses are parsed into a DOM tree before decoding, instead of being
+     * decoded in one pass with the streaming parser. Kept as a fallback and for comparison.
+     */
+    @Getter @Setter private boolean domDecoding;
+
+    /**
+     * Number of case ids getCasesByIds packs into one search request.
+     */
+    @Getter @Setter private int caseBatchSize = 100;
+
+    /**
+     * Number of search requests getCasesByIds runs at the same time.
+     */
+    @Getter @Setter private int batchConcurrency = 4;
+
+    /**
+     * Number of edits saveCases runs at the same time.
+     */
+    @Getter @Setter private int saveConcurrency = 4;
+
+    /**
+     * Maximum number of edits per second saveCases sends, 0 for no limit.
+     */
+    @Getter @Setter private double saveRateLimit = 0;
+
+    /**
+     * Throttle every API call goes through, null for none. May be shared with other managers.
+     */
+    @Getter @Setter private FogbugzThrottle throttle;
+
+    /**
+     * Policy for retrying failed API calls, null to never retry. May be shared with other managers.
+     */
+    @Getter @Setter private FogbugzRetryPolicy retryPolicy = new FogbugzRetryPolicy();
+
+    /**
+     * Receives timings, sizes, counts, errors and retries of every API call. May be shared with other managers.
+     */
+    @Getter @Setter private FogbugzMetrics metrics = FogbugzMetrics.NONE;
+
+    // Told about every case this manager fetches or saves.
+    private final List<FogbugzCaseListener> caseListeners = new CopyOnWriteArrayList<FogbugzCaseListener>();
+
+    /**
+     * When true, identical read requests that are in flight at the same time share one API call and its result.
+     */
+    @Getter @Setter private boolean coalesceRequests = true;
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // Canonical instances of repeated values in responses, shared by all cases and events this manager decodes.
+    private final StringInterner interner = new StringInterner(StringInterner.DEFAULT_CAPACITY);
+
+    /**
+     * Executor for requests that run concurrently. When not set, a daemon pool of
+     * max(batchConcurrency, saveConcurrency) threads is created on first use and shut down by close().
+     */
+    @Setter private ExecutorService executor;
+    private ExecutorService ownExecutor;
+
+    /**
+     * Constructor of DefaultFogbugzManager, using a pooled HttpClientFogbugzTransport with default settings.
      */
     public DefaultFogbugzManager(String url, String token, @Nullable String featureBranchFieldname,
                           @Nullable String originalBranchFieldname, @Nullable String targetBranchFieldname,
                           @Nullable String approvedRevisionFieldname, @Nullable String ciProjectFieldName,
                           int mergekeeperUserId, int gatekeeperUserId) {
+        this(new HttpClientFogbugzTransport(), url, token, featureBranchFieldname, originalBranchFieldname,
+                targetBranchFieldname, approvedRevisionFieldname, ciProjectFieldName, mergekeeperUserId, gatekeeperUserId);
+    }
+
+    /**
+     * Constructor of DefaultFogbugzManager.
+     * @param transport transport used for all API calls, closed when this manager is closed.
+     */
+    public DefaultFogbugzManager(FogbugzTransport transport, String url, String token,
+                          @Nullable String featureBranchFieldname, @Nullable String originalBranchFieldname,
+                          @Nullable String targetBranchFieldname, @Nullable String approvedRevisionFieldname,
+                          @Nullable String ciProjectFieldName, int mergekeeperUserId, int gatekeeperUserId) {
 
+        this.transport = transport;
         this.url = url;
         this.token = token;
         this.mergekeeperUserId = mergekeeperUserId;
@@ -78,31 +171,220 @@ public class DefaultFogbugzManager implements FogbugzManager{
         } else {
             this.ciProjectFieldName = "";
         }
+        this.requestBuilder = new FogbugzRequestBuilder(this.url, this.token);
+        this.searchColumns = this.buildSearchColumns();
     }
 
-    /**
-     * Helper method to create basic URL with authentication token in it.
-     * @return String with basic URL
-     */
-    private String getFogbugzUrl() {
-        return this.url + "api.asp?token=" + this.token;
+    public void setCiProjectFieldName(String ciProjectFieldName) {
+        this.ciProjectFieldName = ciProjectFieldName;
+        this.searchColumns = this.buildSearchColumns();
     }
 
     /**
      * Helper method to create API url from Map, with proper encoding.
      * @param params Map with parameters to encode.
      * @return String which represents API URL.
+     * Package-private so the benchmarks module can measure it.
+     */
+    String mapToFogbugzUrl(Map<String, String> params) {
+        if (DefaultFogbugzManager.log.isLoggable(Level.FINE)) {
+            // The token is left out, it does not belong in log files.
+            DefaultFogbugzManager.log.fine("Sending request to Fogbugz: " + this.requestBuilder.describe(params));
+        }
+        return this.requestBuilder.build(params);
+    }
+
+    /**
+     * Opens a stream with the response of the Fogbugz API. Closing the stream releases the connection.
+     * With a retry policy, responses to read commands are read into memory first, so a connection that
+     * fails halfway the body is retried too.
+     */
+    private InputStream getFogbugzStream(Map<String, String> parameters) throws IOException {
+        return this.getFogbugzStream(parameters, !isWriteCommand(parameters.get("cmd")));
+    }
+
+    /**
+     * @param buffered read the whole response within the retried attempt, for responses that are not
+     * decoded lazily. Buffered responses report no decode time to the metrics.
+     */
+    private InputStream getFogbugzStream(Map<String, String> parameters, boolean buffered) throws IOException {
+        String apiUrl = this.mapToFogbugzUrl(parameters);
+        String cmd = parameters.get("cmd");
+        FogbugzMetrics metrics = this.getMetricsOrNone();
+        FogbugzRetryPolicy policy = this.retryPolicy;
+        if (policy == null) {
+            try {
+                return this.openStream(cmd, apiUrl, isWriteCommand(cmd));
+            } catch (IOException | RuntimeException e) {
+                metrics.requestFailed(cmd, e);
+                throw e;
+            }
+        }
+
+        boolean safeToRepeat = isSafeToRepeat(parameters);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                policy.beforeAttempt();
+                InputStream stream = this.openStream(cmd, apiUrl, isWriteCommand(cmd));
+                if (buffered) {
+                    try (InputStream response = stream) {
+                        stream = new ByteArrayInputStream(IOUtils.toByteArray(response));
+                    }
+                }
+                policy.onSuccess();
+                return stream;
+            } catch (IOException e) {
+                policy.onFailure(e);
+                if (!policy.shouldRetry(attempt, e, safeToRepeat)) {
+                    metrics.requestFailed(cmd, e);
+                    throw e;
+                }
+                DefaultFogbugzManager.log.log(Level.WARNING, "Fogbugz " + cmd + " request failed, retrying: " + e);
+                metrics.requestRetried(cmd, attempt);
+                policy.backoff(attempt);
+            } catch (RuntimeException e) {
+                policy.onAbort();
+                metrics.requestFailed(cmd, e);
+                throw e;
+            } catch (Error e) {
+                policy.onAbort();
+                throw e;
+            }
+        }
+    }
+
+    private FogbugzMetrics getMetricsOrNone() {
+        return this.metrics == null ? FogbugzMetrics.NONE : this.metrics;
+    }
+
+    /**
+     * Sends one request through the throttle, if any, measuring it when metrics are set.
      */
-    private String mapToFogbugzUrl(Map<String, String> params) throws UnsupportedEncodingException {
-        String output = this.getFogbugzUrl();
-        for (String key : params.keySet()) {
-            String value = params.get(key);
-            if (!value.isEmpty()) {
-                output += "&" + URLEncoder.encode(key, "UTF-8") + "=" + URLEncoder.encode(value, "UTF-8");
+    private InputStream openStream(String cmd, String apiUrl, boolean write) throws IOException {
+        FogbugzThrottle throttle = this.throttle;
+        FogbugzMetrics metrics = this.getMetricsOrNone();
+        if (throttle == null && metrics == FogbugzMetrics.NONE) {
+            return this.transport.get(apiUrl);
+        }
+
+        long requested = System.nanoTime();
+        FogbugzThrottle.Permit permit = null;
+        if (throttle != null) {
+            try {
+                permit = throttle.acquire(write);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the Fogbugz throttle.");
+            }
+        }
+        long start = System.nanoTime();
+        InputStream stream;
+        try {
+            stream = this.transport.get(apiUrl);
+        } catch (IOException | RuntimeException e) {
+            if (permit != null) {
+                permit.release(false, System.nanoTime() - start);
             }
+            throw e;
+        }
+        if (permit != null) {
+            // The request is done once the server answered. Holding the permit while the caller consumes the body,
+            // as with streamCases, would deadlock callers that make other requests meanwhile at a limit of 1.
+            permit.release(true, System.nanoTime() - start);
+        }
+        if (metrics == FogbugzMetrics.NONE) {
+            return stream;
+        }
+        return new ResponseStream(stream, cmd, metrics, start - requested, start);
+    }
+
+    /**
+     * Response body that reports how long the response took to read and to decode when closed.
+     * Time the stream is open but not being read is spent decoding.
+     */
+    private static final class ResponseStream extends FilterInputStream {
+        private final String cmd;
+        private final FogbugzMetrics metrics;
+        private final long waitNanos;
+        private final long answered;
+        // Time until the server answered.
+        private final long latency;
+        private long readNanos;
+        private long bytes;
+        private boolean closed;
+
+        ResponseStream(InputStream stream, String cmd, FogbugzMetrics metrics, long waitNanos, long start) {
+            super(stream);
+            this.cmd = cmd;
+            this.metrics = metrics;
+            this.waitNanos = waitNanos;
+            this.answered = System.nanoTime();
+            this.latency = this.answered - start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            this.readNanos += System.nanoTime() - start;
+            this.bytes += b == -1 ? 0 : 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(buffer, offset, length);
+            this.readNanos += System.nanoTime() - start;
+            this.bytes += Math.max(0, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            long open = System.nanoTime() - this.answered;
+            try {
+                super.close();
+            } finally {
+                this.metrics.requestCompleted(this.cmd, this.waitNanos, this.latency, this.readNanos,
+                        Math.max(0, open - this.readNanos), this.bytes);
+            }
+        }
+    }
+
+    /**
+     * Reports the number of objects decoded from a response to the metrics.
+     */
+    private <T> List<T> counted(String cmd, List<T> list) {
+        if (list != null) {
+            this.getMetricsOrNone().entitiesDecoded(cmd, list.size());
         }
-        DefaultFogbugzManager.log.info("Generated URL to send to Fogbugz: " + output);
-        return output;
+        return list;
+    }
+
+    /**
+     * @return true when sending the request twice has the same effect as sending it once. Edits set fields to
+     * absolute values, but a comment would be added twice, and new cases or milestones would be created twice.
+     */
+    private static boolean isSafeToRepeat(Map<String, String> parameters) {
+        String cmd = parameters.get("cmd");
+        if (!isWriteCommand(cmd)) {
+            return true;
+        }
+        String comment = parameters.get("sEvent");
+        return "edit".equals(cmd) && (comment == null || comment.isEmpty());
+    }
+
+    /**
+     * @return true for API commands that change data in Fogbugz.
+     */
+    private static boolean isWriteCommand(String cmd) {
+        return cmd != null && (cmd.startsWith("new") || cmd.startsWith("edit") || cmd.equals("assign")
+                || cmd.equals("resolve") || cmd.equals("reactivate") || cmd.equals("close") || cmd.equals("reopen"));
     }
 
     /**
@@ -110,12 +392,65 @@ public class DefaultFogbugzManager implements FogbugzManager{
      * with the response XML in it, so we can use that.
      */
     private Document getFogbugzDocument(Map<String, String> parameters) throws IOException, ParserConfigurationException, SAXException {
-        URL uri = new URL(this.mapToFogbugzUrl(parameters));
-        System.out.println(uri);
-        HttpURLConnection con = (HttpURLConnection) uri.openConnection();
         DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        return dBuilder.parse(con.getInputStream());
+        InputStream stream = this.getFogbugzStream(parameters);
+        try (InputStream response = stream) {
+            return dBuilder.parse(response);
+        } catch (IOException | SAXException | RuntimeException e) {
+            this.getMetricsOrNone().requestFailed(parameters.get("cmd"), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes a response with the stream decoder.
+     */
+    private interface ResponseDecoder<T> {
+        T decode(FogbugzXmlStreamDecoder decoder, InputStream stream)
+                throws IOException, XMLStreamException, InvalidResponseException;
+    }
+
+    /**
+     * Fetches a response and decodes it. Failures to get the response are reported to the metrics by
+     * getFogbugzStream, failures to read or decode it, including error responses, are reported here.
+     */
+    private <T> T decodeResponse(Map<String, String> parameters, ResponseDecoder<T> decoder)
+            throws IOException, XMLStreamException, InvalidResponseException {
+        InputStream stream = this.getFogbugzStream(parameters);
+        try (InputStream response = stream) {
+            return decoder.decode(this.getStreamDecoder(), response);
+        } catch (IOException | XMLStreamException | InvalidResponseException | RuntimeException e) {
+            this.getMetricsOrNone().requestFailed(parameters.get("cmd"), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the transport and releases all pooled connections.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.ownExecutor != null) {
+                this.ownExecutor.shutdown();
+                this.ownExecutor = null;
+            }
+        }
+        this.transport.close();
+    }
+
+    /**
+     * Returns the configured executor, or the pool owned by this manager.
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (this.executor != null) {
+            return this.executor;
+        }
+        if (this.ownExecutor == null) {
+            this.ownExecutor = FogbugzExecutors.newDaemonPool(
+                    Math.max(1, Math.max(this.batchConcurrency, this.saveConcurrency)), "fogbugz");
+        }
+        return this.ownExecutor;
     }
 
     /**
@@ -131,18 +466,217 @@ public class DefaultFogbugzManager implements FogbugzManager{
         return caseList.get(0);
     }
 
+    /**
+     * Retrieves many cases at once. Ids are packed into ixBug:1,2,3 queries of caseBatchSize ids,
+     * of which batchConcurrency run at the same time.
+     * @param ids ids of the cases to fetch, duplicates are fetched once.
+     * @return found cases by id, and the ids Fogbugz returned no case for.
+     */
+    public FogbugzCaseLookup getCasesByIds(Collection<Integer> ids) throws InvalidResponseException {
+        List<Integer> uniqueIds = new ArrayList<Integer>(new LinkedHashSet<Integer>(ids));
+        int batchSize = Math.max(1, this.caseBatchSize);
+        Map<Integer, FogbugzCase> found = new HashMap<Integer, FogbugzCase>();
+
+        if (uniqueIds.size() <= batchSize) {
+            // One request, no need to hand it to another thread.
+            for (FogbugzCase fbCase : this.searchCaseBatch(uniqueIds)) {
+                found.put(fbCase.getId(), fbCase);
+            }
+        } else {
+            CompletionService<List<FogbugzCase>> completion =
+                    new ExecutorCompletionService<List<FogbugzCase>>(this.getExecutor());
+            List<Future<List<FogbugzCase>>> futures = new ArrayList<Future<List<FogbugzCase>>>();
+            int next = 0;
+            int running = 0;
+            try {
+                while (next < uniqueIds.size() || running > 0) {
+                    while (next < uniqueIds.size() && running < Math.max(1, this.batchConcurrency)) {
+                        final List<Integer> batch = uniqueIds.subList(next, Math.min(next + batchSize, uniqueIds.size()));
+                        futures.add(completion.submit(() -> this.searchCaseBatch(batch)));
+                        next += batch.size();
+                        running++;
+                    }
+                    for (FogbugzCase fbCase : completion.take().get()) {
+                        found.put(fbCase.getId(), fbCase);
+                    }
+                    running--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InvalidResponseException("Interrupted while fetching cases.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InvalidResponseException) {
+                    throw (InvalidResponseException) e.getCause();
+                }
+                throw new InvalidResponseException(String.valueOf(e.getCause()));
+            } finally {
+                for (Future<List<FogbugzCase>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        Map<Integer, FogbugzCase> cases = new LinkedHashMap<Integer, FogbugzCase>();
+        Set<Integer> missingIds = new LinkedHashSet<Integer>();
+        for (Integer id : uniqueIds) {
+            FogbugzCase fbCase = found.get(id);
+            if (fbCase != null) {
+                cases.put(id, fbCase);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new FogbugzCaseLookup(cases, missingIds);
+    }
+
+    /**
+     * Searches for one batch of case ids, returning an empty list when none exist.
+     */
+    private List<FogbugzCase> searchCaseBatch(List<Integer> ids) throws InvalidResponseException {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return this.searchForCases("ixBug:" + StringUtils.join(ids, ","));
+        } catch (NoSuchCaseException e) {
+            return Collections.emptyList();
+        }
+    }
+
     /**
      * Retrieves cases using the Fogbugz API by a query
      * @param query fogbugz search query
      * @return List of cases
      */
     public List<FogbugzCase> searchForCases(String query) throws InvalidResponseException, NoSuchCaseException {
+        final Map<String, String> params = this.getSearchParameters(query);
+        List<FogbugzCase> caseList = this.coalesce("search:" + query + ":" + params.get("cols"),
+                () -> this.counted("search", this.fetchCases(params)), DefaultFogbugzManager::copyCases);
+
+        if (caseList.isEmpty()) {
+            throw new NoSuchCaseException("Fogbugz did not return a case for query id " + query);
+        }
+        return caseList;
+    }
+
+    /**
+     * Fetches and decodes a search response.
+     */
+    private List<FogbugzCase> fetchCases(Map<String, String> params) throws InvalidResponseException {
+        if (this.domDecoding) {
+            return this.fireCasesLoaded(this.searchForCasesWithDom(params));
+        }
+        try {
+            return this.fireCasesLoaded(this.decodeResponse(params, FogbugzXmlStreamDecoder::readCases));
+        } catch (InvalidResponseException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InvalidResponseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the call, sharing it with identical calls in flight when coalesceRequests is on.
+     * @param key identifies the request, equal keys must mean equal requests.
+     * @param copier copies a shared result for each caller.
+     */
+    private <V, E extends Exception> V coalesce(String key, SingleFlight.Call<V, E> call, UnaryOperator<V> copier) throws E {
+        if (!this.coalesceRequests || this.singleFlight == null) {
+            return call.call();
+        }
+        return this.singleFlight.execute(key, call, copier);
+    }
+
+    private static List<FogbugzCase> copyCases(List<FogbugzCase> cases) {
+        List<FogbugzCase> copies = new ArrayList<FogbugzCase>(cases.size());
+        for (FogbugzCase fbCase : cases) {
+            copies.add(new FogbugzCase(fbCase));
+        }
+        return copies;
+    }
+
+    // FogbugzUser has public fields, so shared users are copied too.
+    private static FogbugzUser copyUser(FogbugzUser user) {
+        return user == null ? null : new FogbugzUser(user.id, user.name, user.email, user.phone);
+    }
+
+    private static List<FogbugzUser> copyUsers(List<FogbugzUser> users) {
+        List<FogbugzUser> copies = new ArrayList<FogbugzUser>(users.size());
+        for (FogbugzUser user : users) {
+            copies.add(copyUser(user));
+        }
+        return copies;
+    }
+
+    private static <T> List<T> copyList(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
+
+    /**
+     * Retrieves cases using the Fogbugz API by a query, decoding each case only when the stream asks for it.
+     * Close the stream (try-with-resources) to release the connection, also when not all cases were consumed.
+     * @param query fogbugz search query
+     * @return Stream of cases, empty when nothing matched.
+     */
+    public Stream<FogbugzCase> streamCases(String query) throws InvalidResponseException {
+        InputStream stream = null;
+        try {
+            // Not buffered, the cases are decoded while they are read.
+            stream = this.getFogbugzStream(this.getSearchParameters(query), false);
+        } catch (IOException e) {
+            throw new InvalidResponseException(e.getMessage());
+        }
+        final FogbugzMetrics metrics = this.getMetricsOrNone();
+        try {
+            final FogbugzXmlStreamDecoder.CaseIterator cases = this.getStreamDecoder().iterateCases(stream);
+            Iterator<FogbugzCase> reported = new Iterator<FogbugzCase>() {
+                public boolean hasNext() {
+                    return cases.hasNext();
+                }
+
+                public FogbugzCase next() {
+                    try {
+                        return cases.next();
+                    } catch (UncheckedIOException e) {
+                        metrics.requestFailed("search", e.getCause());
+                        throw e;
+                    }
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reported, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .peek(this::fireCaseLoaded)
+                    .onClose(() -> {
+                        try {
+                            cases.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (Exception e) {
+            IOUtils.closeQuietly(stream);
+            metrics.requestFailed("search", e);
+            if (e instanceof InvalidResponseException) {
+                throw (InvalidResponseException) e;
+            }
+            throw new InvalidResponseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Parameters for a case search, requesting all columns we know how to decode.
+     */
+    private Map<String, String> getSearchParameters(String query) {
         HashMap<String, String> params = new HashMap<String, String>();  // Hashmap defaults to <String, String>
         params.put("cmd", "search");
         params.put("q", query);
-        params.put("cols", "ixBug,ixBugParent,tags,fOpen,sTitle,sFixFor,ixPersonOpenedBy,ixPersonAssignedTo,ixBugParent,ixBugChildren,ixProject,sProject,sStatus,hrsOrigEst,hrsCurrEst,hrsElapsed" + // No trailing comma
-                this.getCustomFieldsCSV());
+        params.put("cols", this.searchColumns);
+        return params;
+    }
 
+    /**
+     * Fetches a search response as DOM tree and constructs cases from its nodes.
+     */
+    private List<FogbugzCase> searchForCasesWithDom(Map<String, String> params) throws InvalidResponseException {
         Document doc = null;
         try {
             doc = this.getFogbugzDocument(params);
@@ -158,19 +692,51 @@ public class DefaultFogbugzManager implements FogbugzManager{
         } catch (NumberFormatException e) {
             log.log(Level.INFO, "No valid number in case count XML response.", e);
         }
+
+        ArrayList<FogbugzCase> caseList = new ArrayList<FogbugzCase>();
         if (caseCount < 1) {
-            throw new NoSuchCaseException("Fogbugz did not return a case for query id " + query);
+            return caseList;
         }
 
         NodeList caseNodes = doc.getElementsByTagName("case");
-        ArrayList<FogbugzCase> caseList = new ArrayList<FogbugzCase>();
         for (int i = 0; i < caseNodes.getLength(); i++) {
             caseList.add(this.constructCaseFromXmlNode(caseNodes.item(i)));
         }
         return caseList;
     }
 
+    /**
+     * Creates a streaming decoder for the custom fields configured on this manager.
+     */
+    private FogbugzXmlStreamDecoder getStreamDecoder() {
+        return new FogbugzXmlStreamDecoder(this.featureBranchFieldname, this.originalBranchFieldname,
+                this.targetBranchFieldname, this.approvedRevisionFieldname, this.ciProjectFieldName, this.interner);
+    }
+
+    private String intern(String value) {
+        return this.interner == null ? value : this.interner.intern(value);
+    }
+
+    /**
+     * @return maximum number of distinct project, status, milestone, branch, tag and event values shared between decoded objects.
+     */
+    public int getInternCapacity() {
+        return this.interner.getCapacity();
+    }
+
+    /**
+     * Sets the maximum number of distinct values shared between decoded objects, 0 to decode every value into its own string.
+     */
+    public void setInternCapacity(int capacity) {
+        this.interner.setCapacity(capacity);
+    }
+
     public List<FogbugzProject> getFogbugzProjects() throws InvalidResponseException {
+        return this.coalesce("projects", () -> this.counted("listProjects", this.fetchFogbugzProjects()),
+                DefaultFogbugzManager::copyList);
+    }
+
+    private List<FogbugzProject> fetchFogbugzProjects() throws InvalidResponseException {
         HashMap<String, String> params = new HashMap<String, String>();
         params.put("cmd", "listProjects");
 
@@ -198,7 +764,11 @@ public class DefaultFogbugzManager implements FogbugzManager{
         return new FogbugzProject(id, name, isDeleted);
 	}
 
-	private FogbugzCase constructCaseFromXmlNode(Node caseNode) {
+    /**
+     * Builds a case from a case element of a DOM search response.
+     * Package-private so the benchmarks module can measure it.
+     */
+	FogbugzCase constructCaseFromXmlNode(Node caseNode) {
         Element doc = (Element) caseNode;
 
         // Collect tags, and put them in list so we can work with them in a nice way.
@@ -206,7 +776,7 @@ public class DefaultFogbugzManager implements FogbugzManager{
         NodeList tagNodeList = doc.getElementsByTagName("tag");
         if (tagNodeList != null && tagNodeList.getLength() != 0) {
             for (int i = 0; i < tagNodeList.getLength(); i++) {
-                tags.add(tagNodeList.item(i).getTextContent());
+                tags.add(this.intern(tagNodeList.item(i).getTextContent()));
             }
         }
 
@@ -224,23 +794,25 @@ public class DefaultFogbugzManager implements FogbugzManager{
                 (this.featureBranchFieldname != null && !this.featureBranchFieldname.isEmpty()) ?
                         doc.getElementsByTagName(this.featureBranchFieldname).item(0).getTextContent() : "",
                 (this.originalBranchFieldname != null && !this.originalBranchFieldname.isEmpty()) ?
-                        doc.getElementsByTagName(this.originalBranchFieldname).item(0).getTextContent() : "",
+                        this.intern(doc.getElementsByTagName(this.originalBranchFieldname).item(0).getTextContent()) : "",
                 (this.targetBranchFieldname != null && !this.targetBranchFieldname.isEmpty()) ?
-                        doc.getElementsByTagName(this.targetBranchFieldname).item(0).getTextContent() : "",
+                        this.intern(doc.getElementsByTagName(this.targetBranchFieldname).item(0).getTextContent()) : "",
                 (this.approvedRevisionFieldname != null && !this.approvedRevisionFieldname.isEmpty()) ?
                         doc.getElementsByTagName(this.approvedRevisionFieldname).item(0).getTextContent() : "",
                 (this.ciProjectFieldName != null && !this.ciProjectFieldName.isEmpty()) ?
-                        doc.getElementsByTagName(this.ciProjectFieldName).item(0).getTextContent() : "",
-                doc.getElementsByTagName("sFixFor").item(0).getTextContent()
+                        this.intern(doc.getElementsByTagName(this.ciProjectFieldName).item(0).getTextContent()) : "",
+                this.intern(doc.getElementsByTagName("sFixFor").item(0).getTextContent())
         );
         
         c.setParentId(getTagIntValue(doc, "ixBugParent"));
         c.setProjectId(getTagIntValue(doc, "ixProject"));
-        c.setProjectName(getTagStringValue(doc, "sProject"));
-        c.setStatusName(getTagStringValue(doc, "sStatus"));
+        c.setProjectName(this.intern(getTagStringValue(doc, "sProject")));
+        c.setStatusName(this.intern(getTagStringValue(doc, "sStatus")));
         c.setHrsOrigEstimate(getTagDecimalValue(doc, "hrsOrigEst"));
         c.setHrsCurrEstimate(getTagDecimalValue(doc, "hrsCurrEst"));
         c.setHrsElapsed(getTagDecimalValue(doc, "hrsElapsed"));
+        c.setLastUpdated(getTagZonedDateTimeValue(doc, "dtLastUpdated"));
+        c.markClean();
         return c;
     }
 
@@ -268,7 +840,7 @@ public class DefaultFogbugzManager implements FogbugzManager{
 	}
 
 	private boolean getTagBooleanValue(Element doc, String tagName) {
-		return Boolean.getBoolean(getTagStringValue(doc, tagName));
+		return Boolean.parseBoolean(getTagStringValue(doc, tagName));
 	}
 	
 	private ZonedDateTime getTagZonedDateTimeValue(Element doc, String tagName) {
@@ -281,12 +853,21 @@ public class DefaultFogbugzManager implements FogbugzManager{
      * @return list of FogbugzEvents
      */
     public List<FogbugzEvent> getEventsForCase(int id) {
+        return this.coalesce("events:" + id, () -> this.counted("search", this.fetchEventsForCase(id)),
+                DefaultFogbugzManager::copyList);
+    }
+
+    private List<FogbugzEvent> fetchEventsForCase(int id) {
         try {
             HashMap<String, String> params = new HashMap<String, String>();  // Hashmap defaults to <String, String>
             params.put("cmd", "search");
             params.put("q", Integer.toString(id));
             params.put("cols", "events");
 
+            if (!this.domDecoding) {
+                return this.decodeResponse(params, (decoder, stream) -> decoder.readEvents(stream, id));
+            }
+
             Document doc = this.getFogbugzDocument(params);
 
             List<FogbugzEvent> eventList = new ArrayList<FogbugzEvent>();
@@ -298,12 +879,12 @@ public class DefaultFogbugzManager implements FogbugzManager{
                     eventList.add(new FogbugzEvent(
                             Integer.parseInt(currentNode.getElementsByTagName("ixBugEvent").item(0).getTextContent()), // eventid
                             id, // caseid
-                            currentNode.getElementsByTagName("sVerb").item(0).getTextContent(), // verb
+                            this.intern(currentNode.getElementsByTagName("sVerb").item(0).getTextContent()), // verb
                             Integer.parseInt(currentNode.getElementsByTagName("ixPerson").item(0).getTextContent()), // person
                             Integer.parseInt(currentNode.getElementsByTagName("ixPersonAssignedTo").item(0).getTextContent()), // personAssignedTo
                             DatatypeConverter.parseDateTime(currentNode.getElementsByTagName("dt").item(0).getTextContent()).getTime(), // dateTime
                             currentNode.getElementsByTagName("evtDescription").item(0).getTextContent(), // evtDescription
-                            currentNode.getElementsByTagName("sPerson").item(0).getTextContent() // sPerson
+                            this.intern(currentNode.getElementsByTagName("sPerson").item(0).getTextContent()) // sPerson
                     ));
                 }
             }
@@ -322,20 +903,7 @@ public class DefaultFogbugzManager implements FogbugzManager{
      * @return Last event with gatekeeper assignment or null.
      */
     public FogbugzEvent getLastAssignedToGatekeepersEvent(int caseId) {
-        List<FogbugzEvent> eventList = this.getEventsForCase(caseId);
-        Collections.sort(eventList);
-        Collections.reverse(eventList);
-
-        for (FogbugzEvent ev : eventList) {
-            int person = ev.getPerson();
-            if (ev.getPersonAssignedTo() == this.gatekeeperUserId
-                    && person != this.gatekeeperUserId
-                    && person != this.mergekeeperUserId) {
-                return ev;
-            }
-        }
-
-        return null;
+        return this.getLastAssignedTo(caseId, this.gatekeeperUserId);
     }
 
     /**
@@ -345,20 +913,11 @@ public class DefaultFogbugzManager implements FogbugzManager{
      * @return Last event with user assignment or null.
      */
     public FogbugzEvent getLastAssignedTo(int caseId, int userId) {
-        List<FogbugzEvent> eventList = this.getEventsForCase(caseId);
-        Collections.sort(eventList);
-        Collections.reverse(eventList);
-
-        for (FogbugzEvent ev : eventList) {
-            int person = ev.getPerson();
-            if (ev.getPersonAssignedTo() == userId
-                    && person != this.gatekeeperUserId
-                    && person != this.mergekeeperUserId) {
-                return ev;
-            }
+        FogbugzEventTimeline timeline = this.getEventTimeline(caseId);
+        if (timeline == null) {
+            return null;
         }
-
-        return null;
+        return timeline.findLastAssignedTo(userId, this.gatekeeperUserId, this.mergekeeperUserId);
     }
 
     /**
@@ -370,47 +929,202 @@ public class DefaultFogbugzManager implements FogbugzManager{
      */
     public boolean saveCase(FogbugzCase fbCase, String comment) {
         try {
-            HashMap<String, String> params = new HashMap<String, String>();
-            // If id = 0, create new case.
-            if (fbCase.getId() == 0) {
-                params.put("cmd", "new");
-                params.put("sTitle", fbCase.getTitle());
-            } else {
-                params.put("cmd", "edit");
-                params.put("ixBug", Integer.toString(fbCase.getId()));
-            }
-            params.put("ixPersonAssignedTo", Integer.toString(fbCase.getAssignedTo()));
-            params.put("ixPersonOpenedBy", Integer.toString(fbCase.getOpenedBy()));
-            params.put("sTags", fbCase.tagsToCSV());
-            if (this.featureBranchFieldname != null && !this.featureBranchFieldname.isEmpty()) {
-                params.put(this.featureBranchFieldname, fbCase.getFeatureBranch());
+            this.postCase(fbCase, comment);
+            return true;
+        } catch (Exception e) {
+            DefaultFogbugzManager.log.log(Level.SEVERE, "Exception while creating/saving case " + Integer.toString(fbCase.getId()), e);
+        }
+        return false;
+    }
+
+    /**
+     * Saves many cases, running up to saveConcurrency edits at the same time and at most saveRateLimit per second.
+     * A failing case does not stop the others.
+     * @param cases The cases to save.
+     * @param comment Comment added to every case.
+     * @return report with the outcome of every case, in the order of the given list.
+     */
+    public FogbugzSaveReport saveCases(List<FogbugzCase> cases, String comment) {
+        final TokenBucket rateLimit = this.saveRateLimit > 0 ? new TokenBucket(this.saveRateLimit, 1) : null;
+        FogbugzSaveResult[] results = new FogbugzSaveResult[cases.size()];
+        int concurrency = Math.max(1, this.saveConcurrency);
+
+        if (concurrency == 1 || cases.size() <= 1) {
+            for (int i = 0; i < cases.size(); i++) {
+                results[i] = this.saveCaseTimed(cases.get(i), comment, rateLimit);
             }
-            if (this.originalBranchFieldname != null && !this.originalBranchFieldname.isEmpty()) {
-                params.put(this.originalBranchFieldname, fbCase.getOriginalBranch());
+        } else {
+            CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(this.getExecutor());
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            int next = 0;
+            int running = 0;
+            try {
+                while (next < cases.size() || running > 0) {
+                    while (next < cases.size() && running < concurrency) {
+                        final int index = next++;
+                        futures.add(completion.submit(() -> {
+                            results[index] = this.saveCaseTimed(cases.get(index), comment, rateLimit);
+                            return index;
+                        }));
+                        running++;
+                    }
+                    completion.take().get();
+                    running--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                DefaultFogbugzManager.log.log(Level.SEVERE, "Exception while saving cases", e.getCause());
+            } finally {
+                for (Future<Integer> future : futures) {
+                    future.cancel(true);
+                }
             }
-            if (this.targetBranchFieldname != null && !this.targetBranchFieldname.isEmpty()) {
-                params.put(this.targetBranchFieldname, fbCase.getTargetBranch());
+        }
+
+        List<FogbugzSaveResult> report = new ArrayList<FogbugzSaveResult>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            FogbugzSaveResult result = results[i];
+            if (result == null) {
+                result = new FogbugzSaveResult(cases.get(i), cases.get(i).getId(), false, "Not saved, interrupted.", 0);
             }
-            if (this.approvedRevisionFieldname != null && !this.approvedRevisionFieldname.isEmpty()) {
-                params.put(this.approvedRevisionFieldname, fbCase.getApprovedRevision());
+            report.add(result);
+        }
+        return new FogbugzSaveReport(report);
+    }
+
+    /**
+     * Saves one case for saveCases, waiting for the rate limit first and timing the request.
+     */
+    private FogbugzSaveResult saveCaseTimed(FogbugzCase fbCase, String comment, TokenBucket rateLimit) {
+        try {
+            if (rateLimit != null) {
+                rateLimit.acquire();
             }
-            if (this.ciProjectFieldName != null && !this.ciProjectFieldName.isEmpty()) {
-                params.put(this.ciProjectFieldName, fbCase.getCiProject());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new FogbugzSaveResult(fbCase, fbCase.getId(), false, "Not saved, interrupted.", 0);
+        }
+
+        long start = System.nanoTime();
+        try {
+            int savedId = this.postCase(fbCase, comment);
+            return new FogbugzSaveResult(fbCase, savedId != 0 ? savedId : fbCase.getId(), true, null,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            DefaultFogbugzManager.log.log(Level.SEVERE, "Exception while creating/saving case " + Integer.toString(fbCase.getId()), e);
+            return new FogbugzSaveResult(fbCase, fbCase.getId(), false, e.getMessage(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Sends a new or edit command for the case, and checks the response for Fogbugz errors.
+     * Edits only send the fields modified since the case was loaded, and are skipped when there is nothing to send.
+     * @return id of the saved case as reported by Fogbugz.
+     */
+    private int postCase(FogbugzCase fbCase, String comment) throws IOException, XMLStreamException, InvalidResponseException {
+        Set<FogbugzCase.Field> dirty = fbCase.getDirtyFields();
+        boolean hasComment = comment != null && !comment.isEmpty();
+        HashMap<String, String> params = new HashMap<String, String>();
+        // If id = 0, create new case.
+        if (fbCase.getId() == 0) {
+            params.put("cmd", "new");
+            dirty = EnumSet.allOf(FogbugzCase.Field.class);
+        } else if (dirty.isEmpty() && !hasComment) {
+            // Nothing changed, so there is nothing to tell Fogbugz.
+            return fbCase.getId();
+        } else {
+            params.put("cmd", "edit");
+            params.put("ixBug", Integer.toString(fbCase.getId()));
+        }
+        // Cleared fields are sent as empty values, so Fogbugz clears them too.
+        if (dirty.contains(FogbugzCase.Field.TITLE)) {
+            params.put("sTitle", StringUtils.defaultString(fbCase.getTitle()));
+        }
+        if (dirty.contains(FogbugzCase.Field.ASSIGNED_TO)) {
+            params.put("ixPersonAssignedTo", Integer.toString(fbCase.getAssignedTo()));
+        }
+        if (dirty.contains(FogbugzCase.Field.OPENED_BY)) {
+            params.put("ixPersonOpenedBy", Integer.toString(fbCase.getOpenedBy()));
+        }
+        if (dirty.contains(FogbugzCase.Field.TAGS)) {
+            params.put("sTags", StringUtils.defaultString(fbCase.tagsToCSV()));
+        }
+        if (dirty.contains(FogbugzCase.Field.FEATURE_BRANCH) 
+                && this.featureBranchFieldname != null && !this.featureBranchFieldname.isEmpty()) {
+            params.put(this.featureBranchFieldname, StringUtils.defaultString(fbCase.getFeatureBranch()));
+        }
+        if (dirty.contains(FogbugzCase.Field.ORIGINAL_BRANCH) 
+                && this.originalBranchFieldname != null && !this.originalBranchFieldname.isEmpty()) {
+            params.put(this.originalBranchFieldname, StringUtils.defaultString(fbCase.getOriginalBranch()));
+        }
+        if (dirty.contains(FogbugzCase.Field.TARGET_BRANCH) 
+                && this.targetBranchFieldname != null && !this.targetBranchFieldname.isEmpty()) {
+            params.put(this.targetBranchFieldname, StringUtils.defaultString(fbCase.getTargetBranch()));
+        }
+        if (dirty.contains(FogbugzCase.Field.APPROVED_REVISION) 
+                && this.approvedRevisionFieldname != null && !this.approvedRevisionFieldname.isEmpty()) {
+            params.put(this.approvedRevisionFieldname, StringUtils.defaultString(fbCase.getApprovedRevision()));
+        }
+        if (dirty.contains(FogbugzCase.Field.CI_PROJECT) 
+                && this.ciProjectFieldName != null && !this.ciProjectFieldName.isEmpty()) {
+            params.put(this.ciProjectFieldName, StringUtils.defaultString(fbCase.getCiProject()));
+        }
+        if (dirty.contains(FogbugzCase.Field.MILESTONE)) {
+            params.put("sFixFor", StringUtils.defaultString(fbCase.getMilestone()));
+        }
+        params.put("sEvent", hasComment ? comment : null);
+        // Fogbugz sets dtLastUpdated on every edit, listeners need it to tell this copy from earlier search results.
+        params.put("cols", "dtLastUpdated");
+
+        FogbugzXmlStreamDecoder.SaveResponse saved = this.decodeResponse(params, FogbugzXmlStreamDecoder::readSaveResponse);
+        if (fbCase.getId() == 0 && saved.id != 0) {
+            // Later saves of this object must edit the new case instead of creating another one.
+            fbCase.setId(saved.id);
+        }
+        fbCase.markClean(dirty);
+        if (this.caseListeners != null && !this.caseListeners.isEmpty()) {
+            // Listeners get the time of the server, the case of the caller is left as it was.
+            FogbugzCase loaded = new FogbugzCase(fbCase);
+            if (saved.lastUpdated != null) {
+                loaded.setLastUpdated(saved.lastUpdated);
             }
+            this.fireCaseLoaded(loaded);
+        }
+        return saved.id;
+    }
 
-            params.put("sFixFor", fbCase.getMilestone());
-            params.put("sEvent", comment);
+    /**
+     * Registers a listener that is told about every case this manager fetches by searching, or saves.
+     * Listeners are called on the request threads.
+     */
+    public void addCaseListener(FogbugzCaseListener listener) {
+        this.caseListeners.add(listener);
+    }
 
-            Document doc = this.getFogbugzDocument(params);
-            DefaultFogbugzManager.log.info("Fogbugz response got when saving case: " + doc.toString());
-            // If we got this far, all is probably well.
-            // TODO: parse XML that gets returned to check status furreal.
-            return true;
+    public void removeCaseListener(FogbugzCaseListener listener) {
+        this.caseListeners.remove(listener);
+    }
 
-        } catch (Exception e) {
-            DefaultFogbugzManager.log.log(Level.SEVERE, "Exception while creating/saving case " + Integer.toString(fbCase.getId()), e);
+    private void fireCaseLoaded(FogbugzCase fbCase) {
+        if (this.caseListeners == null) {
+            return;
         }
-        return false;
+        for (FogbugzCaseListener listener : this.caseListeners) {
+            try {
+                listener.caseLoaded(fbCase);
+            } catch (RuntimeException e) {
+                DefaultFogbugzManager.log.log(Level.WARNING, "Case listener failed on case " + fbCase.getId(), e);
+            }
+        }
+    }
+
+    private List<FogbugzCase> fireCasesLoaded(List<FogbugzCase> cases) {
+        for (FogbugzCase fbCase : cases) {
+            this.fireCaseLoaded(fbCase);
+        }
+        return cases;
     }
 
     /**
@@ -443,6 +1157,10 @@ public class DefaultFogbugzManager implements FogbugzManager{
     }
 
     public FogbugzUser getFogbugzUser(int ix) {
+        return this.coalesce("user:" + ix, () -> this.fetchFogbugzUser(ix), DefaultFogbugzManager::copyUser);
+    }
+
+    private FogbugzUser fetchFogbugzUser(int ix) {
         HashMap<String, String> params = new HashMap<String, String>();
         params.put("cmd", "viewPerson");
         params.put("ixPerson", "" + ix);
@@ -465,6 +1183,11 @@ public class DefaultFogbugzManager implements FogbugzManager{
     
     
     public List<FogbugzUser> getFogbugzUsers() {
+        return this.coalesce("users", () -> this.counted("listPeople", this.fetchFogbugzUsers()),
+                DefaultFogbugzManager::copyUsers);
+    }
+
+    private List<FogbugzUser> fetchFogbugzUsers() {
         HashMap<String, String> params = new HashMap<String, String>();
         params.put("cmd", "listPeople");
         Document doc;
@@ -502,23 +1225,22 @@ public class DefaultFogbugzManager implements FogbugzManager{
      * Returns a list of custom field names, comma separated. Starts with a comma.
      */
     private String getCustomFieldsCSV() {
-        String toReturn = "";
-        if (this.featureBranchFieldname != null && !this.featureBranchFieldname.isEmpty()) {
-            toReturn += "," + this.featureBranchFieldname;
-        }
-        if (this.originalBranchFieldname != null && !this.originalBranchFieldname.isEmpty()) {
-            toReturn += "," + this.originalBranchFieldname;
-        }
-        if (this.targetBranchFieldname != null && !this.targetBranchFieldname.isEmpty()) {
-            toReturn += "," + this.targetBranchFieldname;
-        }
-        if (this.approvedRevisionFieldname != null && !this.approvedRevisionFieldname.isEmpty()) {
-            toReturn += "," + this.approvedRevisionFieldname;
-        }
-        if (this.ciProjectFieldName != null && !this.ciProjectFieldName.isEmpty()) {
-            toReturn += "," + this.ciProjectFieldName;
+        StringBuilder toReturn = new StringBuilder();
+        for (String fieldName : new String[]{this.featureBranchFieldname, this.originalBranchFieldname,
+                this.targetBranchFieldname, this.approvedRevisionFieldname, this.ciProjectFieldName}) {
+            if (fieldName != null && !fieldName.isEmpty()) {
+                toReturn.append(',').append(fieldName);
+            }
         }
-        return toReturn;
+        return toReturn.toString();
+    }
+
+    /**
+     * Builds the cols parameter for searches: the case columns we decode, followed by the custom fields.
+     */
+    private String buildSearchColumns() {
+        return "ixBug,ixBugParent,tags,fOpen,sTitle,sFixFor,ixPersonOpenedBy,ixPersonAssignedTo,ixBugParent,ixBugChildren,ixProject,sProject,sStatus,hrsOrigEst,hrsCurrEst,hrsElapsed,dtLastUpdated" + // No trailing comma
+                this.getCustomFieldsCSV();
     }
 
     /**
@@ -526,6 +1248,11 @@ public class DefaultFogbugzManager implements FogbugzManager{
      * @return list of FogbugzMilestones
      */
     public List<FogbugzMilestone> getMilestones() {
+        return this.coalesce("milestones", () -> this.counted("listFixFors", this.fetchMilestones()),
+                DefaultFogbugzManager::copyList);
+    }
+
+    private List<FogbugzMilestone> fetchMilestones() {
         try {
             HashMap<String, String> params = new HashMap<String, String>();  // Hashmap defaults to <String, String>
             params.put("cmd", "listFixFors");
@@ -573,11 +1300,24 @@ public class DefaultFogbugzManager implements FogbugzManager{
             params.put("fAssignable", "1");  // 1 means true somehow...
             params.put("sFixFor", milestone.getName());
 
-            Document doc = this.getFogbugzDocument(params);
-
-            DefaultFogbugzManager.log.info("Fogbugz response got when saving milestone: " + doc.toString());
-            // If we got this far, all is probably well.
-            // TODO: parse XML that gets returned to check status furreal.
+            // getFogbugzStream already retries, as far as that is safe for a create.
+            Document doc;
+            try {
+                doc = this.getFogbugzDocument(params);
+            } catch (IOException e) {
+                // The request may have reached Fogbugz before failing.
+                if (this.milestoneExists(milestone.getName())) {
+                    DefaultFogbugzManager.log.info("Milestone " + milestone.getName() + " was created before the request failed.");
+                    return true;
+                }
+                throw e;
+            }
+            Node error = doc.getElementsByTagName("error").item(0);
+            if (error != null) {
+                DefaultFogbugzManager.log.log(Level.SEVERE, "Fogbugz did not create milestone " + milestone.getName()
+                        + ": " + error.getTextContent());
+                return false;
+            }
             return true;
 
         } catch (Exception e) {
@@ -586,14 +1326,42 @@ public class DefaultFogbugzManager implements FogbugzManager{
         return false;
     }
 
+    /**
+     * Checks the milestone list for a milestone with the given name.
+     * @throws IOException when the list could not be fetched.
+     */
+    private boolean milestoneExists(String milestoneName) throws IOException {
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put("cmd", "listFixFors");
+        try {
+            Document doc = this.getFogbugzDocument(params);
+            NodeList names = doc.getElementsByTagName("sFixFor");
+            for (int i = 0; i < names.getLength(); i++) {
+                if (milestoneName.equals(names.item(i).getTextContent())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse milestone list.", e);
+        }
+    }
+
+    /**
+     * Fogbugz can not look up a milestone by name, so this still fetches the milestone list, but only
+     * compares the names. FogbugzReferenceDataCache answers from memory instead.
+     */
     public boolean createMilestoneIfNotExists(String milestoneName) {
-        List<FogbugzMilestone> milestones = this.getMilestones();
-        for (FogbugzMilestone milestone : milestones) {
-            if (milestone.getName().equals(milestoneName)) {
+        try {
+            if (this.milestoneExists(milestoneName)) {
                 // Milestone already exists, no need to create.
                 DefaultFogbugzManager.log.info("Milestone " + milestoneName + " already exists, not creating.");
                 return false;
             }
+        } catch (IOException e) {
+            // Creating it anyway could leave two milestones with the same name.
+            DefaultFogbugzManager.log.log(Level.SEVERE, "Could not check whether milestone " + milestoneName + " exists", e);
+            return false;
         }
 
         DefaultFogbugzManager.log.info("Creating milestone " + milestoneName + ".");
@@ -614,6 +1382,12 @@ public class DefaultFogbugzManager implements FogbugzManager{
     }
     
     private List<FogbugzTimeinterval> searchForTimeintervals(int caseId, int userId, LocalDate from, LocalDate till) throws InvalidResponseException {
+        return this.coalesce("intervals:" + caseId + ":" + userId + ":" + from + ":" + till,
+                () -> this.counted("listIntervals", this.fetchTimeintervals(caseId, userId, from, till)),
+                DefaultFogbugzManager::copyList);
+    }
+
+    private List<FogbugzTimeinterval> fetchTimeintervals(int caseId, int userId, LocalDate from, LocalDate till) throws InvalidResponseException {
         HashMap<String, String> params = new HashMap<String, String>();  // Hashmap defaults to <String, String>
         params.put("cmd", "listIntervals");
         if (caseId > 0)
@@ -628,6 +1402,16 @@ public class DefaultFogbugzManager implements FogbugzManager{
         	params.put("dtEnd", till.plusDays(1).toString());
         
 
+        if (!this.domDecoding) {
+            try {
+                return this.decodeResponse(params, FogbugzXmlStreamDecoder::readTimeintervals);
+            } catch (InvalidResponseException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new InvalidResponseException(e.getMessage());
+            }
+        }
+
         Document doc = null;
         try {
             doc = this.getFogbugzDocument(params);
@@ -0,0 +1,91 @@
+package org.paylogic.fogbugz;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Size bounded map that evicts the least recently used entry when full,
+ * and drops entries that are older than their time to live.
+ */
+class ExpiringLruCache<K, V> {
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    ExpiringLruCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, ttl, unit, System::nanoTime);
+    }
+
+    ExpiringLruCache(int maxSize, long ttl, TimeUnit unit, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+        // Access order makes iteration start at the least recently used entry.
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxSize) {
+                    ExpiringLruCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the value, or null when absent or expired.
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        if (entry.expiresAt - this.clock.getAsLong() <= 0) {
+            this.entries.remove(key);
+            this.expirations++;
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        this.entries.put(key, new Entry<V>(value, this.clock.getAsLong() + this.ttlNanos));
+    }
+
+    synchronized void remove(K key) {
+        this.entries.remove(key);
+    }
+
+    synchronized void clear() {
+        this.entries.clear();
+    }
+
+    synchronized FogbugzCacheStats getStats() {
+        return new FogbugzCacheStats(this.hits, this.misses, this.evictions, this.expirations, this.entries.size());
+    }
+}
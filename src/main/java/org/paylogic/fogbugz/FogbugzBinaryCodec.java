@@ -0,0 +1,642 @@
+package org.paylogic.fogbugz;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary format for cases, events, time intervals, users, projects and milestones,
+ * to store them or move them between processes. Writer and Reader work directly on a ByteBuffer.
+ * <p>
+ * A stream starts with a magic byte and the format version, followed by records: a type byte, the varint
+ * length of the body and the body. Ints are varints, hours are fixed-point (scale and unscaled value),
+ * times are epoch seconds or milliseconds in UTC. Repeated strings (project, status, milestone, branches,
+ * tags, verbs, names) are defined once in a string record and referenced by number afterwards; unique strings
+ * such as titles and descriptions are written inline. New fields are only ever added at the end of a body and
+ * unknown record types are skipped, so older readers can read newer streams of the same version.
+ */
+public final class FogbugzBinaryCodec {
+
+    public static final int VERSION = 1;
+    private static final byte MAGIC = (byte) 0xFB;
+
+    static final byte STRING = 1;
+    static final byte CASE = 2;
+    static final byte EVENT = 3;
+    static final byte TIMEINTERVAL = 4;
+    static final byte USER = 5;
+    static final byte PROJECT = 6;
+    static final byte MILESTONE = 7;
+
+    // String references: 0 is null, 1 an inline string, n + 2 entry n of the string table.
+    private static final int NULL_STRING = 0;
+    private static final int INLINE_STRING = 1;
+
+    private FogbugzBinaryCodec() {
+    }
+
+    /**
+     * Encodes the objects into a new byte array.
+     * @throws IllegalArgumentException for objects of other types.
+     */
+    public static byte[] encode(Collection<?> objects) {
+        ByteBuffer buffer = ByteBuffer.allocate(256 + 128 * objects.size());
+        while (true) {
+            try {
+                Writer writer = new Writer(buffer);
+                for (Object object : objects) {
+                    writer.write(object);
+                }
+                byte[] bytes = new byte[buffer.position()];
+                buffer.flip();
+                buffer.get(bytes);
+                return bytes;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Decodes all objects of the given type from an encoded stream, skipping other objects.
+     */
+    public static <T> List<T> decode(ByteBuffer in, Class<T> type) {
+        List<T> objects = new ArrayList<T>();
+        Reader reader = new Reader(in);
+        Object object;
+        while ((object = reader.read()) != null) {
+            if (type.isInstance(object)) {
+                objects.add(type.cast(object));
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Strings defined so far in a stream, shared by its writer or reader.
+     */
+    static final class StringTable {
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+
+        void add(String value) {
+            this.codes.put(value, this.strings.size());
+            this.strings.add(value);
+        }
+
+        int size() {
+            return this.strings.size();
+        }
+
+        /**
+         * Forgets the strings defined after the table had the given size.
+         */
+        void truncate(int size) {
+            while (this.strings.size() > size) {
+                this.codes.remove(this.strings.remove(this.strings.size() - 1));
+            }
+        }
+    }
+
+    /**
+     * Writes objects to a ByteBuffer. When the buffer is full, write throws BufferOverflowException and leaves
+     * the buffer and writer as they were before the call, so the caller can drain the buffer and try again.
+     * Not thread safe.
+     */
+    public static final class Writer {
+        private final StringTable table;
+        private ByteBuffer out;
+        // Size of the string table before the current record, to undo a record that did not fit.
+        private int mark;
+
+        /**
+         * Starts a new stream, writing the header to the buffer.
+         */
+        public Writer(ByteBuffer out) {
+            this(out, new StringTable());
+            out.put(MAGIC).put((byte) VERSION);
+        }
+
+        /**
+         * Continues a stream without header, with the strings defined so far.
+         */
+        Writer(ByteBuffer out, StringTable table) {
+            this.out = out;
+            this.table = table;
+        }
+
+        /**
+         * Continues the stream in another buffer, for example after the previous one was sent.
+         */
+        public void setBuffer(ByteBuffer out) {
+            this.out = out;
+        }
+
+        public ByteBuffer getBuffer() {
+            return this.out;
+        }
+
+        /**
+         * Writes a FogbugzCase, FogbugzEvent, FogbugzTimeinterval, FogbugzUser, FogbugzProject or FogbugzMilestone.
+         * @throws IllegalArgumentException for objects of other types.
+         */
+        public Writer write(Object object) {
+            if (object instanceof FogbugzCase) {
+                return this.write((FogbugzCase) object);
+            } else if (object instanceof FogbugzEvent) {
+                return this.write((FogbugzEvent) object);
+            } else if (object instanceof FogbugzTimeinterval) {
+                return this.write((FogbugzTimeinterval) object);
+            } else if (object instanceof FogbugzUser) {
+                return this.write((FogbugzUser) object);
+            } else if (object instanceof FogbugzProject) {
+                return this.write((FogbugzProject) object);
+            } else if (object instanceof FogbugzMilestone) {
+                return this.write((FogbugzMilestone) object);
+            }
+            throw new IllegalArgumentException("Can not encode " + (object == null ? null : object.getClass()));
+        }
+
+        public Writer write(FogbugzCase fbCase) {
+            int start = this.begin();
+            try {
+                List<String> tags = fbCase.getTags();
+                this.define(fbCase.getProjectName(), fbCase.getStatusName(), fbCase.getMilestone(),
+                        fbCase.getOriginalBranch(), fbCase.getTargetBranch(), fbCase.getCiProject());
+                if (tags != null) {
+                    this.define(tags.toArray(new String[tags.size()]));
+                }
+                int body = this.startRecord(CASE);
+                this.putVarint(fbCase.getId());
+                this.putVarint(fbCase.getParentId());
+                this.putVarint(fbCase.getProjectId());
+                this.putVarint(fbCase.getOpenedBy());
+                this.putVarint(fbCase.getAssignedTo());
+                this.out.put((byte) (fbCase.isOpen() ? 1 : 0));
+                this.putString(fbCase.getTitle(), false);
+                this.putString(fbCase.getProjectName(), true);
+                this.putString(fbCase.getStatusName(), true);
+                this.putString(fbCase.getMilestone(), true);
+                this.putString(fbCase.getFeatureBranch(), false);
+                this.putString(fbCase.getOriginalBranch(), true);
+                this.putString(fbCase.getTargetBranch(), true);
+                this.putString(fbCase.getApprovedRevision(), false);
+                this.putString(fbCase.getCiProject(), true);
+                this.putHours(fbCase.getHrsOrigEstimate());
+                this.putHours(fbCase.getHrsCurrEstimate());
+                this.putHours(fbCase.getHrsElapsed());
+                this.putTime(fbCase.getLastUpdated());
+                if (tags == null) {
+                    this.putVarint(0);
+                } else {
+                    this.putVarint(tags.size() + 1);
+                    for (String tag : tags) {
+                        this.putString(tag, true);
+                    }
+                }
+                this.endRecord(body);
+            } catch (BufferOverflowException e) {
+                this.rollback(start);
+                throw e;
+            }
+            return this;
+        }
+
+        public Writer write(FogbugzEvent event) {
+            int start = this.begin();
+            try {
+                this.define(event.getVerb(), event.getSPerson());
+                int body = this.startRecord(EVENT);
+                this.putVarint(event.getId());
+                this.putVarint(event.getCaseId());
+                this.putVarint(event.getPerson());
+                this.putVarint(event.getPersonAssignedTo());
+                Date time = event.getDateTimeStamp();
+                this.putNullableLong(time == null ? null : time.getTime());
+                this.putString(event.getVerb(), true);
+                this.putString(event.getDescription(), false);
+                this.putString(event.getSPerson(), true);
+                this.endRecord(body);
+            } catch (BufferOverflowException e) {
+                this.rollback(start);
+                throw e;
+            }
+            return this;
+        }
+
+        public Writer write(FogbugzTimeinterval interval) {
+            int start = this.begin();
+            try {
+                int body = this.startRecord(TIMEINTERVAL);
+                this.putVarint(interval.getId());
+                this.putVarint(interval.getCaseId());
+                this.putVarint(interval.getPersonId());
+                this.out.put((byte) (interval.isDeleted() ? 1 : 0));
+                this.putTime(interval.getFrom());
+                this.putTime(interval.getTill());
+                this.endRecord(body);
+            } catch (BufferOverflowException e) {
+                this.rollback(start);
+                throw e;
+            }
+            return this;
+        }
+
+        public Writer write(FogbugzUser user) {
+            int start = this.begin();
+            try {
+                this.define(user.getName());
+                int body = this.startRecord(USER);
+                this.putVarint(user.getId());
+                this.putString(user.getName(), true);
+                this.putString(user.getEmail(), false);
+                this.putString(user.getPhone(), false);
+                this.endRecord(body);
+            } catch (BufferOverflowException e) {
+                this.rollback(start);
+                throw e;
+            }
+            return this;
+        }
+
+        public Writer write(FogbugzProject project) {
+            int start = this.begin();
+            try {
+                this.define(project.getName());
+                int body = this.startRecord(PROJECT);
+                this.putVarint(project.getId());
+                this.putString(project.getName(), true);
+                this.out.put((byte) (project.isDeleted() ? 1 : 0));
+                this.endRecord(body);
+            } catch (BufferOverflowException e) {
+                this.rollback(start);
+                throw e;
+            }
+            return this;
+        }
+
+        public Writer write(FogbugzMilestone milestone) {
+            int start = this.begin();
+            try {
+                this.define(milestone.getName());
+                int body = this.startRecord(MILESTONE);
+                this.putVarint(milestone.getId());
+                this.putString(milestone.getName(), true);
+                this.out.put((byte) ((milestone.isDeleted() ? 1 : 0) | (milestone.isReallyDeleted() ? 2 : 0)));
+                this.endRecord(body);
+            } catch (BufferOverflowException e) {
+                this.rollback(start);
+                throw e;
+            }
+            return this;
+        }
+
+        private int begin() {
+            this.mark = this.table.size();
+            return this.out.position();
+        }
+
+        private void rollback(int position) {
+            this.out.position(position);
+            this.table.truncate(this.mark);
+        }
+
+        /**
+         * Writes string records for the values not in the table yet.
+         */
+        private void define(String... values) {
+            for (String value : values) {
+                if (value == null || this.table.codes.containsKey(value)) {
+                    continue;
+                }
+                int body = this.startRecord(STRING);
+                this.putBytes(value.getBytes(StandardCharsets.UTF_8));
+                this.endRecord(body);
+                this.table.add(value);
+            }
+        }
+
+        /**
+         * Writes the type and reserves two bytes for the body length.
+         * @return position of the body.
+         */
+        private int startRecord(byte type) {
+            this.out.put(type).put((byte) 0).put((byte) 0);
+            return this.out.position();
+        }
+
+        /**
+         * Fills in the body length. Lengths below 16384 fit the reserved two bytes, as a varint padded with
+         * a continuation byte if needed; for longer bodies the body is moved to make room.
+         */
+        private void endRecord(int body) {
+            int length = this.out.position() - body;
+            if (length < 1 << 14) {
+                this.out.put(body - 2, (byte) ((length & 0x7F) | 0x80));
+                this.out.put(body - 1, (byte) (length >>> 7));
+                return;
+            }
+            int extra = varintSize(length) - 2;
+            if (this.out.remaining() < extra) {
+                throw new BufferOverflowException();
+            }
+            for (int i = this.out.position() - 1; i >= body; i--) {
+                this.out.put(i + extra, this.out.get(i));
+            }
+            this.out.position(body - 2);
+            this.putVarint(length);
+            this.out.position(body + extra + length);
+        }
+
+        private void putVarint(int value) {
+            this.putVarlong(value & 0xFFFFFFFFL);
+        }
+
+        private void putVarlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                this.out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            this.out.put((byte) value);
+        }
+
+        /**
+         * Writes a long that may be null: 0 for null, else the zigzag encoded value plus one.
+         */
+        private void putNullableLong(Long value) {
+            this.putVarlong(value == null ? 0 : ((value << 1) ^ (value >> 63)) + 1);
+        }
+
+        private void putTime(ZonedDateTime time) {
+            this.putNullableLong(time == null ? null : time.toEpochSecond());
+        }
+
+        /**
+         * Writes hours as scale plus one (0 for null) and the zigzag encoded unscaled value.
+         */
+        private void putHours(BigDecimal hours) {
+            if (hours == null) {
+                this.putVarint(0);
+                return;
+            }
+            if (hours.scale() < 0) {
+                hours = hours.setScale(0);
+            }
+            this.putVarint(hours.scale() + 1);
+            long unscaled = hours.unscaledValue().longValueExact();
+            this.putVarlong((unscaled << 1) ^ (unscaled >> 63));
+        }
+
+        private void putString(String value, boolean shared) {
+            if (value == null) {
+                this.putVarint(NULL_STRING);
+            } else if (shared) {
+                this.putVarint(this.table.codes.get(value) + 2);
+            } else {
+                this.putVarint(INLINE_STRING);
+                this.putBytes(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void putBytes(byte[] bytes) {
+            this.putVarint(bytes.length);
+            this.out.put(bytes);
+        }
+    }
+
+    /**
+     * Reads objects from a ByteBuffer, starting at its position. Not thread safe.
+     */
+    public static final class Reader {
+        private final StringTable table;
+        private final ByteBuffer in;
+
+        /**
+         * Starts reading a stream, checking the header.
+         * @throws IllegalArgumentException when the buffer does not hold a stream of this version.
+         */
+        public Reader(ByteBuffer in) {
+            this(in, new StringTable());
+            if (in.remaining() < 2 || in.get() != MAGIC) {
+                throw new IllegalArgumentException("Not a Fogbugz binary stream");
+            }
+            int version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported Fogbugz binary stream version " + version);
+            }
+        }
+
+        /**
+         * Continues reading a stream without header, with the strings defined so far.
+         */
+        Reader(ByteBuffer in, StringTable table) {
+            this.in = in;
+            this.table = table;
+        }
+
+        /**
+         * @return the next object, or null at the end of the buffer.
+         */
+        public Object read() {
+            while (this.in.hasRemaining()) {
+                byte type = this.in.get();
+                int length = this.getVarint();
+                int end = this.in.position() + length;
+                Object object = null;
+                switch (type) {
+                    case STRING: this.table.add(this.getBytes()); break;
+                    case CASE: object = this.readCase(); break;
+                    case EVENT: object = this.readEvent(); break;
+                    case TIMEINTERVAL: object = this.readTimeinterval(); break;
+                    case USER: object = new FogbugzUser(this.getVarint(), this.getString(), this.getString(), this.getString()); break;
+                    case PROJECT: object = new FogbugzProject(this.getVarint(), this.getString(), this.in.get() == 1); break;
+                    case MILESTONE: object = this.readMilestone(); break;
+                    default: // Unknown record type, skipped.
+                }
+                // Skips fields added by newer writers.
+                this.in.position(end);
+                if (object != null) {
+                    return object;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads only the string records of the remaining stream, to continue writing it.
+         */
+        void readStrings() {
+            while (this.in.hasRemaining()) {
+                byte type = this.in.get();
+                int length = this.getVarint();
+                int end = this.in.position() + length;
+                if (type == STRING) {
+                    this.table.add(this.getBytes());
+                }
+                this.in.position(end);
+            }
+        }
+
+        /**
+         * @return all remaining objects.
+         */
+        public List<Object> readAll() {
+            List<Object> objects = new ArrayList<Object>();
+            Object object;
+            while ((object = this.read()) != null) {
+                objects.add(object);
+            }
+            return objects;
+        }
+
+        private FogbugzCase readCase() {
+            int id = this.getVarint();
+            int parentId = this.getVarint();
+            int projectId = this.getVarint();
+            int openedBy = this.getVarint();
+            int assignedTo = this.getVarint();
+            boolean isOpen = this.in.get() == 1;
+            String title = this.getString();
+            String projectName = this.getString();
+            String statusName = this.getString();
+            String milestone = this.getString();
+            String featureBranch = this.getString();
+            String originalBranch = this.getString();
+            String targetBranch = this.getString();
+            String approvedRevision = this.getString();
+            String ciProject = this.getString();
+            BigDecimal hrsOrigEstimate = this.getHours();
+            BigDecimal hrsCurrEstimate = this.getHours();
+            BigDecimal hrsElapsed = this.getHours();
+            ZonedDateTime lastUpdated = this.getTime();
+            int tagCount = this.getVarint() - 1;
+            List<String> tags = null;
+            if (tagCount >= 0) {
+                tags = new ArrayList<String>(tagCount);
+                for (int i = 0; i < tagCount; i++) {
+                    tags.add(this.getString());
+                }
+            }
+
+            FogbugzCase fbCase = new FogbugzCase(id, title, openedBy, assignedTo, tags, isOpen, featureBranch,
+                    originalBranch, targetBranch, approvedRevision, ciProject, milestone);
+            fbCase.setParentId(parentId);
+            fbCase.setProjectId(projectId);
+            fbCase.setProjectName(projectName);
+            fbCase.setStatusName(statusName);
+            fbCase.setHrsOrigEstimate(hrsOrigEstimate);
+            fbCase.setHrsCurrEstimate(hrsCurrEstimate);
+            fbCase.setHrsElapsed(hrsElapsed);
+            fbCase.setLastUpdated(lastUpdated);
+            fbCase.markClean();
+            return fbCase;
+        }
+
+        private FogbugzEvent readEvent() {
+            int id = this.getVarint();
+            int caseId = this.getVarint();
+            int person = this.getVarint();
+            int personAssignedTo = this.getVarint();
+            Long time = this.getNullableLong();
+            return new FogbugzEvent(id, caseId, this.getString(), person, personAssignedTo,
+                    time == null ? null : new Date(time), this.getString(), this.getString());
+        }
+
+        private FogbugzTimeinterval readTimeinterval() {
+            int id = this.getVarint();
+            int caseId = this.getVarint();
+            int personId = this.getVarint();
+            boolean isDeleted = this.in.get() == 1;
+            return new FogbugzTimeinterval(id, caseId, personId, isDeleted, this.getTime(), this.getTime());
+        }
+
+        private FogbugzMilestone readMilestone() {
+            int id = this.getVarint();
+            String name = this.getString();
+            byte flags = this.in.get();
+            return new FogbugzMilestone(id, name, (flags & 1) != 0, (flags & 2) != 0);
+        }
+
+        private int getVarint() {
+            return (int) this.getVarlong();
+        }
+
+        private long getVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = this.in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in Fogbugz binary stream");
+        }
+
+        private Long getNullableLong() {
+            long value = this.getVarlong();
+            if (value == 0) {
+                return null;
+            }
+            value--;
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private ZonedDateTime getTime() {
+            Long seconds = this.getNullableLong();
+            return seconds == null ? null : Instant.ofEpochSecond(seconds).atZone(ZoneOffset.UTC);
+        }
+
+        private BigDecimal getHours() {
+            int scale = this.getVarint() - 1;
+            if (scale < 0) {
+                return null;
+            }
+            long zigzag = this.getVarlong();
+            return BigDecimal.valueOf((zigzag >>> 1) ^ -(zigzag & 1), scale);
+        }
+
+        private String getString() {
+            int reference = this.getVarint();
+            if (reference == NULL_STRING) {
+                return null;
+            } else if (reference == INLINE_STRING) {
+                return this.getBytes();
+            }
+            return this.table.strings.get(reference - 2);
+        }
+
+        private String getBytes() {
+            int length = this.getVarint();
+            String value;
+            if (this.in.hasArray()) {
+                value = new String(this.in.array(), this.in.arrayOffset() + this.in.position(), length, StandardCharsets.UTF_8);
+                this.in.position(this.in.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                this.in.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,38 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+/**
+ * Snapshot of the counters of a cache.
+ */
+public class FogbugzCacheStats {
+    @Getter private final long hits;
+    @Getter private final long misses;
+    /** Entries removed because the cache was full. */
+    @Getter private final long evictions;
+    /** Entries removed because their time to live passed. */
+    @Getter private final long expirations;
+    @Getter private final int size;
+
+    public FogbugzCacheStats(long hits, long misses, long evictions, long expirations, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.size = size;
+    }
+
+    /**
+     * @return fraction of lookups that were served from the cache, 0 when there were none.
+     */
+    public double getHitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ hits: %d, misses: %d, evictions: %d, expirations: %d, size: %d }",
+                this.hits, this.misses, this.evictions, this.expirations, this.size);
+    }
+}
@@ -5,22 +5,38 @@ import lombok.Setter;
 import org.apache.commons.lang3.StringUtils;
 
 import java.math.BigDecimal;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Class that holds data from fogbugz case.
  * Interact with these objects using the DefaultFogbugzManager class.
  */
 public class FogbugzCase {
+
+    /**
+     * Fields saveCase sends to Fogbugz, used to track which of them were modified.
+     */
+    public enum Field {
+        TITLE, OPENED_BY, ASSIGNED_TO, TAGS, MILESTONE,
+        FEATURE_BRANCH, ORIGINAL_BRANCH, TARGET_BRANCH, APPROVED_REVISION, CI_PROJECT
+    }
+
     @Getter @Setter private int id;
-    @Getter @Setter private String title;
-    @Getter @Setter private int openedBy;
-    @Getter @Setter private int assignedTo;
-    @Getter @Setter private List<String> tags;
+    @Getter private String title;
+    @Getter private int openedBy;
+    @Getter private int assignedTo;
+    /**
+     * Modify through setTags, addTag and removeTag. After changing the list directly, pass it to setTags
+     * to mark the tags as modified.
+     */
+    @Getter private List<String> tags;
     @Getter @Setter private boolean isOpen;
-    @Getter @Setter private String milestone;
+    @Getter private String milestone;
 
     @Getter @Setter private int parentId;
     @Getter @Setter private int projectId;
@@ -29,6 +45,7 @@ public class FogbugzCase {
     @Getter @Setter private BigDecimal hrsOrigEstimate;
     @Getter @Setter private BigDecimal hrsCurrEstimate;
     @Getter @Setter private BigDecimal hrsElapsed;
+    @Getter @Setter private ZonedDateTime lastUpdated;
 /*
  *     parent Long
     children String
@@ -39,11 +56,14 @@ public class FogbugzCase {
 
  */
     // Our custom fields. TODO: find nicer way to include custom fields.
-    @Getter @Setter private String featureBranch;
-    @Getter @Setter private String originalBranch;
-    @Getter @Setter private String targetBranch;
-    @Getter @Setter private String approvedRevision;
-    @Getter @Setter private String ciProject;
+    @Getter private String featureBranch;
+    @Getter private String originalBranch;
+    @Getter private String targetBranch;
+    @Getter private String approvedRevision;
+    @Getter private String ciProject;
+
+    // Fields modified since the case was loaded or saved. New cases start with all fields dirty.
+    private EnumSet<Field> dirtyFields = EnumSet.allOf(Field.class);
 
     public FogbugzCase(int id, String title, int openedBy, int assignedTo,
                        List<String> tags, boolean isOpen, String featureBranch,
@@ -71,6 +91,124 @@ public class FogbugzCase {
                 targetBranch, approvedRevision, ciProject, milestone);
     }
 
+    /**
+     * Copy constructor, creates an independent copy of the given case.
+     * @param other case to copy.
+     */
+    public FogbugzCase(FogbugzCase other) {
+        this(other.id, other.title, other.openedBy, other.assignedTo,
+                other.tags == null ? null : new ArrayList<String>(other.tags), other.isOpen, other.featureBranch,
+                other.originalBranch, other.targetBranch, other.approvedRevision, other.ciProject, other.milestone);
+        this.parentId = other.parentId;
+        this.projectId = other.projectId;
+        this.projectName = other.projectName;
+        this.statusName = other.statusName;
+        this.hrsOrigEstimate = other.hrsOrigEstimate;
+        this.hrsCurrEstimate = other.hrsCurrEstimate;
+        this.hrsElapsed = other.hrsElapsed;
+        this.lastUpdated = other.lastUpdated;
+        this.dirtyFields = EnumSet.copyOf(other.getDirtyFields());
+    }
+
+    public void setTitle(String title) {
+        this.update(Field.TITLE, this.title, title);
+        this.title = title;
+    }
+
+    public void setOpenedBy(int openedBy) {
+        this.update(Field.OPENED_BY, this.openedBy, openedBy);
+        this.openedBy = openedBy;
+    }
+
+    public void setAssignedTo(int assignedTo) {
+        this.update(Field.ASSIGNED_TO, this.assignedTo, assignedTo);
+        this.assignedTo = assignedTo;
+    }
+
+    /**
+     * Stores a copy of the given tags and always marks them as modified, since the given list may be
+     * the list returned by getTags, changed in place.
+     */
+    public void setTags(List<String> tags) {
+        this.markDirty(Field.TAGS);
+        this.tags = tags == null ? null : new ArrayList<String>(tags);
+    }
+
+    public void setMilestone(String milestone) {
+        this.update(Field.MILESTONE, this.milestone, milestone);
+        this.milestone = milestone;
+    }
+
+    public void setFeatureBranch(String featureBranch) {
+        this.update(Field.FEATURE_BRANCH, this.featureBranch, featureBranch);
+        this.featureBranch = featureBranch;
+    }
+
+    public void setOriginalBranch(String originalBranch) {
+        this.update(Field.ORIGINAL_BRANCH, this.originalBranch, originalBranch);
+        this.originalBranch = originalBranch;
+    }
+
+    public void setTargetBranch(String targetBranch) {
+        this.update(Field.TARGET_BRANCH, this.targetBranch, targetBranch);
+        this.targetBranch = targetBranch;
+    }
+
+    public void setApprovedRevision(String approvedRevision) {
+        this.update(Field.APPROVED_REVISION, this.approvedRevision, approvedRevision);
+        this.approvedRevision = approvedRevision;
+    }
+
+    public void setCiProject(String ciProject) {
+        this.update(Field.CI_PROJECT, this.ciProject, ciProject);
+        this.ciProject = ciProject;
+    }
+
+    private synchronized void update(Field field, Object oldValue, Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            this.dirtyFields.add(field);
+        }
+    }
+
+    /**
+     * @return the fields modified since this case was loaded or last saved.
+     */
+    public synchronized Set<Field> getDirtyFields() {
+        return this.dirtyFields.clone();
+    }
+
+    /**
+     * @return true when any field was modified since this case was loaded or last saved.
+     */
+    public synchronized boolean isDirty() {
+        return !this.dirtyFields.isEmpty();
+    }
+
+    public synchronized boolean isDirty(Field field) {
+        return this.dirtyFields.contains(field);
+    }
+
+    /**
+     * Marks all fields as saved, done by the manager after loading or saving this case.
+     */
+    public synchronized void markClean() {
+        this.dirtyFields.clear();
+    }
+
+    /**
+     * Marks the given fields as saved, leaving fields modified in the meantime dirty.
+     */
+    synchronized void markClean(Set<Field> fields) {
+        this.dirtyFields.removeAll(fields);
+    }
+
+    /**
+     * Marks all fields as modified, so the next save sends the complete case.
+     */
+    public synchronized void markAllDirty() {
+        this.dirtyFields = EnumSet.allOf(Field.class);
+    }
+
     /**
      * Load tags from String with CSV
      * @param tags A String with tags in CSV format.
@@ -99,6 +237,7 @@ public class FogbugzCase {
     public void addTag(String tag) {
         if (!this.hasTag(tag)) {
             this.tags.add(tag);
+            this.markDirty(Field.TAGS);
         }
     }
 
@@ -116,14 +255,20 @@ public class FogbugzCase {
      * @param tag The tag to remove.
      */
     public void removeTag(String tag) {
-        this.tags.remove(tag);
+        if (this.tags.remove(tag)) {
+            this.markDirty(Field.TAGS);
+        }
     }
 
     /**
      * Assign case back to person who opened the case.
      */
     public void assignToOpener() {
-        this.assignedTo = this.openedBy;
+        this.setAssignedTo(this.openedBy);
+    }
+
+    private synchronized void markDirty(Field field) {
+        this.dirtyFields.add(field);
     }
 
 
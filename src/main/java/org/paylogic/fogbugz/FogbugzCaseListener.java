@@ -0,0 +1,33 @@
+package org.paylogic.fogbugz;
+
+/**
+ * Receives changes to a local set of cases, or the cases a manager loads. All methods do nothing by default.
+ */
+public interface FogbugzCaseListener {
+
+    /**
+     * A case appeared in the local set.
+     */
+    public default void caseAdded(FogbugzCase fbCase) {
+    }
+
+    /**
+     * A case in the local set was changed.
+     * @param previous the case as it was known before.
+     * @param current the case as it is now.
+     */
+    public default void caseUpdated(FogbugzCase previous, FogbugzCase current) {
+    }
+
+    /**
+     * A case left the local set.
+     */
+    public default void caseRemoved(FogbugzCase fbCase) {
+    }
+
+    /**
+     * A manager fetched the case from Fogbugz, or saved it. Do not modify the case.
+     */
+    public default void caseLoaded(FogbugzCase fbCase) {
+    }
+}
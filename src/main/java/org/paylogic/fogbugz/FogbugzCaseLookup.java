@@ -0,0 +1,26 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of looking up many cases by id at once.
+ */
+public class FogbugzCaseLookup {
+    /** Cases found, by case id, in the order the ids were requested. */
+    @Getter private final Map<Integer, FogbugzCase> cases;
+    /** Requested ids Fogbugz did not return a case for. */
+    @Getter private final Set<Integer> missingIds;
+
+    public FogbugzCaseLookup(Map<Integer, FogbugzCase> cases, Set<Integer> missingIds) {
+        this.cases = cases;
+        this.missingIds = missingIds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ found: %s, missing: %s }", this.cases.keySet(), this.missingIds);
+    }
+}
@@ -0,0 +1,300 @@
+package org.paylogic.fogbugz;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory set of cases with inverted indexes, to slice a working set of cases by assignee, milestone,
+ * tag, project, status, parent or branch without asking Fogbugz. Register it with
+ * DefaultFogbugzManager.addCaseListener to keep it filled with the cases the manager searches and saves,
+ * and/or with FogbugzCaseSync.addListener to follow a replica. Stores copies, so later changes to the
+ * given cases do not affect it. Thread safe.
+ */
+public class FogbugzCaseRepository implements FogbugzCaseListener {
+
+    /**
+     * Fields cases are indexed on. Lookups take Integer values for the id fields, Strings for the others.
+     */
+    public enum Index {
+        ASSIGNED_TO, MILESTONE, TAG, PROJECT, STATUS, PARENT,
+        FEATURE_BRANCH, ORIGINAL_BRANCH, TARGET_BRANCH, CI_PROJECT
+    }
+
+    private final Map<Integer, FogbugzCase> cases = new HashMap<Integer, FogbugzCase>();
+    private final EnumMap<Index, Map<Object, Set<Integer>>> indexes = new EnumMap<Index, Map<Object, Set<Integer>>>(Index.class);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public FogbugzCaseRepository() {
+        for (Index index : Index.values()) {
+            this.indexes.put(index, new HashMap<Object, Set<Integer>>());
+        }
+    }
+
+    /**
+     * Adds a copy of the case, replacing a case with the same id unless the stored case was updated later,
+     * like when a slow search returns after a save. Only dtLastUpdated times of the Fogbugz server are
+     * compared, cases without one always replace the stored case.
+     * @return true when the case was stored.
+     */
+    public boolean put(FogbugzCase fbCase) {
+        FogbugzCase copy = new FogbugzCase(fbCase);
+        this.lock.writeLock().lock();
+        try {
+            FogbugzCase previous = this.cases.get(copy.getId());
+            if (previous != null) {
+                if (isOlder(copy, previous)) {
+                    return false;
+                }
+                this.unindex(previous);
+            }
+            this.cases.put(copy.getId(), copy);
+            this.index(copy);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean isOlder(FogbugzCase fbCase, FogbugzCase previous) {
+        return fbCase.getLastUpdated() != null && previous.getLastUpdated() != null
+                && fbCase.getLastUpdated().isBefore(previous.getLastUpdated());
+    }
+
+    public void putAll(Collection<FogbugzCase> cases) {
+        for (FogbugzCase fbCase : cases) {
+            this.put(fbCase);
+        }
+    }
+
+    /**
+     * @return true when the case was in the repository.
+     */
+    public boolean remove(int caseId) {
+        this.lock.writeLock().lock();
+        try {
+            FogbugzCase previous = this.cases.remove(caseId);
+            if (previous != null) {
+                this.unindex(previous);
+            }
+            return previous != null;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void caseLoaded(FogbugzCase fbCase) {
+        this.put(fbCase);
+    }
+
+    @Override
+    public void caseAdded(FogbugzCase fbCase) {
+        this.put(fbCase);
+    }
+
+    @Override
+    public void caseUpdated(FogbugzCase previous, FogbugzCase current) {
+        this.put(current);
+    }
+
+    @Override
+    public void caseRemoved(FogbugzCase fbCase) {
+        this.remove(fbCase.getId());
+    }
+
+    /**
+     * @return the case, or null when it is not in the repository. Do not modify the case.
+     */
+    public FogbugzCase get(int caseId) {
+        this.lock.readLock().lock();
+        try {
+            return this.cases.get(caseId);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.cases.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return all cases. Do not modify the cases.
+     */
+    public List<FogbugzCase> getCases() {
+        this.lock.readLock().lock();
+        try {
+            return new ArrayList<FogbugzCase>(this.cases.values());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the cases with the value, empty when there are none.
+     */
+    public Set<Integer> lookup(Index index, Object value) {
+        this.lock.readLock().lock();
+        try {
+            Set<Integer> ids = this.indexes.get(index).get(value);
+            return ids == null ? Collections.<Integer>emptySet() : new HashSet<Integer>(ids);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the cases with the value. Do not modify the cases.
+     */
+    public List<FogbugzCase> find(Index index, Object value) {
+        return this.query().where(index, value).list();
+    }
+
+    /**
+     * Starts a lookup of the cases that match all of several conditions.
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    /**
+     * Lookup of the cases that match all of the given conditions. Without conditions, all cases match.
+     */
+    public class Query {
+        private final List<Index> indexes = new ArrayList<Index>();
+        private final List<Object> values = new ArrayList<Object>();
+
+        private Query() {
+        }
+
+        public Query where(Index index, Object value) {
+            this.indexes.add(index);
+            this.values.add(value);
+            return this;
+        }
+
+        /**
+         * @return ids of the matching cases.
+         */
+        public Set<Integer> ids() {
+            FogbugzCaseRepository.this.lock.readLock().lock();
+            try {
+                return this.match();
+            } finally {
+                FogbugzCaseRepository.this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return the matching cases. Do not modify the cases.
+         */
+        public List<FogbugzCase> list() {
+            FogbugzCaseRepository.this.lock.readLock().lock();
+            try {
+                Set<Integer> ids = this.match();
+                List<FogbugzCase> result = new ArrayList<FogbugzCase>(ids.size());
+                for (Integer id : ids) {
+                    result.add(FogbugzCaseRepository.this.cases.get(id));
+                }
+                return result;
+            } finally {
+                FogbugzCaseRepository.this.lock.readLock().unlock();
+            }
+        }
+
+        public int count() {
+            return this.ids().size();
+        }
+
+        /**
+         * Intersects the posting sets, starting from the smallest one. Called with the read lock held.
+         */
+        private Set<Integer> match() {
+            if (this.indexes.isEmpty()) {
+                return new HashSet<Integer>(FogbugzCaseRepository.this.cases.keySet());
+            }
+            List<Set<Integer>> postings = new ArrayList<Set<Integer>>(this.indexes.size());
+            Set<Integer> smallest = null;
+            for (int i = 0; i < this.indexes.size(); i++) {
+                Set<Integer> ids = FogbugzCaseRepository.this.indexes.get(this.indexes.get(i)).get(this.values.get(i));
+                if (ids == null) {
+                    return new HashSet<Integer>();
+                }
+                postings.add(ids);
+                if (smallest == null || ids.size() < smallest.size()) {
+                    smallest = ids;
+                }
+            }
+            Set<Integer> result = new HashSet<Integer>();
+            for (Integer id : smallest) {
+                boolean all = true;
+                for (Set<Integer> ids : postings) {
+                    if (ids != smallest && !ids.contains(id)) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+    }
+
+    private void index(FogbugzCase fbCase) {
+        for (Index index : Index.values()) {
+            for (Object value : values(index, fbCase)) {
+                this.indexes.get(index).computeIfAbsent(value, v -> new HashSet<Integer>()).add(fbCase.getId());
+            }
+        }
+    }
+
+    private void unindex(FogbugzCase fbCase) {
+        for (Index index : Index.values()) {
+            Map<Object, Set<Integer>> postings = this.indexes.get(index);
+            for (Object value : values(index, fbCase)) {
+                Set<Integer> ids = postings.get(value);
+                if (ids != null && ids.remove(fbCase.getId()) && ids.isEmpty()) {
+                    postings.remove(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values the case has for the index, without nulls.
+     */
+    private static Collection<?> values(Index index, FogbugzCase fbCase) {
+        Object value;
+        switch (index) {
+            case TAG:
+                return fbCase.getTags() == null ? Collections.emptyList() : fbCase.getTags();
+            case ASSIGNED_TO: value = fbCase.getAssignedTo(); break;
+            case MILESTONE: value = fbCase.getMilestone(); break;
+            case PROJECT: value = fbCase.getProjectId(); break;
+            case STATUS: value = fbCase.getStatusName(); break;
+            case PARENT: value = fbCase.getParentId(); break;
+            case FEATURE_BRANCH: value = fbCase.getFeatureBranch(); break;
+            case ORIGINAL_BRANCH: value = fbCase.getOriginalBranch(); break;
+            case TARGET_BRANCH: value = fbCase.getTargetBranch(); break;
+            case CI_PROJECT: value = fbCase.getCiProject(); break;
+            default: throw new IllegalArgumentException(index.toString());
+        }
+        return value == null ? Collections.emptyList() : Collections.singletonList(value);
+    }
+}
@@ -0,0 +1,543 @@
+package org.paylogic.fogbugz;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Compact in-memory store for large numbers of cases. Fields are kept in columns of primitive arrays,
+ * repeated strings (project, status, milestone, branches, tags) are dictionary encoded and hours are
+ * stored as fixed-point longs, so a case costs a few dozen bytes plus its title instead of a graph of
+ * boxed objects. Cases are read back through flyweight views or materialized on demand.
+ * <p>
+ * Hours are kept as unscaled value plus scale, so they read back equal to what was stored. Last updated
+ * times are kept in seconds, in UTC.
+ * Dirty field state is not stored, materialized cases are clean. Thread safe.
+ */
+public class FogbugzCaseStore {
+
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    private static final int NO_TAGS = -1;
+
+    private final StringDictionary strings = new StringDictionary();
+    private final IntLongMap rowById = new IntLongMap();
+    private int rows;
+
+    private int[] ids;
+    private int[] parentIds;
+    private int[] projectIds;
+    private int[] openedBy;
+    private int[] assignedTo;
+    private boolean[] open;
+    private String[] titles;
+    private String[] featureBranches;
+    private String[] approvedRevisions;
+    // Dictionary codes.
+    private int[] projectNames;
+    private int[] statusNames;
+    private int[] milestones;
+    private int[] originalBranches;
+    private int[] targetBranches;
+    private int[] ciProjects;
+    // Unscaled hours and epoch seconds, NO_VALUE for null. The scale of each hour value is kept next to it.
+    private long[] hrsOrigEstimates;
+    private long[] hrsCurrEstimates;
+    private long[] hrsElapsed;
+    private byte[] hrsOrigEstimateScales;
+    private byte[] hrsCurrEstimateScales;
+    private byte[] hrsElapsedScales;
+    private long[] lastUpdated;
+    // Tags of row i are tagPool[tagOffsets[i]] up to tagOffsets[i] + tagCounts[i], as dictionary codes.
+    private int[] tagOffsets;
+    private int[] tagCounts;
+    private int[] tagPool = new int[256];
+    private int tagPoolSize;
+    private int tagPoolGarbage;
+
+    public FogbugzCaseStore() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize number of cases to reserve room for.
+     */
+    public FogbugzCaseStore(int expectedSize) {
+        this.resize(Math.max(16, expectedSize));
+    }
+
+    private void resize(int capacity) {
+        this.ids = copyOf(this.ids, capacity);
+        this.parentIds = copyOf(this.parentIds, capacity);
+        this.projectIds = copyOf(this.projectIds, capacity);
+        this.openedBy = copyOf(this.openedBy, capacity);
+        this.assignedTo = copyOf(this.assignedTo, capacity);
+        this.open = this.open == null ? new boolean[capacity] : Arrays.copyOf(this.open, capacity);
+        this.titles = this.titles == null ? new String[capacity] : Arrays.copyOf(this.titles, capacity);
+        this.featureBranches = this.featureBranches == null ? new String[capacity] : Arrays.copyOf(this.featureBranches, capacity);
+        this.approvedRevisions = this.approvedRevisions == null ? new String[capacity] : Arrays.copyOf(this.approvedRevisions, capacity);
+        this.projectNames = copyOf(this.projectNames, capacity);
+        this.statusNames = copyOf(this.statusNames, capacity);
+        this.milestones = copyOf(this.milestones, capacity);
+        this.originalBranches = copyOf(this.originalBranches, capacity);
+        this.targetBranches = copyOf(this.targetBranches, capacity);
+        this.ciProjects = copyOf(this.ciProjects, capacity);
+        this.hrsOrigEstimates = copyOf(this.hrsOrigEstimates, capacity);
+        this.hrsCurrEstimates = copyOf(this.hrsCurrEstimates, capacity);
+        this.hrsElapsed = copyOf(this.hrsElapsed, capacity);
+        this.hrsOrigEstimateScales = copyOf(this.hrsOrigEstimateScales, capacity);
+        this.hrsCurrEstimateScales = copyOf(this.hrsCurrEstimateScales, capacity);
+        this.hrsElapsedScales = copyOf(this.hrsElapsedScales, capacity);
+        this.lastUpdated = copyOf(this.lastUpdated, capacity);
+        this.tagOffsets = copyOf(this.tagOffsets, capacity);
+        this.tagCounts = copyOf(this.tagCounts, capacity);
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    private static long[] copyOf(long[] array, int capacity) {
+        return array == null ? new long[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    private static byte[] copyOf(byte[] array, int capacity) {
+        return array == null ? new byte[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    /**
+     * Stores the case, replacing a stored case with the same id.
+     */
+    public synchronized void put(FogbugzCase fbCase) {
+        int row;
+        if (this.rowById.containsKey(fbCase.getId())) {
+            row = (int) this.rowById.get(fbCase.getId());
+            this.releaseTags(row);
+        } else {
+            if (this.rows == this.ids.length) {
+                this.resize(this.rows + (this.rows >> 1));
+            }
+            row = this.rows++;
+            this.rowById.put(fbCase.getId(), row);
+        }
+        this.ids[row] = fbCase.getId();
+        this.parentIds[row] = fbCase.getParentId();
+        this.projectIds[row] = fbCase.getProjectId();
+        this.openedBy[row] = fbCase.getOpenedBy();
+        this.assignedTo[row] = fbCase.getAssignedTo();
+        this.open[row] = fbCase.isOpen();
+        this.titles[row] = fbCase.getTitle();
+        this.featureBranches[row] = fbCase.getFeatureBranch();
+        this.approvedRevisions[row] = fbCase.getApprovedRevision();
+        this.projectNames[row] = this.strings.encode(fbCase.getProjectName());
+        this.statusNames[row] = this.strings.encode(fbCase.getStatusName());
+        this.milestones[row] = this.strings.encode(fbCase.getMilestone());
+        this.originalBranches[row] = this.strings.encode(fbCase.getOriginalBranch());
+        this.targetBranches[row] = this.strings.encode(fbCase.getTargetBranch());
+        this.ciProjects[row] = this.strings.encode(fbCase.getCiProject());
+        this.hrsOrigEstimates[row] = encodeHours(fbCase.getHrsOrigEstimate());
+        this.hrsCurrEstimates[row] = encodeHours(fbCase.getHrsCurrEstimate());
+        this.hrsElapsed[row] = encodeHours(fbCase.getHrsElapsed());
+        this.hrsOrigEstimateScales[row] = encodeScale(fbCase.getHrsOrigEstimate());
+        this.hrsCurrEstimateScales[row] = encodeScale(fbCase.getHrsCurrEstimate());
+        this.hrsElapsedScales[row] = encodeScale(fbCase.getHrsElapsed());
+        this.lastUpdated[row] = fbCase.getLastUpdated() == null ? NO_VALUE : fbCase.getLastUpdated().toEpochSecond();
+        this.storeTags(row, fbCase.getTags());
+    }
+
+    public synchronized void putAll(Collection<FogbugzCase> cases) {
+        for (FogbugzCase fbCase : cases) {
+            this.put(fbCase);
+        }
+    }
+
+    /**
+     * Removes the case. The last row moves into its place, views of the moved case find its new row.
+     * @return true when the case was stored.
+     */
+    public synchronized boolean remove(int caseId) {
+        if (!this.rowById.containsKey(caseId)) {
+            return false;
+        }
+        int row = (int) this.rowById.get(caseId);
+        this.rowById.remove(caseId);
+        this.releaseTags(row);
+        int last = --this.rows;
+        if (row != last) {
+            this.moveRow(last, row);
+            this.rowById.put(this.ids[row], row);
+        }
+        this.titles[last] = null;
+        this.featureBranches[last] = null;
+        this.approvedRevisions[last] = null;
+        return true;
+    }
+
+    private void moveRow(int from, int to) {
+        this.ids[to] = this.ids[from];
+        this.parentIds[to] = this.parentIds[from];
+        this.projectIds[to] = this.projectIds[from];
+        this.openedBy[to] = this.openedBy[from];
+        this.assignedTo[to] = this.assignedTo[from];
+        this.open[to] = this.open[from];
+        this.titles[to] = this.titles[from];
+        this.featureBranches[to] = this.featureBranches[from];
+        this.approvedRevisions[to] = this.approvedRevisions[from];
+        this.projectNames[to] = this.projectNames[from];
+        this.statusNames[to] = this.statusNames[from];
+        this.milestones[to] = this.milestones[from];
+        this.originalBranches[to] = this.originalBranches[from];
+        this.targetBranches[to] = this.targetBranches[from];
+        this.ciProjects[to] = this.ciProjects[from];
+        this.hrsOrigEstimates[to] = this.hrsOrigEstimates[from];
+        this.hrsCurrEstimates[to] = this.hrsCurrEstimates[from];
+        this.hrsElapsed[to] = this.hrsElapsed[from];
+        this.hrsOrigEstimateScales[to] = this.hrsOrigEstimateScales[from];
+        this.hrsCurrEstimateScales[to] = this.hrsCurrEstimateScales[from];
+        this.hrsElapsedScales[to] = this.hrsElapsedScales[from];
+        this.lastUpdated[to] = this.lastUpdated[from];
+        this.tagOffsets[to] = this.tagOffsets[from];
+        this.tagCounts[to] = this.tagCounts[from];
+    }
+
+    private void storeTags(int row, List<String> tags) {
+        if (tags == null) {
+            this.tagOffsets[row] = 0;
+            this.tagCounts[row] = NO_TAGS;
+            return;
+        }
+        if (this.tagPoolSize + tags.size() > this.tagPool.length) {
+            this.compactTags(tags.size());
+        }
+        this.tagOffsets[row] = this.tagPoolSize;
+        this.tagCounts[row] = tags.size();
+        for (String tag : tags) {
+            this.tagPool[this.tagPoolSize++] = this.strings.encode(tag);
+        }
+    }
+
+    private void releaseTags(int row) {
+        this.tagPoolGarbage += Math.max(0, this.tagCounts[row]);
+        this.tagCounts[row] = NO_TAGS;
+    }
+
+    /**
+     * Makes room for extra tags, dropping tags of replaced and removed cases when they take up much of the pool.
+     */
+    private void compactTags(int extra) {
+        int[] pool = this.tagPool;
+        if (this.tagPoolGarbage > this.tagPoolSize / 2) {
+            pool = new int[this.tagPool.length];
+            int size = 0;
+            for (int row = 0; row < this.rows; row++) {
+                int count = this.tagCounts[row];
+                if (count > 0) {
+                    System.arraycopy(this.tagPool, this.tagOffsets[row], pool, size, count);
+                }
+                this.tagOffsets[row] = size;
+                size += Math.max(0, count);
+            }
+            this.tagPoolSize = size;
+            this.tagPoolGarbage = 0;
+        }
+        int needed = this.tagPoolSize + extra;
+        if (needed > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(needed, pool.length + (pool.length >> 1)));
+        }
+        this.tagPool = pool;
+    }
+
+    /**
+     * @throws ArithmeticException when the unscaled value does not fit a long.
+     */
+    private static long encodeHours(BigDecimal hours) {
+        return hours == null ? NO_VALUE : hours.unscaledValue().longValueExact();
+    }
+
+    /**
+     * @throws ArithmeticException when the scale does not fit a byte.
+     */
+    private static byte encodeScale(BigDecimal hours) {
+        if (hours == null) {
+            return 0;
+        }
+        if (hours.scale() != (byte) hours.scale()) {
+            throw new ArithmeticException("Scale of " + hours + " is out of range.");
+        }
+        return (byte) hours.scale();
+    }
+
+    private static BigDecimal decodeHours(long value, byte scale) {
+        return value == NO_VALUE ? null : BigDecimal.valueOf(value, scale);
+    }
+
+    public synchronized int size() {
+        return this.rows;
+    }
+
+    public synchronized boolean contains(int caseId) {
+        return this.rowById.containsKey(caseId);
+    }
+
+    /**
+     * @return the ids of the stored cases, in storage order.
+     */
+    public synchronized int[] getIds() {
+        return Arrays.copyOf(this.ids, this.rows);
+    }
+
+    /**
+     * @return a new FogbugzCase with the stored fields, or null when the case is not stored.
+     */
+    public synchronized FogbugzCase get(int caseId) {
+        return this.rowById.containsKey(caseId) ? this.materialize((int) this.rowById.get(caseId)) : null;
+    }
+
+    /**
+     * Views read the stored fields of the case, also after it was replaced by put. After the case is
+     * removed, reading other fields than the id throws IllegalStateException.
+     * @return a view of the stored case, or null when the case is not stored.
+     */
+    public synchronized View view(int caseId) {
+        return this.rowById.containsKey(caseId) ? new View((int) this.rowById.get(caseId), caseId) : null;
+    }
+
+    /**
+     * Calls the action for every stored case with a single view that is moved from case to case,
+     * so iterating allocates nothing. The view must not be kept after the call. The store is locked
+     * while iterating.
+     */
+    public synchronized void forEach(Consumer<View> action) {
+        View view = new View(0, 0);
+        for (int row = 0; row < this.rows; row++) {
+            view.row = row;
+            view.caseId = this.ids[row];
+            action.accept(view);
+        }
+    }
+
+    /**
+     * @return new FogbugzCase objects for all stored cases.
+     */
+    public synchronized List<FogbugzCase> getCases() {
+        List<FogbugzCase> cases = new ArrayList<FogbugzCase>(this.rows);
+        for (int row = 0; row < this.rows; row++) {
+            cases.add(this.materialize(row));
+        }
+        return cases;
+    }
+
+    private FogbugzCase materialize(int row) {
+        FogbugzCase fbCase = new FogbugzCase(this.ids[row], this.titles[row], this.openedBy[row], this.assignedTo[row],
+                this.decodeTags(row), this.open[row], this.featureBranches[row],
+                this.strings.decode(this.originalBranches[row]), this.strings.decode(this.targetBranches[row]),
+                this.approvedRevisions[row], this.strings.decode(this.ciProjects[row]),
+                this.strings.decode(this.milestones[row]));
+        fbCase.setParentId(this.parentIds[row]);
+        fbCase.setProjectId(this.projectIds[row]);
+        fbCase.setProjectName(this.strings.decode(this.projectNames[row]));
+        fbCase.setStatusName(this.strings.decode(this.statusNames[row]));
+        fbCase.setHrsOrigEstimate(decodeHours(this.hrsOrigEstimates[row], this.hrsOrigEstimateScales[row]));
+        fbCase.setHrsCurrEstimate(decodeHours(this.hrsCurrEstimates[row], this.hrsCurrEstimateScales[row]));
+        fbCase.setHrsElapsed(decodeHours(this.hrsElapsed[row], this.hrsElapsedScales[row]));
+        fbCase.setLastUpdated(this.lastUpdated[row] == NO_VALUE ? null
+                : Instant.ofEpochSecond(this.lastUpdated[row]).atZone(ZoneOffset.UTC));
+        fbCase.markClean();
+        return fbCase;
+    }
+
+    private List<String> decodeTags(int row) {
+        int count = this.tagCounts[row];
+        if (count == NO_TAGS) {
+            return null;
+        }
+        List<String> tags = new ArrayList<String>(count);
+        for (int i = this.tagOffsets[row]; i < this.tagOffsets[row] + count; i++) {
+            tags.add(this.strings.decode(this.tagPool[i]));
+        }
+        return tags;
+    }
+
+    /**
+     * Read-only view of one stored case, reading the columns directly.
+     * Only tags and hours are decoded into new objects.
+     */
+    public final class View {
+        private int row;
+        private int caseId;
+
+        private View(int row, int caseId) {
+            this.row = row;
+            this.caseId = caseId;
+        }
+
+        /**
+         * Finds the row of the case again when another case was moved into its row.
+         * @throws IllegalStateException when the case was removed from the store.
+         */
+        private int row() {
+            if (this.row >= rows || ids[this.row] != this.caseId) {
+                if (!rowById.containsKey(this.caseId)) {
+                    throw new IllegalStateException("Case " + this.caseId + " is no longer stored.");
+                }
+                this.row = (int) rowById.get(this.caseId);
+            }
+            return this.row;
+        }
+
+        public int getId() {
+            return this.caseId;
+        }
+
+        public String getTitle() {
+            synchronized (FogbugzCaseStore.this) {
+                return titles[this.row()];
+            }
+        }
+
+        public int getParentId() {
+            synchronized (FogbugzCaseStore.this) {
+                return parentIds[this.row()];
+            }
+        }
+
+        public int getProjectId() {
+            synchronized (FogbugzCaseStore.this) {
+                return projectIds[this.row()];
+            }
+        }
+
+        public int getOpenedBy() {
+            synchronized (FogbugzCaseStore.this) {
+                return openedBy[this.row()];
+            }
+        }
+
+        public int getAssignedTo() {
+            synchronized (FogbugzCaseStore.this) {
+                return assignedTo[this.row()];
+            }
+        }
+
+        public boolean isOpen() {
+            synchronized (FogbugzCaseStore.this) {
+                return open[this.row()];
+            }
+        }
+
+        public String getProjectName() {
+            synchronized (FogbugzCaseStore.this) {
+                return strings.decode(projectNames[this.row()]);
+            }
+        }
+
+        public String getStatusName() {
+            synchronized (FogbugzCaseStore.this) {
+                return strings.decode(statusNames[this.row()]);
+            }
+        }
+
+        public String getMilestone() {
+            synchronized (FogbugzCaseStore.this) {
+                return strings.decode(milestones[this.row()]);
+            }
+        }
+
+        public String getFeatureBranch() {
+            synchronized (FogbugzCaseStore.this) {
+                return featureBranches[this.row()];
+            }
+        }
+
+        public String getOriginalBranch() {
+            synchronized (FogbugzCaseStore.this) {
+                return strings.decode(originalBranches[this.row()]);
+            }
+        }
+
+        public String getTargetBranch() {
+            synchronized (FogbugzCaseStore.this) {
+                return strings.decode(targetBranches[this.row()]);
+            }
+        }
+
+        public String getApprovedRevision() {
+            synchronized (FogbugzCaseStore.this) {
+                return approvedRevisions[this.row()];
+            }
+        }
+
+        public String getCiProject() {
+            synchronized (FogbugzCaseStore.this) {
+                return strings.decode(ciProjects[this.row()]);
+            }
+        }
+
+        public BigDecimal getHrsOrigEstimate() {
+            synchronized (FogbugzCaseStore.this) {
+                int row = this.row();
+                return decodeHours(hrsOrigEstimates[row], hrsOrigEstimateScales[row]);
+            }
+        }
+
+        public BigDecimal getHrsCurrEstimate() {
+            synchronized (FogbugzCaseStore.this) {
+                int row = this.row();
+                return decodeHours(hrsCurrEstimates[row], hrsCurrEstimateScales[row]);
+            }
+        }
+
+        public BigDecimal getHrsElapsed() {
+            synchronized (FogbugzCaseStore.this) {
+                int row = this.row();
+                return decodeHours(hrsElapsed[row], hrsElapsedScales[row]);
+            }
+        }
+
+        public ZonedDateTime getLastUpdated() {
+            synchronized (FogbugzCaseStore.this) {
+                long seconds = lastUpdated[this.row()];
+                return seconds == NO_VALUE ? null : Instant.ofEpochSecond(seconds).atZone(ZoneOffset.UTC);
+            }
+        }
+
+        public List<String> getTags() {
+            synchronized (FogbugzCaseStore.this) {
+                return decodeTags(this.row());
+            }
+        }
+
+        /**
+         * Checks for a tag by comparing dictionary codes, without decoding the tags.
+         */
+        public boolean hasTag(String tag) {
+            synchronized (FogbugzCaseStore.this) {
+                int row = this.row();
+                int code = strings.lookup(tag);
+                if (code == StringDictionary.NULL) {
+                    return false;
+                }
+                for (int i = tagOffsets[row]; i < tagOffsets[row] + tagCounts[row]; i++) {
+                    if (tagPool[i] == code) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        /**
+         * @return a new, independent FogbugzCase with the fields of this view.
+         */
+        public FogbugzCase toCase() {
+            synchronized (FogbugzCaseStore.this) {
+                return materialize(this.row());
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a local replica of the cases matching a Fogbugz query. The first sync loads all matching
+ * cases, later syncs only fetch cases edited since the last seen dtLastUpdated, and apply them as
+ * inserts or updates. Cases that stop matching the query are only noticed by fullSync().
+ */
+@Log
+public class FogbugzCaseSync implements Closeable {
+
+    private static final DateTimeFormatter EDITED_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+
+    @Getter private final String query;
+    private final FogbugzManager manager;
+    private final Map<Integer, FogbugzCase> replica = new ConcurrentHashMap<Integer, FogbugzCase>();
+    private final List<FogbugzCaseListener> listeners = new CopyOnWriteArrayList<FogbugzCaseListener>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Highest dtLastUpdated seen, or null before the first sync.
+     */
+    @Getter private volatile ZonedDateTime watermark;
+
+    /**
+     * @param manager manager to search with.
+     * @param query Fogbugz search query that defines the replicated cases.
+     */
+    public FogbugzCaseSync(FogbugzManager manager, String query) {
+        this.manager = manager;
+        this.query = query;
+    }
+
+    public void addListener(FogbugzCaseListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(FogbugzCaseListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @return read-only view of the replicated cases. Do not modify the cases.
+     */
+    public Collection<FogbugzCase> getCases() {
+        return Collections.unmodifiableCollection(this.replica.values());
+    }
+
+    /**
+     * @return the replicated case, or null when it is not in the replica.
+     */
+    public FogbugzCase getCase(int id) {
+        return this.replica.get(id);
+    }
+
+    /**
+     * Searches the replica when FogbugzSearchQuery supports the query, else asks the server. The local
+     * answer only contains replicated cases, so use it for queries that narrow down the replicated query.
+     * @param users users to resolve assignedto names with, for example from FogbugzReferenceDataCache.
+     * @return copies of the matching cases, which may be modified.
+     * @throws NoSuchCaseException when no case matched, on both paths like searchForCases.
+     */
+    public List<FogbugzCase> search(String query, Collection<FogbugzUser> users)
+            throws InvalidResponseException, NoSuchCaseException {
+        FogbugzSearchQuery local = FogbugzSearchQuery.parse(query, users);
+        if (local == null) {
+            return this.manager.searchForCases(query);
+        }
+        List<FogbugzCase> result = new ArrayList<FogbugzCase>();
+        for (FogbugzCase fbCase : local.filter(this.replica.values())) {
+            result.add(new FogbugzCase(fbCase));
+        }
+        if (result.isEmpty()) {
+            throw new NoSuchCaseException("No replicated case matches query " + query);
+        }
+        return result;
+    }
+
+    /**
+     * Seeds the replica with previously stored cases, for example after a restart.
+     * The next sync only fetches what changed since the newest of these cases.
+     */
+    public synchronized void restore(Collection<FogbugzCase> cases) {
+        for (FogbugzCase fbCase : cases) {
+            this.apply(fbCase);
+        }
+    }
+
+    /**
+     * Brings the replica up to date: a full load on first use, else only the cases edited since the watermark.
+     * @return number of cases that were added or updated.
+     */
+    public synchronized int sync() throws InvalidResponseException {
+        if (this.watermark == null) {
+            return this.fullSync();
+        }
+        return this.load(this.getDeltaQuery(this.watermark), null);
+    }
+
+    /**
+     * Reloads all matching cases, also removing the cases that no longer match the query.
+     * @return number of cases that were added or updated.
+     */
+    public synchronized int fullSync() throws InvalidResponseException {
+        Set<Integer> seen = new HashSet<Integer>();
+        int changed = this.load(this.query, seen);
+        for (FogbugzCase fbCase : new ArrayList<FogbugzCase>(this.replica.values())) {
+            if (!seen.contains(fbCase.getId())) {
+                this.replica.remove(fbCase.getId());
+                for (FogbugzCaseListener listener : this.listeners) {
+                    listener.caseRemoved(fbCase);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Runs sync() in the background with a fixed delay between runs, until closed.
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (this.scheduler != null) {
+            return;
+        }
+        this.scheduler = FogbugzExecutors.newDaemonScheduler("fogbugz-case-sync");
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                this.sync();
+            } catch (Exception e) {
+                FogbugzCaseSync.log.log(Level.WARNING, "Could not sync cases for query " + this.query, e);
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Stops the background sync.
+     */
+    public synchronized void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Query for the cases edited since the watermark. Fogbugz searches edited: by date, so this also
+     * returns cases edited earlier that day; those are skipped since their dtLastUpdated is not newer.
+     */
+    protected String getDeltaQuery(ZonedDateTime since) {
+        // One day of margin, as Fogbugz interprets the date in the time zone of the user.
+        String from = since.withZoneSameInstant(ZoneOffset.UTC).minusDays(1).format(EDITED_DATE);
+        return "(" + this.query + ") edited:\"" + from + "..\"";
+    }
+
+    private int load(String search, Set<Integer> seen) throws InvalidResponseException {
+        int changed = 0;
+        try (Stream<FogbugzCase> cases = this.manager.streamCases(search)) {
+            for (FogbugzCase fbCase : (Iterable<FogbugzCase>) cases::iterator) {
+                if (seen != null) {
+                    seen.add(fbCase.getId());
+                }
+                if (this.apply(fbCase)) {
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Inserts or updates one case, notifying listeners.
+     * @return true when the case was new or newer than the replicated one.
+     */
+    private boolean apply(FogbugzCase fbCase) {
+        ZonedDateTime updated = fbCase.getLastUpdated();
+        if (updated != null && (this.watermark == null || updated.isAfter(this.watermark))) {
+            this.watermark = updated;
+        }
+
+        FogbugzCase previous = this.replica.get(fbCase.getId());
+        if (previous != null && !isNewer(fbCase, previous)) {
+            return false;
+        }
+        this.replica.put(fbCase.getId(), fbCase);
+        for (FogbugzCaseListener listener : this.listeners) {
+            if (previous == null) {
+                listener.caseAdded(fbCase);
+            } else {
+                listener.caseUpdated(previous, fbCase);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNewer(FogbugzCase fbCase, FogbugzCase previous) {
+        if (fbCase.getLastUpdated() == null || previous.getLastUpdated() == null) {
+            return !fbCase.equals(previous);
+        }
+        return fbCase.getLastUpdated().isAfter(previous.getLastUpdated());
+    }
+}
@@ -0,0 +1,94 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The events of one case, ordered by event id, which Fogbugz hands out in chronological order.
+ * Fetch it once to answer several questions about the case history, and append new events to it later.
+ */
+public class FogbugzEventTimeline {
+
+    private static final Comparator<FogbugzEvent> BY_ID = new Comparator<FogbugzEvent>() {
+        public int compare(FogbugzEvent a, FogbugzEvent b) {
+            return Integer.compare(a.getId(), b.getId());
+        }
+    };
+
+    @Getter private final int caseId;
+    private final ArrayList<FogbugzEvent> events = new ArrayList<FogbugzEvent>();
+
+    public FogbugzEventTimeline(int caseId) {
+        this.caseId = caseId;
+    }
+
+    public FogbugzEventTimeline(int caseId, Collection<FogbugzEvent> events) {
+        this(caseId);
+        this.append(events);
+    }
+
+    /**
+     * Adds the events that are newer than the last event in this timeline, ignoring the ones already known.
+     * @return number of events added.
+     */
+    public synchronized int append(Collection<FogbugzEvent> newEvents) {
+        int lastId = this.getLastEventId();
+        List<FogbugzEvent> added = new ArrayList<FogbugzEvent>();
+        for (FogbugzEvent event : newEvents) {
+            if (event.getId() > lastId) {
+                added.add(event);
+            }
+        }
+        Collections.sort(added, BY_ID);
+        this.events.addAll(added);
+        return added.size();
+    }
+
+    /**
+     * @return id of the newest event, or 0 when the timeline is empty.
+     */
+    public synchronized int getLastEventId() {
+        return this.events.isEmpty() ? 0 : this.events.get(this.events.size() - 1).getId();
+    }
+
+    /**
+     * @return read-only copy of the events, oldest first.
+     */
+    public synchronized List<FogbugzEvent> getEvents() {
+        return Collections.unmodifiableList(new ArrayList<FogbugzEvent>(this.events));
+    }
+
+    public synchronized int size() {
+        return this.events.size();
+    }
+
+    /**
+     * Finds the last event assigning the case to the given user, skipping events done by the excluded persons.
+     * @param userId user the case was assigned to.
+     * @param excludedPersons persons whose assignments do not count, for example gatekeepers and mergekeepers.
+     * @return the last matching event, or null.
+     */
+    public synchronized FogbugzEvent findLastAssignedTo(int userId, int... excludedPersons) {
+        for (int i = this.events.size() - 1; i >= 0; i--) {
+            FogbugzEvent event = this.events.get(i);
+            if (event.getPersonAssignedTo() == userId && !contains(excludedPersons, event.getPerson())) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
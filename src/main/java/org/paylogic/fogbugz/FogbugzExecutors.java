@@ -0,0 +1,52 @@
+package org.paylogic.fogbugz;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used for the concurrent parts of this library.
+ */
+class FogbugzExecutors {
+
+    /**
+     * Creates a fixed pool of daemon threads, so an idle pool never keeps the JVM alive.
+     */
+    static ExecutorService newDaemonPool(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, daemonThreadFactory(name));
+    }
+
+    /**
+     * Creates a scheduler with one daemon thread, for periodic background work.
+     */
+    static ScheduledExecutorService newDaemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(daemonThreadFactory(name));
+    }
+
+    /**
+     * Creates an executor for calls that mostly wait on the network: one virtual thread per task on
+     * JDKs that have them, else a cached pool of daemon threads.
+     */
+    static ExecutorService newAsyncExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemonThreadFactory(name));
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
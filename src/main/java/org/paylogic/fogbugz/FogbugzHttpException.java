@@ -0,0 +1,17 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the transport when Fogbugz answers with a non-2xx HTTP status.
+ */
+public class FogbugzHttpException extends IOException {
+    @Getter private final int statusCode;
+
+    public FogbugzHttpException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+}
@@ -1,10 +1,22 @@
 package org.paylogic.fogbugz;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Manager for FogbugzCase objects. Use this to retrieve, save and create cases.
+ * The bulk and timeline methods have default implementations on top of the single case methods,
+ * which implementations can replace with faster ones.
  */
 public interface FogbugzManager {
 
@@ -16,6 +28,36 @@ public interface FogbugzManager {
      */
     public FogbugzCase getCaseById(int id) throws InvalidResponseException, NoSuchCaseException;
 
+    /**
+     * Retrieves many cases at once, in a few batched searches instead of one search per id.
+     * @param ids ids of the cases to fetch.
+     * @return found cases by id, and the ids Fogbugz returned no case for.
+     */
+    public default FogbugzCaseLookup getCasesByIds(Collection<Integer> ids) throws InvalidResponseException {
+        Set<Integer> missing = new LinkedHashSet<Integer>(ids);
+        Map<Integer, FogbugzCase> found = new LinkedHashMap<Integer, FogbugzCase>();
+        if (missing.isEmpty()) {
+            return new FogbugzCaseLookup(found, missing);
+        }
+        List<FogbugzCase> cases;
+        try {
+            cases = this.searchForCases("ixBug:" + missing.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        } catch (NoSuchCaseException e) {
+            cases = Collections.emptyList();
+        }
+        Map<Integer, FogbugzCase> byId = new LinkedHashMap<Integer, FogbugzCase>();
+        for (FogbugzCase fbCase : cases) {
+            byId.put(fbCase.getId(), fbCase);
+        }
+        for (Integer id : ids) {
+            if (byId.containsKey(id)) {
+                found.put(id, byId.get(id));
+                missing.remove(id);
+            }
+        }
+        return new FogbugzCaseLookup(found, missing);
+    }
+
     /**
      * Retrieves cases using the Fogbugz API by a query
      * @param query fogbugz search query
@@ -23,6 +65,20 @@ public interface FogbugzManager {
      */
     public List<FogbugzCase> searchForCases(String query) throws InvalidResponseException, NoSuchCaseException;
 
+    /**
+     * Retrieves cases using the Fogbugz API by a query, decoding each case only when the stream asks for it.
+     * Close the stream (try-with-resources) to release the connection, also when not all cases were consumed.
+     * @param query fogbugz search query
+     * @return Stream of cases, empty when nothing matched.
+     */
+    public default Stream<FogbugzCase> streamCases(String query) throws InvalidResponseException {
+        try {
+            return this.searchForCases(query).stream();
+        } catch (NoSuchCaseException e) {
+            return Stream.empty();
+        }
+    }
+
     public List<FogbugzProject> getFogbugzProjects() throws InvalidResponseException;
 
     /**
@@ -32,6 +88,26 @@ public interface FogbugzManager {
      */
     public List<FogbugzEvent> getEventsForCase(int id);
 
+    /**
+     * Fetches the events of a case once, to answer several questions about its history.
+     * @param caseId Case id to fetch events from
+     * @return timeline of the events, or null when they could not be fetched.
+     */
+    public default FogbugzEventTimeline getEventTimeline(int caseId) {
+        List<FogbugzEvent> events = this.getEventsForCase(caseId);
+        return events == null ? null : new FogbugzEventTimeline(caseId, events);
+    }
+
+    /**
+     * Appends the events that happened since the timeline was fetched.
+     * @param timeline timeline to update.
+     * @return number of events added, or -1 when they could not be fetched.
+     */
+    public default int updateEventTimeline(FogbugzEventTimeline timeline) {
+        List<FogbugzEvent> events = this.getEventsForCase(timeline.getCaseId());
+        return events == null ? -1 : timeline.append(events);
+    }
+
     /**
      * Loop through all FogbugzEvent for given case id, and return last (in time) with assignment to gatekeepers.
      * @param caseId
@@ -63,6 +139,23 @@ public interface FogbugzManager {
      */
     public boolean saveCase(FogbugzCase fbCase);
 
+    /**
+     * Saves many cases at once. A failing case does not stop the others.
+     * @param cases The cases to save.
+     * @param comment Comment added to every case.
+     * @return report with the outcome and latency of every case, in the order of the given list.
+     */
+    public default FogbugzSaveReport saveCases(List<FogbugzCase> cases, String comment) {
+        List<FogbugzSaveResult> results = new ArrayList<FogbugzSaveResult>(cases.size());
+        for (FogbugzCase fbCase : cases) {
+            long start = System.nanoTime();
+            boolean success = this.saveCase(fbCase, comment);
+            results.add(new FogbugzSaveResult(fbCase, fbCase.getId(), success, success ? null : "Not saved.",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+        return new FogbugzSaveReport(results);
+    }
+
     /**
      * Assign case to mergekeepers user id. Note: does not save case.
      * @param fbCase the case to set assignedTo on.
@@ -0,0 +1,44 @@
+package org.paylogic.fogbugz;
+
+/**
+ * Receives measurements of the API calls a manager makes, keyed by the Fogbugz command (cmd parameter).
+ * Implementations are called on the request threads and must be thread safe and cheap.
+ * All methods do nothing by default.
+ */
+public interface FogbugzMetrics {
+
+    /** Metrics that records nothing, the default of DefaultFogbugzManager. */
+    public static final FogbugzMetrics NONE = new FogbugzMetrics() {
+    };
+
+    /**
+     * A response was read and closed. All durations are in nanoseconds.
+     * @param waitNanos time spent waiting for the throttle.
+     * @param firstByteNanos time from sending the request until the server answered, including connecting.
+     * @param downloadNanos time spent reading the response body.
+     * @param decodeNanos time the response was open but not being read, which is spent decoding it.
+     * @param bytes size of the response body read.
+     */
+    public default void requestCompleted(String command, long waitNanos, long firstByteNanos, long downloadNanos,
+                                         long decodeNanos, long bytes) {
+    }
+
+    /**
+     * A request failed and will not be retried.
+     */
+    public default void requestFailed(String command, Exception e) {
+    }
+
+    /**
+     * A failed request is sent again.
+     * @param attempt the attempt that failed, starting at 1.
+     */
+    public default void requestRetried(String command, int attempt) {
+    }
+
+    /**
+     * Objects (cases, events, intervals, users, ...) were decoded from a response.
+     */
+    public default void entitiesDecoded(String command, int count) {
+    }
+}
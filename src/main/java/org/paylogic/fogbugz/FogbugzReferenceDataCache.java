@@ -0,0 +1,241 @@
+package org.paylogic.fogbugz;
+
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps snapshots of the users, projects and milestones in Fogbugz, indexed by id and name.
+ * The snapshots are refreshed in the background, so reads never wait on the network.
+ * Lookups by name are exact matches.
+ */
+@Log
+public class FogbugzReferenceDataCache implements Closeable {
+
+    /**
+     * Immutable list of reference objects with its indexes.
+     */
+    private static class Snapshot<T> {
+        private final List<T> items;
+        private final Map<Integer, T> byId = new HashMap<Integer, T>();
+        private final Map<String, T> byName = new HashMap<String, T>();
+
+        private Snapshot(List<T> items, Map<Integer, T> byId, Map<String, T> byName) {
+            this.items = Collections.unmodifiableList(new ArrayList<T>(items));
+            this.byId.putAll(byId);
+            this.byName.putAll(byName);
+        }
+    }
+
+    private final FogbugzManager manager;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Snapshot<FogbugzUser> users;
+    private volatile Snapshot<FogbugzProject> projects;
+    private volatile Snapshot<FogbugzMilestone> milestones;
+    private volatile boolean milestonesLoaded;
+
+    /**
+     * Loads all reference data in the background, and keeps refreshing it. Lookups find nothing until
+     * the first load finished; call refresh() to wait for it.
+     * @param manager manager to fetch reference data with.
+     * @param refreshInterval time between background refreshes.
+     * @param unit unit of refreshInterval.
+     */
+    public FogbugzReferenceDataCache(FogbugzManager manager, long refreshInterval, TimeUnit unit) {
+        this.manager = manager;
+        this.users = indexUsers(Collections.<FogbugzUser>emptyList());
+        this.projects = indexProjects(Collections.<FogbugzProject>emptyList());
+        this.milestones = indexMilestones(Collections.<FogbugzMilestone>emptyList());
+
+        this.scheduler = FogbugzExecutors.newDaemonScheduler("fogbugz-reference-data");
+        this.scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, unit);
+    }
+
+    /**
+     * Fetches all reference data now. A list that failed to load keeps its previous snapshot.
+     */
+    public void refresh() {
+        // Runtime exceptions must not escape, they would stop the scheduled refresh.
+        try {
+            this.refreshUsers();
+        } catch (RuntimeException e) {
+            FogbugzReferenceDataCache.log.log(Level.WARNING, "Could not refresh users, keeping previous list.", e);
+        }
+        try {
+            this.refreshProjects();
+        } catch (InvalidResponseException | RuntimeException e) {
+            FogbugzReferenceDataCache.log.log(Level.WARNING, "Could not refresh projects, keeping previous list.", e);
+        }
+        try {
+            this.refreshMilestones();
+        } catch (RuntimeException e) {
+            FogbugzReferenceDataCache.log.log(Level.WARNING, "Could not refresh milestones, keeping previous list.", e);
+        }
+    }
+
+    private void refreshUsers() {
+        List<FogbugzUser> fetched = this.manager.getFogbugzUsers();
+        // getFogbugzUsers returns an empty list when the request failed, there is always at least one user.
+        if (!fetched.isEmpty()) {
+            this.users = indexUsers(fetched);
+        }
+    }
+
+    private void refreshProjects() throws InvalidResponseException {
+        this.projects = indexProjects(this.manager.getFogbugzProjects());
+    }
+
+    /**
+     * Synchronized with createMilestone, so a reload that started before a create can not drop its milestone.
+     */
+    private synchronized void refreshMilestones() {
+        List<FogbugzMilestone> fetched = this.manager.getMilestones();
+        // getMilestones returns an empty list when the request failed, Fogbugz always has Undecided.
+        if (!fetched.isEmpty()) {
+            this.milestones = indexMilestones(fetched);
+            this.milestonesLoaded = true;
+        }
+    }
+
+    private static Snapshot<FogbugzUser> indexUsers(List<FogbugzUser> list) {
+        Map<Integer, FogbugzUser> byId = new HashMap<Integer, FogbugzUser>();
+        Map<String, FogbugzUser> byName = new HashMap<String, FogbugzUser>();
+        for (FogbugzUser user : list) {
+            byId.put(user.getId(), user);
+            if (user.getName() != null) {
+                byName.put(user.getName(), user);
+            }
+        }
+        return new Snapshot<FogbugzUser>(list, byId, byName);
+    }
+
+    private static Snapshot<FogbugzProject> indexProjects(List<FogbugzProject> list) {
+        Map<Integer, FogbugzProject> byId = new HashMap<Integer, FogbugzProject>();
+        Map<String, FogbugzProject> byName = new HashMap<String, FogbugzProject>();
+        for (FogbugzProject project : list) {
+            byId.put(project.getId(), project);
+            if (project.getName() != null) {
+                byName.put(project.getName(), project);
+            }
+        }
+        return new Snapshot<FogbugzProject>(list, byId, byName);
+    }
+
+    private static Snapshot<FogbugzMilestone> indexMilestones(List<FogbugzMilestone> list) {
+        Map<Integer, FogbugzMilestone> byId = new HashMap<Integer, FogbugzMilestone>();
+        Map<String, FogbugzMilestone> byName = new HashMap<String, FogbugzMilestone>();
+        for (FogbugzMilestone milestone : list) {
+            byId.put(milestone.getId(), milestone);
+            if (milestone.getName() != null) {
+                byName.put(milestone.getName(), milestone);
+            }
+        }
+        return new Snapshot<FogbugzMilestone>(list, byId, byName);
+    }
+
+    public List<FogbugzUser> getUsers() {
+        return this.users.items;
+    }
+
+    /**
+     * @return the user, or null when unknown.
+     */
+    public FogbugzUser getUser(int id) {
+        return this.users.byId.get(id);
+    }
+
+    /**
+     * @return the user with this full name, or null when unknown.
+     */
+    public FogbugzUser getUserByName(String name) {
+        return this.users.byName.get(name);
+    }
+
+    public List<FogbugzProject> getProjects() {
+        return this.projects.items;
+    }
+
+    /**
+     * @return the project, or null when unknown.
+     */
+    public FogbugzProject getProject(int id) {
+        return this.projects.byId.get(id);
+    }
+
+    /**
+     * @return the project with this name, or null when unknown.
+     */
+    public FogbugzProject getProjectByName(String name) {
+        return this.projects.byName.get(name);
+    }
+
+    public List<FogbugzMilestone> getMilestones() {
+        return this.milestones.items;
+    }
+
+    /**
+     * @return the milestone, or null when unknown.
+     */
+    public FogbugzMilestone getMilestone(int id) {
+        return this.milestones.byId.get(id);
+    }
+
+    /**
+     * @return the milestone with this name, or null when unknown.
+     */
+    public FogbugzMilestone getMilestoneByName(String name) {
+        return this.milestones.byName.get(name);
+    }
+
+    /**
+     * Creates a milestone in Fogbugz, then reloads the milestones so it can be looked up right away.
+     * @param milestone milestone to create, with id 0.
+     * @return true if Fogbugz accepted the milestone.
+     */
+    public synchronized boolean createMilestone(FogbugzMilestone milestone) {
+        if (!this.manager.createMilestone(milestone)) {
+            return false;
+        }
+        this.refreshMilestones();
+        if (this.getMilestoneByName(milestone.getName()) == null) {
+            // Reload failed, keep a placeholder so the name is known until the next refresh.
+            List<FogbugzMilestone> list = new ArrayList<FogbugzMilestone>(this.milestones.items);
+            list.add(milestone);
+            this.milestones = indexMilestones(list);
+        }
+        return true;
+    }
+
+    /**
+     * Creates a milestone unless one with that name is already known, without fetching the milestone list.
+     * Before the milestones were loaded once, this asks Fogbugz instead.
+     * @return true if a milestone was created.
+     */
+    public synchronized boolean createMilestoneIfNotExists(String milestoneName) {
+        if (!this.milestonesLoaded) {
+            return this.manager.createMilestoneIfNotExists(milestoneName);
+        }
+        if (this.getMilestoneByName(milestoneName) != null) {
+            FogbugzReferenceDataCache.log.info("Milestone " + milestoneName + " already exists, not creating.");
+            return false;
+        }
+        FogbugzReferenceDataCache.log.info("Creating milestone " + milestoneName + ".");
+        return this.createMilestone(new FogbugzMilestone(0, milestoneName, false, false));
+    }
+
+    /**
+     * Stops the background refresh.
+     */
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,110 @@
+package org.paylogic.fogbugz;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Builds Fogbugz API urls from request parameters. The base url with the token is computed once,
+ * parameters are written in sorted key order, so equal requests give equal urls, and are encoded
+ * into one reused buffer like URLEncoder does, without the charset lookup.
+ * Instances are thread safe.
+ */
+class FogbugzRequestBuilder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    private final String prefix;
+    private final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>();
+
+    /**
+     * @param url base url of the Fogbugz installation, ending with a slash.
+     * @param token API token.
+     */
+    FogbugzRequestBuilder(String url, String token) {
+        this.prefix = url + "api.asp?token=" + token;
+    }
+
+    /**
+     * Builds the API url for the given parameters. Parameters with a null value are left out,
+     * empty values are sent, as they clear fields.
+     */
+    String build(Map<String, String> params) {
+        StringBuilder buffer = this.buffer();
+        buffer.append(this.prefix);
+        this.appendParameters(buffer, params);
+        return buffer.toString();
+    }
+
+    /**
+     * Builds only the parameter part of the url, without base url and token, for use in log messages.
+     */
+    String describe(Map<String, String> params) {
+        StringBuilder buffer = this.buffer();
+        this.appendParameters(buffer, params);
+        return buffer.length() == 0 ? "" : buffer.substring(1);
+    }
+
+    private StringBuilder buffer() {
+        StringBuilder buffer = this.buffers.get();
+        if (buffer == null || buffer.capacity() > MAX_BUFFER_SIZE) {
+            // Do not keep a buffer alive that one huge request made large.
+            buffer = new StringBuilder(512);
+            this.buffers.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private void appendParameters(StringBuilder buffer, Map<String, String> params) {
+        String[] keys = params.keySet().toArray(new String[params.size()]);
+        Arrays.sort(keys);
+        for (String key : keys) {
+            String value = params.get(key);
+            if (value != null) {
+                buffer.append('&');
+                appendEncoded(buffer, key);
+                buffer.append('=');
+                appendEncoded(buffer, value);
+            }
+        }
+    }
+
+    /**
+     * Appends the value in application/x-www-form-urlencoded form with UTF-8, like URLEncoder.
+     */
+    static void appendEncoded(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-' || c == '*' || c == '_') {
+                buffer.append(c);
+            } else if (c == ' ') {
+                buffer.append('+');
+            } else if (c < 0x80) {
+                appendByte(buffer, c);
+            } else if (c < 0x800) {
+                appendByte(buffer, 0xC0 | (c >> 6));
+                appendByte(buffer, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(buffer, 0xF0 | (codePoint >> 18));
+                appendByte(buffer, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(buffer, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(buffer, 0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, encoded as '?' like URLEncoder does.
+                appendByte(buffer, '?');
+            } else {
+                appendByte(buffer, 0xE0 | (c >> 12));
+                appendByte(buffer, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(buffer, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder buffer, int b) {
+        buffer.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
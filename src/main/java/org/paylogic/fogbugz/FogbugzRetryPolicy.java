@@ -0,0 +1,165 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when failed API requests are tried again: up to maxAttempts, with exponential backoff and full jitter.
+ * A retry budget keeps retries to a fraction of all requests, so an outage does not multiply the load,
+ * and a circuit breaker fails requests fast after failureThreshold failures in a row, until openMillis passed.
+ * Requests that are not safe to repeat are only retried when they certainly did not reach the server.
+ * One instance can be shared between several managers talking to the same server.
+ */
+public class FogbugzRetryPolicy {
+
+    @Getter @Setter private int maxAttempts = 3;
+    @Getter @Setter private long baseDelayMillis = 200;
+    @Getter @Setter private long maxDelayMillis = 5000;
+    /** Retries earned per request; 0.2 allows one retry for every five requests. */
+    @Getter @Setter private double budgetRatio = 0.2;
+    /** Retries that may be spent at once, also the budget at the start. */
+    @Getter @Setter private int maxBudget = 10;
+    @Getter @Setter private int failureThreshold = 5;
+    @Getter @Setter private long openMillis = 30000;
+
+    private final LongSupplier clock;
+    private double budget;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean open;
+    private boolean trialRunning;
+
+    public FogbugzRetryPolicy() {
+        this(System::nanoTime);
+    }
+
+    FogbugzRetryPolicy(LongSupplier clock) {
+        this.clock = clock;
+        this.budget = this.maxBudget;
+    }
+
+    /**
+     * Thrown instead of sending a request while the circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Called before every attempt. When the breaker is open, fails fast; once openMillis passed, lets one trial through.
+     */
+    synchronized void beforeAttempt() throws CircuitOpenException {
+        if (!this.open) {
+            return;
+        }
+        if (!this.trialRunning && this.clock.getAsLong() - this.openedAt >= TimeUnit.MILLISECONDS.toNanos(this.openMillis)) {
+            this.trialRunning = true;
+            return;
+        }
+        throw new CircuitOpenException("Fogbugz circuit breaker is open after " + this.consecutiveFailures
+                + " failed requests.");
+    }
+
+    /**
+     * Records a successful attempt: closes the breaker and adds to the retry budget.
+     */
+    synchronized void onSuccess() {
+        this.consecutiveFailures = 0;
+        this.open = false;
+        this.trialRunning = false;
+        this.budget = Math.min(this.maxBudget, this.budget + this.budgetRatio);
+    }
+
+    /**
+     * Records a failed attempt, opening the breaker after failureThreshold failures in a row.
+     */
+    synchronized void onFailure(IOException e) {
+        if (e instanceof CircuitOpenException) {
+            return;
+        }
+        this.consecutiveFailures++;
+        if (this.trialRunning || this.consecutiveFailures >= this.failureThreshold) {
+            this.open = true;
+            this.trialRunning = false;
+            this.openedAt = this.clock.getAsLong();
+        }
+    }
+
+    /**
+     * Records an attempt that ended with something else than an answer or an IOException, like a bug in the
+     * transport. Does not count as a failure, but ends a running trial, so the next request can try again.
+     */
+    synchronized void onAbort() {
+        this.trialRunning = false;
+    }
+
+    /**
+     * Decides whether to try again after the given failed attempt, taking a retry from the budget if so.
+     * @param attempt number of the attempt that failed, starting at 1.
+     * @param safeToRepeat true when sending the request twice does no harm.
+     */
+    synchronized boolean shouldRetry(int attempt, IOException e, boolean safeToRepeat) {
+        if (attempt >= this.maxAttempts || this.open || !isRetryable(e)) {
+            return false;
+        }
+        if (!safeToRepeat && !isNotSent(e)) {
+            return false;
+        }
+        if (this.budget < 1) {
+            return false;
+        }
+        this.budget -= 1;
+        return true;
+    }
+
+    /**
+     * Sleeps before the next attempt: a random time up to baseDelayMillis * 2^(attempt - 1), capped at maxDelayMillis.
+     */
+    void backoff(int attempt) throws InterruptedIOException {
+        long cap = Math.min(this.maxDelayMillis, this.baseDelayMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a Fogbugz request.");
+        }
+    }
+
+    /**
+     * @return true for failures that may go away when trying again.
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof CircuitOpenException || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof FogbugzHttpException) {
+            int status = ((FogbugzHttpException) e).getStatusCode();
+            return status == 408 || status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+        }
+        return true;
+    }
+
+    /**
+     * @return true for failures where the request certainly was not processed by Fogbugz.
+     */
+    static boolean isNotSent(IOException e) {
+        if (e instanceof FogbugzHttpException) {
+            int status = ((FogbugzHttpException) e).getStatusCode();
+            return status == 429 || status == 503;
+        }
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException
+                || e instanceof UnknownHostException || e instanceof NoRouteToHostException;
+    }
+}
@@ -0,0 +1,59 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of saving many cases at once, with one FogbugzSaveResult per case in the order they were given.
+ */
+public class FogbugzSaveReport {
+    @Getter private final List<FogbugzSaveResult> results;
+
+    public FogbugzSaveReport(List<FogbugzSaveResult> results) {
+        this.results = results;
+    }
+
+    /**
+     * @return results of the cases that could not be saved.
+     */
+    public List<FogbugzSaveResult> getFailures() {
+        List<FogbugzSaveResult> failures = new ArrayList<FogbugzSaveResult>();
+        for (FogbugzSaveResult result : this.results) {
+            if (!result.isSuccess()) {
+                failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return true when every case was saved.
+     */
+    public boolean isSuccess() {
+        for (FogbugzSaveResult result : this.results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return highest latency of all requests, in milliseconds.
+     */
+    public long getMaxLatencyMillis() {
+        long max = 0;
+        for (FogbugzSaveResult result : this.results) {
+            max = Math.max(max, result.getLatencyMillis());
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ saved: %d, failed: %d, maxLatencyMillis: %d }",
+                this.results.size() - this.getFailures().size(), this.getFailures().size(), this.getMaxLatencyMillis());
+    }
+}
@@ -0,0 +1,32 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+/**
+ * Outcome of saving one case with DefaultFogbugzManager.saveCases.
+ */
+public class FogbugzSaveResult {
+    /** The case that was saved. */
+    @Getter private final FogbugzCase fbCase;
+    /** Id of the saved case; for new cases the id Fogbugz assigned, or 0 when creation failed. */
+    @Getter private final int caseId;
+    @Getter private final boolean success;
+    /** Error message when saving failed, else null. */
+    @Getter private final String error;
+    /** Time the request took, not counting time spent waiting for the rate limit. */
+    @Getter private final long latencyMillis;
+
+    public FogbugzSaveResult(FogbugzCase fbCase, int caseId, boolean success, String error, long latencyMillis) {
+        this.fbCase = fbCase;
+        this.caseId = caseId;
+        this.success = success;
+        this.error = error;
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ caseId: %d, success: %s, error: %s, latencyMillis: %d }",
+                this.caseId, this.success, this.error, this.latencyMillis);
+    }
+}
@@ -0,0 +1,268 @@
+package org.paylogic.fogbugz;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Fogbugz search query that can be evaluated against local cases. Supports the axes ixBug (id or comma
+ * separated ids), assignedto (user id or name), status (open, closed or a status name prefix), milestone,
+ * tag, project (id or name) and parent, combined with AND, OR, NOT, a leading minus and parentheses.
+ * Like in Fogbugz, terms next to each other must all match, AND binds stronger than OR, and values
+ * with spaces are quoted. Matching is case insensitive. Anything else, like free text or other axes,
+ * is left to the server: parse returns null for those queries.
+ */
+public final class FogbugzSearchQuery {
+
+    private final String query;
+    private final Predicate<FogbugzCase> predicate;
+
+    private FogbugzSearchQuery(String query, Predicate<FogbugzCase> predicate) {
+        this.query = query;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Parses a query, with assignedto only accepting user ids.
+     * @return the query, or null when it is not in the supported subset.
+     */
+    public static FogbugzSearchQuery parse(String query) {
+        return parse(query, Collections.<FogbugzUser>emptyList());
+    }
+
+    /**
+     * Parses a query.
+     * @param users users to resolve assignedto names with.
+     * @return the query, or null when it is not in the supported subset or names an unknown user.
+     */
+    public static FogbugzSearchQuery parse(String query, Collection<FogbugzUser> users) {
+        if (query == null) {
+            return null;
+        }
+        try {
+            return new FogbugzSearchQuery(query, new Parser(query, users).parse());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean matches(FogbugzCase fbCase) {
+        return this.predicate.test(fbCase);
+    }
+
+    /**
+     * @return the matching cases, in the order of the given cases.
+     */
+    public List<FogbugzCase> filter(Collection<FogbugzCase> cases) {
+        List<FogbugzCase> result = new ArrayList<FogbugzCase>();
+        for (FogbugzCase fbCase : cases) {
+            if (this.predicate.test(fbCase)) {
+                result.add(fbCase);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.query;
+    }
+
+    /**
+     * Recursive descent parser, throws IllegalArgumentException on anything it does not support.
+     */
+    private static class Parser {
+        private final String text;
+        private final Collection<FogbugzUser> users;
+        private int pos;
+
+        private Parser(String text, Collection<FogbugzUser> users) {
+            this.text = text;
+            this.users = users;
+        }
+
+        private Predicate<FogbugzCase> parse() {
+            Predicate<FogbugzCase> result = this.parseOr();
+            this.skipSpace();
+            if (this.pos < this.text.length()) {
+                throw new IllegalArgumentException("Unexpected " + this.text.charAt(this.pos) + " at " + this.pos);
+            }
+            return result;
+        }
+
+        private Predicate<FogbugzCase> parseOr() {
+            Predicate<FogbugzCase> result = this.parseAnd();
+            while (this.acceptKeyword("OR")) {
+                result = result.or(this.parseAnd());
+            }
+            return result;
+        }
+
+        private Predicate<FogbugzCase> parseAnd() {
+            Predicate<FogbugzCase> result = this.parseUnary();
+            while (true) {
+                this.skipSpace();
+                if (this.pos == this.text.length() || this.text.charAt(this.pos) == ')' || this.isKeyword("OR")) {
+                    return result;
+                }
+                this.acceptKeyword("AND");
+                result = result.and(this.parseUnary());
+            }
+        }
+
+        private Predicate<FogbugzCase> parseUnary() {
+            this.skipSpace();
+            if (this.acceptKeyword("NOT")) {
+                return this.parseUnary().negate();
+            }
+            if (this.pos == this.text.length()) {
+                throw new IllegalArgumentException("Unexpected end of query");
+            }
+            char c = this.text.charAt(this.pos);
+            if (c == '-') {
+                this.pos++;
+                return this.parseUnary().negate();
+            }
+            if (c == '(') {
+                this.pos++;
+                Predicate<FogbugzCase> result = this.parseOr();
+                this.skipSpace();
+                if (this.pos == this.text.length() || this.text.charAt(this.pos) != ')') {
+                    throw new IllegalArgumentException("Missing ) at " + this.pos);
+                }
+                this.pos++;
+                return result;
+            }
+            return this.parseTerm();
+        }
+
+        private Predicate<FogbugzCase> parseTerm() {
+            int start = this.pos;
+            while (this.pos < this.text.length() && Character.isLetter(this.text.charAt(this.pos))) {
+                this.pos++;
+            }
+            if (this.pos == start || this.pos == this.text.length() || this.text.charAt(this.pos) != ':') {
+                throw new IllegalArgumentException("Free text search at " + start);
+            }
+            String axis = this.text.substring(start, this.pos).toLowerCase();
+            this.pos++;
+            String value = this.parseValue();
+
+            switch (axis) {
+                case "ixbug":
+                    Set<Integer> ids = new HashSet<Integer>();
+                    for (String id : value.split(",")) {
+                        ids.add(parseId(id.trim()));
+                    }
+                    return fbCase -> ids.contains(fbCase.getId());
+                case "assignedto":
+                    int userId = this.resolveUser(value);
+                    return fbCase -> fbCase.getAssignedTo() == userId;
+                case "status":
+                    if (value.equalsIgnoreCase("open")) {
+                        return FogbugzCase::isOpen;
+                    }
+                    if (value.equalsIgnoreCase("closed")) {
+                        return fbCase -> !fbCase.isOpen();
+                    }
+                    return fbCase -> fbCase.getStatusName() != null
+                            && fbCase.getStatusName().regionMatches(true, 0, value, 0, value.length());
+                case "milestone":
+                    return fbCase -> value.equalsIgnoreCase(fbCase.getMilestone());
+                case "tag":
+                    return fbCase -> fbCase.getTags() != null
+                            && fbCase.getTags().stream().anyMatch(value::equalsIgnoreCase);
+                case "project":
+                    if (isNumber(value)) {
+                        int projectId = parseId(value);
+                        return fbCase -> fbCase.getProjectId() == projectId;
+                    }
+                    return fbCase -> value.equalsIgnoreCase(fbCase.getProjectName());
+                case "parent":
+                    int parentId = parseId(value);
+                    return fbCase -> fbCase.getParentId() == parentId;
+                default:
+                    throw new IllegalArgumentException("Unsupported axis " + axis);
+            }
+        }
+
+        /**
+         * Reads a bare value up to whitespace or a parenthesis, or a quoted value.
+         */
+        private String parseValue() {
+            StringBuilder value = new StringBuilder();
+            if (this.pos < this.text.length() && this.text.charAt(this.pos) == '"') {
+                int end = this.text.indexOf('"', this.pos + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Missing \" at " + this.pos);
+                }
+                value.append(this.text, this.pos + 1, end);
+                this.pos = end + 1;
+            } else {
+                while (this.pos < this.text.length()) {
+                    char c = this.text.charAt(this.pos);
+                    if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '"') {
+                        break;
+                    }
+                    value.append(c);
+                    this.pos++;
+                }
+            }
+            if (value.length() == 0) {
+                throw new IllegalArgumentException("Missing value at " + this.pos);
+            }
+            return value.toString();
+        }
+
+        private int resolveUser(String value) {
+            if (isNumber(value)) {
+                return parseId(value);
+            }
+            for (FogbugzUser user : this.users) {
+                if (value.equalsIgnoreCase(user.name)) {
+                    return user.id;
+                }
+            }
+            throw new IllegalArgumentException("Unknown user " + value);
+        }
+
+        private boolean isKeyword(String keyword) {
+            int end = this.pos + keyword.length();
+            return this.text.startsWith(keyword, this.pos) && (end == this.text.length()
+                    || Character.isWhitespace(this.text.charAt(end)) || this.text.charAt(end) == '(');
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            this.skipSpace();
+            if (this.isKeyword(keyword)) {
+                this.pos += keyword.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpace() {
+            while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) {
+                this.pos++;
+            }
+        }
+
+        private static boolean isNumber(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (!Character.isDigit(value.charAt(i))) {
+                    return false;
+                }
+            }
+            return !value.isEmpty();
+        }
+
+        private static int parseId(String value) {
+            // NumberFormatException is an IllegalArgumentException, so bad ids fall back to the server too.
+            return Integer.parseInt(value);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.paylogic.fogbugz;
+
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Append-only file of decoded cases, events, users and milestones, so a restarted process can load its
+ * data locally and only fetch what changed since. Records are encoded with FogbugzBinaryCodec, as one
+ * stream that shares its string table over the whole file, and written through a memory-mapped buffer.
+ * A later record for the same id replaces an earlier one when loading. compact() rewrites the file
+ * with only the latest records.
+ * <p>
+ * Typical use: attach(sync) before the first sync, so the sync starts from the stored cases and only
+ * fetches the cases edited since; for events, restore timelines with getTimeline(), bring them up to date
+ * with updateEventTimeline() and append the new events.
+ */
+@Log
+public class FogbugzSnapshotStore implements Closeable {
+
+    private static final int MAGIC = 0x46425353; // "FBSS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    // Kinds of record: codec records, or the id of a removed case.
+    private static final byte OBJECTS = 1;
+    private static final byte CASE_REMOVED = 2;
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    // Strings defined by the records in the file, continued by new records.
+    private FogbugzBinaryCodec.StringTable strings;
+
+    /**
+     * Opens the snapshot file, creating it when it does not exist.
+     * @throws IOException when the file can not be mapped or is not a snapshot file.
+     */
+    public FogbugzSnapshotStore(Path file) throws IOException {
+        this.file = file;
+        this.open();
+    }
+
+    private void open() throws IOException {
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = this.channel.size();
+        if (size > 0) {
+            // Check before mapping, mapping would grow the file.
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            this.channel.read(header, 0);
+            if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                this.channel.close();
+                throw new IOException(this.file + " is not a Fogbugz snapshot file of version " + VERSION);
+            }
+        }
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+        if (size == 0) {
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putInt(4, VERSION);
+        }
+        // Records are written with their length last, so the first zero length marks the end, also after a crash.
+        this.position = HEADER_SIZE;
+        this.strings = new FogbugzBinaryCodec.StringTable();
+        int length;
+        while (this.position + 4 <= this.buffer.capacity() && (length = this.buffer.getInt(this.position)) > 0
+                && this.position + 4 + length <= this.buffer.capacity()) {
+            ByteBuffer record = this.record(this.position, length);
+            if (record.get() == OBJECTS) {
+                new FogbugzBinaryCodec.Reader(record, this.strings).readStrings();
+            }
+            this.position += 4 + length;
+        }
+    }
+
+    private ByteBuffer record(int offset, int length) {
+        ByteBuffer record = this.buffer.duplicate();
+        record.limit(offset + 4 + length).position(offset + 4);
+        return record;
+    }
+
+    public synchronized void append(FogbugzCase fbCase) throws IOException {
+        this.writeRecord(OBJECTS, out -> new FogbugzBinaryCodec.Writer(out, this.strings).write(fbCase));
+    }
+
+    public synchronized void appendCases(Collection<FogbugzCase> cases) throws IOException {
+        for (FogbugzCase fbCase : cases) {
+            this.append(fbCase);
+        }
+    }
+
+    /**
+     * Records that a case left the local set, so it is not loaded anymore.
+     */
+    public synchronized void removeCase(int caseId) throws IOException {
+        this.writeRecord(CASE_REMOVED, out -> out.putInt(caseId));
+    }
+
+    public synchronized void appendEvents(Collection<FogbugzEvent> events) throws IOException {
+        for (FogbugzEvent event : events) {
+            this.writeRecord(OBJECTS, out -> new FogbugzBinaryCodec.Writer(out, this.strings).write(event));
+        }
+    }
+
+    public synchronized void append(FogbugzUser user) throws IOException {
+        this.writeRecord(OBJECTS, out -> new FogbugzBinaryCodec.Writer(out, this.strings).write(user));
+    }
+
+    public synchronized void appendUsers(Collection<FogbugzUser> users) throws IOException {
+        for (FogbugzUser user : users) {
+            this.append(user);
+        }
+    }
+
+    public synchronized void appendMilestones(Collection<FogbugzMilestone> milestones) throws IOException {
+        for (FogbugzMilestone milestone : milestones) {
+            this.writeRecord(OBJECTS, out -> new FogbugzBinaryCodec.Writer(out, this.strings).write(milestone));
+        }
+    }
+
+    /**
+     * Encodes a record in the scratch buffer, growing it as needed, and copies it to the file.
+     */
+    private void writeRecord(byte kind, Consumer<ByteBuffer> writer) throws IOException {
+        int definedStrings = this.strings.size();
+        while (true) {
+            this.scratch.clear();
+            try {
+                writer.accept(this.scratch.put(kind));
+                break;
+            } catch (BufferOverflowException e) {
+                this.scratch = ByteBuffer.allocate(this.scratch.capacity() * 2);
+            }
+        }
+        this.scratch.flip();
+        int length = this.scratch.remaining();
+        if (this.position + 4 + length + 4 > this.buffer.capacity()) {
+            try {
+                this.remap(Math.max(this.buffer.capacity() * 2L, this.position + 4L + length + 4));
+            } catch (IOException e) {
+                // The record is not written, so neither are the strings it defined.
+                this.strings.truncate(definedStrings);
+                throw e;
+            }
+        }
+        ByteBuffer target = this.buffer.duplicate();
+        target.position(this.position + 4);
+        target.put(this.scratch);
+        this.buffer.putInt(this.position, length);
+        this.position += 4 + length;
+    }
+
+    private void remap(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot file " + this.file + " is full, compact it.");
+        }
+        this.buffer.force();
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Writes the appended records to disk. Without this, the operating system writes them eventually.
+     */
+    public synchronized void flush() {
+        this.buffer.force();
+    }
+
+    /**
+     * @return number of bytes used by records.
+     */
+    public synchronized int size() {
+        return this.position - HEADER_SIZE;
+    }
+
+    /**
+     * Reads all records, keeping the latest one per id.
+     */
+    public synchronized Snapshot load() {
+        Snapshot snapshot = new Snapshot();
+        FogbugzBinaryCodec.StringTable strings = new FogbugzBinaryCodec.StringTable();
+        int offset = HEADER_SIZE;
+        while (offset < this.position) {
+            int length = this.buffer.getInt(offset);
+            ByteBuffer record = this.record(offset, length);
+            byte kind = record.get();
+            if (kind == CASE_REMOVED) {
+                int caseId = record.getInt();
+                snapshot.cases.remove(caseId);
+                snapshot.events.remove(caseId);
+            } else if (kind == OBJECTS) {
+                for (Object object : new FogbugzBinaryCodec.Reader(record, strings).readAll()) {
+                    snapshot.add(object);
+                }
+            }
+            offset += 4 + length;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Restores the sync with the stored cases, then stores every case it adds, updates or removes.
+     * Call before the first sync, so it only fetches the cases edited since the newest stored case.
+     */
+    public void attach(FogbugzCaseSync sync) {
+        sync.restore(this.load().getCases());
+        sync.addListener(new FogbugzCaseListener() {
+            @Override
+            public void caseAdded(FogbugzCase fbCase) {
+                this.store(fbCase);
+            }
+
+            @Override
+            public void caseUpdated(FogbugzCase previous, FogbugzCase current) {
+                this.store(current);
+            }
+
+            @Override
+            public void caseRemoved(FogbugzCase fbCase) {
+                try {
+                    FogbugzSnapshotStore.this.removeCase(fbCase.getId());
+                } catch (IOException e) {
+                    FogbugzSnapshotStore.log.log(Level.SEVERE, "Could not store removal of case " + fbCase.getId(), e);
+                }
+            }
+
+            private void store(FogbugzCase fbCase) {
+                try {
+                    FogbugzSnapshotStore.this.append(fbCase);
+                } catch (IOException e) {
+                    FogbugzSnapshotStore.log.log(Level.SEVERE, "Could not store case " + fbCase.getId(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites the file with only the latest record per id, dropping replaced and removed records.
+     */
+    public synchronized void compact() throws IOException {
+        Snapshot snapshot = this.load();
+        Path compacted = this.file.resolveSibling(this.file.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+        FogbugzSnapshotStore target = new FogbugzSnapshotStore(compacted);
+        try {
+            target.appendUsers(snapshot.getUsers());
+            target.appendMilestones(snapshot.getMilestones());
+            target.appendCases(snapshot.getCases());
+            for (TreeMap<Integer, FogbugzEvent> events : snapshot.events.values()) {
+                target.appendEvents(events.values());
+            }
+            target.flush();
+        } finally {
+            target.close();
+        }
+        this.buffer.force();
+        this.channel.close();
+        this.buffer = null;
+        try {
+            this.replaceFile(compacted);
+        } finally {
+            // Reopens the compacted file, or the original one when it could not be replaced.
+            this.open();
+        }
+    }
+
+    /**
+     * Moves the compacted file over the snapshot file. Package-private so tests can make it fail.
+     */
+    void replaceFile(Path compacted) throws IOException {
+        Files.move(compacted, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Flushes and closes the file.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel.isOpen()) {
+            this.buffer.force();
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Contents of a snapshot file, with the latest record per id.
+     */
+    public static class Snapshot {
+        private final Map<Integer, FogbugzCase> cases = new LinkedHashMap<Integer, FogbugzCase>();
+        private final Map<Integer, TreeMap<Integer, FogbugzEvent>> events = new LinkedHashMap<Integer, TreeMap<Integer, FogbugzEvent>>();
+        private final Map<Integer, FogbugzUser> users = new LinkedHashMap<Integer, FogbugzUser>();
+        private final Map<Integer, FogbugzMilestone> milestones = new LinkedHashMap<Integer, FogbugzMilestone>();
+
+        private void add(Object object) {
+            if (object instanceof FogbugzCase) {
+                FogbugzCase fbCase = (FogbugzCase) object;
+                this.cases.put(fbCase.getId(), fbCase);
+            } else if (object instanceof FogbugzEvent) {
+                FogbugzEvent event = (FogbugzEvent) object;
+                this.events.computeIfAbsent(event.getCaseId(), id -> new TreeMap<Integer, FogbugzEvent>()).put(event.getId(), event);
+            } else if (object instanceof FogbugzUser) {
+                FogbugzUser user = (FogbugzUser) object;
+                this.users.put(user.getId(), user);
+            } else if (object instanceof FogbugzMilestone) {
+                FogbugzMilestone milestone = (FogbugzMilestone) object;
+                this.milestones.put(milestone.getId(), milestone);
+            }
+        }
+
+        public Collection<FogbugzCase> getCases() {
+            return Collections.unmodifiableCollection(this.cases.values());
+        }
+
+        /**
+         * @return the stored case, or null.
+         */
+        public FogbugzCase getCase(int id) {
+            return this.cases.get(id);
+        }
+
+        /**
+         * @return the stored events of the case, ordered by id.
+         */
+        public List<FogbugzEvent> getEvents(int caseId) {
+            TreeMap<Integer, FogbugzEvent> caseEvents = this.events.get(caseId);
+            return caseEvents == null ? Collections.<FogbugzEvent>emptyList() : new ArrayList<FogbugzEvent>(caseEvents.values());
+        }
+
+        /**
+         * @return timeline with the stored events of the case, to be brought up to date with updateEventTimeline.
+         */
+        public FogbugzEventTimeline getTimeline(int caseId) {
+            return new FogbugzEventTimeline(caseId, this.getEvents(caseId));
+        }
+
+        public Collection<FogbugzUser> getUsers() {
+            return Collections.unmodifiableCollection(this.users.values());
+        }
+
+        public Collection<FogbugzMilestone> getMilestones() {
+            return Collections.unmodifiableCollection(this.milestones.values());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how hard managers hit the Fogbugz server: a token bucket caps the request rate, and an
+ * AIMD limit caps the number of requests in flight. The limit grows by one per round of fast, successful
+ * requests, and is cut by backoffRatio when a request fails or takes longer than latencyThresholdMillis.
+ * Waiting reads and writes are served alternately, so a burst of one kind can not starve the other.
+ * A request is in flight until the server answered; reading the response body does not count.
+ * One instance can be shared between several managers talking to the same server.
+ */
+public class FogbugzThrottle {
+
+    /** Lowest number of requests in flight the limit can be cut to. */
+    @Getter @Setter private int minLimit = 1;
+    /** Requests slower than this count as a sign of overload. */
+    @Getter @Setter private long latencyThresholdMillis = 5000;
+    /** Factor the limit is multiplied with on overload. */
+    @Getter @Setter private double backoffRatio = 0.5;
+    @Getter private final int maxLimit;
+
+    private final TokenBucket rateLimit;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter> reads = new ArrayDeque<Waiter>();
+    private final ArrayDeque<Waiter> writes = new ArrayDeque<Waiter>();
+    private double limit;
+    private int inFlight;
+    private boolean writeTurn;
+    private long lastBackoff;
+    private boolean backedOff;
+
+    /**
+     * @param requestsPerSecond maximum request rate, 0 for no rate limit.
+     * @param initialLimit number of requests allowed in flight at the start.
+     * @param maxLimit maximum the limit can grow to.
+     */
+    public FogbugzThrottle(double requestsPerSecond, int initialLimit, int maxLimit) {
+        this(requestsPerSecond, initialLimit, maxLimit, System::nanoTime);
+    }
+
+    FogbugzThrottle(double requestsPerSecond, int initialLimit, int maxLimit, LongSupplier clock) {
+        this.rateLimit = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, Math.max(1, initialLimit), clock) : null;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.clock = clock;
+    }
+
+    /**
+     * Waits until the request may be sent.
+     * @param write true for requests that change data, false for reads.
+     * @return permit that must be released when the request is done.
+     */
+    public Permit acquire(boolean write) throws InterruptedException {
+        if (this.rateLimit != null) {
+            this.rateLimit.acquire();
+        }
+
+        this.lock.lock();
+        try {
+            if (this.inFlight < this.getLimit() && this.reads.isEmpty() && this.writes.isEmpty()) {
+                this.inFlight++;
+                return new Permit();
+            }
+            Waiter waiter = new Waiter(this.lock.newCondition());
+            (write ? this.writes : this.reads).add(waiter);
+            try {
+                while (!waiter.granted) {
+                    waiter.condition.await();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // Got the slot while being interrupted, hand it to the next one.
+                    this.inFlight--;
+                    this.dispatch();
+                } else {
+                    (write ? this.writes : this.reads).remove(waiter);
+                }
+                throw e;
+            }
+            return new Permit();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return current number of requests allowed in flight.
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of requests waiting for a slot.
+     */
+    public int getQueued() {
+        this.lock.lock();
+        try {
+            return this.reads.size() + this.writes.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void release(boolean success, long latencyNanos) {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            long now = this.clock.getAsLong();
+            long threshold = TimeUnit.MILLISECONDS.toNanos(this.latencyThresholdMillis);
+            if (!success || latencyNanos > threshold) {
+                // Requests that were already in flight fail together, so back off once per threshold period.
+                if (!this.backedOff || now - this.lastBackoff >= threshold) {
+                    this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+                    this.lastBackoff = now;
+                    this.backedOff = true;
+                }
+            } else {
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+            }
+            this.dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Hands free slots to waiting requests, alternating between writes and reads. Called with the lock held.
+     */
+    private void dispatch() {
+        while (this.inFlight < (int) this.limit && !(this.reads.isEmpty() && this.writes.isEmpty())) {
+            boolean takeWrite = this.reads.isEmpty() || (this.writeTurn && !this.writes.isEmpty());
+            Waiter waiter = (takeWrite ? this.writes : this.reads).poll();
+            this.writeTurn = !takeWrite;
+            waiter.granted = true;
+            this.inFlight++;
+            waiter.condition.signal();
+        }
+    }
+
+    private static class Waiter {
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * A slot for one request. Release it exactly once, reporting whether the request succeeded.
+     */
+    public class Permit {
+        private final long start = FogbugzThrottle.this.clock.getAsLong();
+        private boolean released;
+
+        /**
+         * Frees the slot and feeds the outcome into the limit.
+         * @param success false when the request failed.
+         * @param latencyNanos time the server took to respond.
+         */
+        public void release(boolean success, long latencyNanos) {
+            synchronized (this) {
+                if (this.released) {
+                    return;
+                }
+                this.released = true;
+            }
+            FogbugzThrottle.this.release(success, latencyNanos);
+        }
+
+        /**
+         * Frees the slot, using the time since the permit was acquired as latency.
+         */
+        public void release(boolean success) {
+            this.release(success, FogbugzThrottle.this.clock.getAsLong() - this.start);
+        }
+    }
+}
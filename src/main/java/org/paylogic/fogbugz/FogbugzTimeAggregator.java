@@ -0,0 +1,250 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rolls time intervals up into hours per case, person, day and project. Intervals are kept in parallel
+ * primitive arrays (ids and epoch seconds) and every rollup is updated as intervals are added, changed
+ * or deleted, so feeding it new intervals never recomputes the totals. Open intervals, without an end
+ * yet, count once they are added again with their end. Thread safe.
+ */
+public class FogbugzTimeAggregator {
+
+    private static final BigDecimal SECONDS_PER_HOUR = BigDecimal.valueOf(3600);
+
+    private final ZoneId zone;
+
+    // Interval rows, row i describes one interval. A row with end < start contributes nothing.
+    private int[] intervalIds = new int[64];
+    private int[] caseIds = new int[64];
+    private int[] personIds = new int[64];
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    private int rows;
+    private final IntLongMap rowById = new IntLongMap();
+
+    private final IntLongMap secondsByCase = new IntLongMap();
+    private final IntLongMap secondsByPerson = new IntLongMap();
+    private final IntLongMap secondsByDay = new IntLongMap();
+    private final IntLongMap projectByCase = new IntLongMap();
+
+    /**
+     * Creates an aggregator that splits days at midnight UTC.
+     */
+    public FogbugzTimeAggregator() {
+        this(ZoneOffset.UTC);
+    }
+
+    /**
+     * @param zone time zone in which intervals are split into days.
+     */
+    public FogbugzTimeAggregator(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Adds an interval, or updates it when an interval with the same id was added before.
+     * Deleted intervals are removed from the totals.
+     */
+    public synchronized void add(FogbugzTimeinterval interval) {
+        int row;
+        if (this.rowById.containsKey(interval.getId())) {
+            row = (int) this.rowById.get(interval.getId());
+            this.apply(row, -1);
+        } else {
+            row = this.newRow(interval.getId());
+        }
+        this.caseIds[row] = interval.getCaseId();
+        this.personIds[row] = interval.getPersonId();
+        this.starts[row] = interval.getFrom() == null ? 0 : interval.getFrom().toEpochSecond();
+        this.ends[row] = interval.isDeleted() || interval.getTill() == null ? -1 : interval.getTill().toEpochSecond();
+        this.apply(row, 1);
+    }
+
+    public synchronized void addAll(Iterable<FogbugzTimeinterval> intervals) {
+        for (FogbugzTimeinterval interval : intervals) {
+            this.add(interval);
+        }
+    }
+
+    /**
+     * Records the projects of the cases, needed for the rollup per project.
+     */
+    public synchronized void addCases(Collection<FogbugzCase> cases) {
+        for (FogbugzCase fbCase : cases) {
+            this.projectByCase.put(fbCase.getId(), fbCase.getProjectId());
+        }
+    }
+
+    /**
+     * @return number of intervals added.
+     */
+    public synchronized int size() {
+        return this.rows;
+    }
+
+    private int newRow(int intervalId) {
+        if (this.rows == this.intervalIds.length) {
+            int capacity = this.rows + (this.rows >> 1);
+            this.intervalIds = Arrays.copyOf(this.intervalIds, capacity);
+            this.caseIds = Arrays.copyOf(this.caseIds, capacity);
+            this.personIds = Arrays.copyOf(this.personIds, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+        }
+        int row = this.rows++;
+        this.intervalIds[row] = intervalId;
+        this.rowById.put(intervalId, row);
+        return row;
+    }
+
+    /**
+     * Adds (sign 1) or subtracts (sign -1) the seconds of a row to all rollups.
+     */
+    private void apply(int row, int sign) {
+        long start = this.starts[row];
+        long end = this.ends[row];
+        if (end <= start) {
+            return;
+        }
+        this.secondsByCase.add(this.caseIds[row], sign * (end - start));
+        this.secondsByPerson.add(this.personIds[row], sign * (end - start));
+
+        // Split the interval at midnights of the time zone.
+        LocalDate day = Instant.ofEpochSecond(start).atZone(this.zone).toLocalDate();
+        long dayStart = start;
+        while (dayStart < end) {
+            long nextDay = day.plusDays(1).atStartOfDay(this.zone).toEpochSecond();
+            long dayEnd = Math.min(end, nextDay);
+            this.secondsByDay.add((int) day.toEpochDay(), sign * (dayEnd - dayStart));
+            dayStart = dayEnd;
+            day = day.plusDays(1);
+        }
+    }
+
+    public synchronized BigDecimal getHoursForCase(int caseId) {
+        return toHours(this.secondsByCase.get(caseId));
+    }
+
+    public synchronized BigDecimal getHoursForPerson(int personId) {
+        return toHours(this.secondsByPerson.get(personId));
+    }
+
+    public synchronized BigDecimal getHoursForDay(LocalDate day) {
+        return toHours(this.secondsByDay.get((int) day.toEpochDay()));
+    }
+
+    /**
+     * @return hours spent on the cases of the project, for cases registered with addCases.
+     */
+    public synchronized BigDecimal getHoursForProject(int projectId) {
+        long seconds = 0;
+        for (int caseId : this.secondsByCase.keys()) {
+            if (this.projectByCase.containsKey(caseId) && this.projectByCase.get(caseId) == projectId) {
+                seconds += this.secondsByCase.get(caseId);
+            }
+        }
+        return toHours(seconds);
+    }
+
+    public synchronized Map<Integer, BigDecimal> getHoursPerCase() {
+        return toHoursMap(this.secondsByCase);
+    }
+
+    public synchronized Map<Integer, BigDecimal> getHoursPerPerson() {
+        return toHoursMap(this.secondsByPerson);
+    }
+
+    /**
+     * @return hours per day, ordered by day.
+     */
+    public synchronized Map<LocalDate, BigDecimal> getHoursPerDay() {
+        Map<LocalDate, BigDecimal> hours = new TreeMap<LocalDate, BigDecimal>();
+        for (int day : this.secondsByDay.keys()) {
+            long seconds = this.secondsByDay.get(day);
+            if (seconds != 0) {
+                hours.put(LocalDate.ofEpochDay(day), toHours(seconds));
+            }
+        }
+        return hours;
+    }
+
+    /**
+     * @return hours per project id, for cases registered with addCases. Cases without project count for project 0.
+     */
+    public synchronized Map<Integer, BigDecimal> getHoursPerProject() {
+        IntLongMap secondsByProject = new IntLongMap();
+        for (int caseId : this.secondsByCase.keys()) {
+            secondsByProject.add((int) this.projectByCase.get(caseId), this.secondsByCase.get(caseId));
+        }
+        return toHoursMap(secondsByProject);
+    }
+
+    /**
+     * Compares the tracked hours with the hrsElapsed Fogbugz reports for the cases.
+     * @param cases cases to check.
+     * @param tolerance largest difference in hours that is not reported.
+     * @return the cases whose tracked hours differ more than tolerance from hrsElapsed.
+     */
+    public synchronized List<Discrepancy> reconcile(Collection<FogbugzCase> cases, BigDecimal tolerance) {
+        List<Discrepancy> discrepancies = new ArrayList<Discrepancy>();
+        for (FogbugzCase fbCase : cases) {
+            BigDecimal recorded = fbCase.getHrsElapsed() == null ? BigDecimal.ZERO : fbCase.getHrsElapsed();
+            BigDecimal tracked = toHours(this.secondsByCase.get(fbCase.getId()));
+            if (recorded.subtract(tracked).abs().compareTo(tolerance) > 0) {
+                discrepancies.add(new Discrepancy(fbCase.getId(), recorded, tracked));
+            }
+        }
+        return discrepancies;
+    }
+
+    private static BigDecimal toHours(long seconds) {
+        return BigDecimal.valueOf(seconds).divide(SECONDS_PER_HOUR, 2, RoundingMode.HALF_EVEN);
+    }
+
+    private static Map<Integer, BigDecimal> toHoursMap(IntLongMap seconds) {
+        Map<Integer, BigDecimal> hours = new HashMap<Integer, BigDecimal>();
+        for (int key : seconds.keys()) {
+            if (seconds.get(key) != 0) {
+                hours.put(key, toHours(seconds.get(key)));
+            }
+        }
+        return hours;
+    }
+
+    /**
+     * A case whose tracked time does not match its hrsElapsed.
+     */
+    public static class Discrepancy {
+        @Getter private final int caseId;
+        /** Hours elapsed according to the case. */
+        @Getter private final BigDecimal recordedHours;
+        /** Hours in the time intervals of the case. */
+        @Getter private final BigDecimal trackedHours;
+
+        public Discrepancy(int caseId, BigDecimal recordedHours, BigDecimal trackedHours) {
+            this.caseId = caseId;
+            this.recordedHours = recordedHours;
+            this.trackedHours = trackedHours;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ case: %d, recorded: %s, tracked: %s }", this.caseId, this.recordedHours, this.trackedHours);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Exports the time intervals of many people over a long date range. The range is split into windows of
+ * windowDays days, and each window into one listIntervals request per person. Requests run in parallel,
+ * at most concurrency at a time, and the intervals come out ordered by window, then by person.
+ * <p>
+ * Windows are counted from the start date, so an export that stopped can be resumed by starting a new
+ * export at the day after the last window reported to the listener. An interval crossing the boundary of
+ * that window is returned by both exports, as the new export does not know it was handed out before.
+ */
+public class FogbugzTimeintervalExport implements Closeable {
+
+    /**
+     * Notified each time all intervals of a window were handed out.
+     */
+    public interface ProgressListener {
+        void windowCompleted(LocalDate windowStart, LocalDate windowEnd, int completedWindows, int totalWindows);
+    }
+
+    private final FogbugzManager manager;
+    @Getter private final LocalDate from;
+    @Getter private final LocalDate till;
+    private final List<Integer> personIds;
+
+    /** Length of the windows in days, 1 for daily and 7 for weekly windows. */
+    @Getter @Setter private int windowDays = 7;
+    /** Number of requests that run at the same time. */
+    @Getter @Setter private int concurrency = 4;
+    @Setter private ProgressListener listener;
+    /** Executor for the requests. When not set, a daemon pool is created and shut down on close. */
+    @Setter private ExecutorService executor;
+    private ExecutorService ownExecutor;
+
+    /**
+     * @param manager manager used for the requests.
+     * @param from first day to export.
+     * @param till last day to export, inclusive.
+     * @param personIds people to export the intervals of.
+     */
+    public FogbugzTimeintervalExport(FogbugzManager manager, LocalDate from, LocalDate till, Collection<Integer> personIds) {
+        this.manager = manager;
+        this.from = from;
+        this.till = till;
+        this.personIds = new ArrayList<Integer>(personIds);
+    }
+
+    /**
+     * @return number of windows the range is split into.
+     */
+    public int getWindowCount() {
+        long days = this.till.toEpochDay() - this.from.toEpochDay() + 1;
+        int size = Math.max(1, this.windowDays);
+        return days <= 0 ? 0 : (int) ((days + size - 1) / size);
+    }
+
+    /**
+     * Starts the export. Close the stream to stop it early and cancel the requests in flight.
+     * A failing request ends the stream with an UncheckedIOException.
+     * @return ordered stream of intervals.
+     */
+    public Stream<FogbugzTimeinterval> stream() {
+        ExportIterator iterator = new ExportIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::cancel);
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (this.executor != null) {
+            return this.executor;
+        }
+        if (this.ownExecutor == null) {
+            this.ownExecutor = FogbugzExecutors.newDaemonPool(Math.max(1, this.concurrency), "fogbugz-export");
+        }
+        return this.ownExecutor;
+    }
+
+    public synchronized void close() {
+        if (this.ownExecutor != null) {
+            this.ownExecutor.shutdownNow();
+            this.ownExecutor = null;
+        }
+    }
+
+    /**
+     * One request: the intervals of one person in one window.
+     */
+    private static class Partition {
+        private final int window;
+        private final LocalDate start;
+        private final LocalDate end;
+        private final int personId;
+        private final boolean lastOfWindow;
+        private Future<List<FogbugzTimeinterval>> result;
+
+        private Partition(int window, LocalDate start, LocalDate end, int personId, boolean lastOfWindow) {
+            this.window = window;
+            this.start = start;
+            this.end = end;
+            this.personId = personId;
+            this.lastOfWindow = lastOfWindow;
+        }
+    }
+
+    /**
+     * Submits partitions in order, keeping concurrency of them in flight, and hands out their results in the same order.
+     */
+    private class ExportIterator implements Iterator<FogbugzTimeinterval> {
+        private final int windowCount = FogbugzTimeintervalExport.this.getWindowCount();
+        private final ArrayDeque<Partition> inFlight = new ArrayDeque<Partition>();
+        // Intervals crossing a window boundary are returned for both windows, only the first one is kept.
+        // Only the previous window can have returned them, so only the ids of two windows are kept.
+        private Set<Integer> previousWindowIds = new HashSet<Integer>();
+        private Set<Integer> windowIds = new HashSet<Integer>();
+        private int idsWindow;
+        private int nextWindow;
+        private int nextPerson;
+        private Partition currentPartition;
+        private Iterator<FogbugzTimeinterval> current = Collections.<FogbugzTimeinterval>emptyIterator();
+        private FogbugzTimeinterval next;
+
+        public boolean hasNext() {
+            while (this.next == null) {
+                if (this.current.hasNext()) {
+                    FogbugzTimeinterval interval = this.current.next();
+                    // Also added when it was seen in the previous window, as it may cross the next boundary too.
+                    if (this.windowIds.add(interval.getId()) && !this.previousWindowIds.contains(interval.getId())) {
+                        this.next = interval;
+                    }
+                    continue;
+                }
+                if (this.currentPartition != null && this.currentPartition.lastOfWindow
+                        && FogbugzTimeintervalExport.this.listener != null) {
+                    // All intervals of the window were handed out, so an export resumed after it misses nothing.
+                    FogbugzTimeintervalExport.this.listener.windowCompleted(this.currentPartition.start,
+                            this.currentPartition.end, this.currentPartition.window + 1, this.windowCount);
+                }
+                this.fill();
+                this.currentPartition = this.inFlight.poll();
+                if (this.currentPartition == null) {
+                    return false;
+                }
+                if (this.currentPartition.window != this.idsWindow) {
+                    this.previousWindowIds = this.windowIds;
+                    this.windowIds = new HashSet<Integer>();
+                    this.idsWindow = this.currentPartition.window;
+                }
+                this.current = this.await(this.currentPartition).iterator();
+            }
+            return true;
+        }
+
+        public FogbugzTimeinterval next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            FogbugzTimeinterval interval = this.next;
+            this.next = null;
+            return interval;
+        }
+
+        private void fill() {
+            FogbugzTimeintervalExport export = FogbugzTimeintervalExport.this;
+            List<Integer> persons = export.personIds;
+            int size = Math.max(1, export.windowDays);
+            int limit = Math.max(1, export.concurrency);
+            while (this.inFlight.size() < limit && this.nextWindow < this.windowCount && !persons.isEmpty()) {
+                LocalDate start = export.from.plusDays((long) this.nextWindow * size);
+                LocalDate end = start.plusDays(size - 1);
+                if (end.isAfter(export.till)) {
+                    end = export.till;
+                }
+                final Partition partition = new Partition(this.nextWindow, start, end, persons.get(this.nextPerson),
+                        this.nextPerson == persons.size() - 1);
+                partition.result = export.getExecutor().submit(() ->
+                        export.manager.getTimeintervals(partition.personId, partition.start, partition.end));
+                this.inFlight.add(partition);
+                if (++this.nextPerson == persons.size()) {
+                    this.nextPerson = 0;
+                    this.nextWindow++;
+                }
+            }
+        }
+
+        private List<FogbugzTimeinterval> await(Partition partition) {
+            try {
+                List<FogbugzTimeinterval> intervals = partition.result.get();
+                return intervals == null ? Collections.<FogbugzTimeinterval>emptyList() : intervals;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancel();
+                throw new UncheckedIOException(new IOException("Interrupted while exporting time intervals"));
+            } catch (ExecutionException e) {
+                this.cancel();
+                throw new UncheckedIOException(new IOException("Could not export time intervals of person "
+                        + partition.personId + " from " + partition.start + " till " + partition.end, e.getCause()));
+            }
+        }
+
+        private void cancel() {
+            for (Partition partition : this.inFlight) {
+                partition.result.cancel(true);
+            }
+            this.inFlight.clear();
+            this.nextWindow = this.windowCount;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.paylogic.fogbugz;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Transport used by DefaultFogbugzManager to talk to the Fogbugz API.
+ * Implementations are expected to be thread safe and to reuse connections between calls.
+ */
+public interface FogbugzTransport extends Closeable {
+
+    /**
+     * Performs a GET request on the given API url and returns the response body.
+     * The caller must close the returned stream, which releases the underlying connection.
+     * @param url full API url, including token and parameters.
+     * @return stream with the response body.
+     * @throws IOException when the server could not be reached, FogbugzHttpException when it did not answer with a 2xx status.
+     */
+    public InputStream get(String url) throws IOException;
+}
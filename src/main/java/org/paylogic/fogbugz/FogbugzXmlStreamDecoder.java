@@ -0,0 +1,402 @@
+package org.paylogic.fogbugz;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Decodes Fogbugz API responses with a StAX pull parser, building model objects in one pass
+ * without materializing a DOM tree. Produces the same objects as the DOM code in DefaultFogbugzManager.
+ */
+class FogbugzXmlStreamDecoder {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final String featureBranchFieldname;
+    private final String originalBranchFieldname;
+    private final String targetBranchFieldname;
+    private final String approvedRevisionFieldname;
+    private final String ciProjectFieldName;
+    private final StringInterner interner;
+
+    /**
+     * @param interner canonicalizes low-cardinality values such as project, status, tags and event verbs, may be null.
+     */
+    FogbugzXmlStreamDecoder(String featureBranchFieldname, String originalBranchFieldname,
+                            String targetBranchFieldname, String approvedRevisionFieldname,
+                            String ciProjectFieldName, StringInterner interner) {
+        this.featureBranchFieldname = featureBranchFieldname;
+        this.originalBranchFieldname = originalBranchFieldname;
+        this.targetBranchFieldname = targetBranchFieldname;
+        this.approvedRevisionFieldname = approvedRevisionFieldname;
+        this.ciProjectFieldName = ciProjectFieldName;
+        this.interner = interner;
+    }
+
+    private String intern(String value) {
+        return this.interner == null ? value : this.interner.intern(value);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Creates a pull parser on the given response stream.
+     */
+    XMLStreamReader open(InputStream stream) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(stream);
+    }
+
+    /**
+     * Advances the reader to the next start tag with one of the given names.
+     * Throws InvalidResponseException when Fogbugz returned an error element instead.
+     * @return the name of the element found, or null at end of document.
+     */
+    String nextElement(XMLStreamReader reader, String... names) throws XMLStreamException, InvalidResponseException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("error".equals(name)) {
+                    String code = reader.getAttributeValue(null, "code");
+                    throw new InvalidResponseException("Fogbugz returned error " + code + ": " + reader.getElementText().trim());
+                }
+                for (String wanted : names) {
+                    if (wanted.equals(name)) {
+                        return name;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads all cases from a search response.
+     * @return list of cases, empty when the response contained none.
+     */
+    List<FogbugzCase> readCases(InputStream stream) throws XMLStreamException, InvalidResponseException {
+        XMLStreamReader reader = this.open(stream);
+        try {
+            List<FogbugzCase> caseList = new ArrayList<FogbugzCase>();
+            while (this.nextElement(reader, "case") != null) {
+                caseList.add(this.readCase(reader));
+            }
+            return caseList;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Starts lazily reading cases from a search response. Fogbugz errors are reported before returning.
+     * @return iterator that decodes one case at a time, and closes the stream when closed.
+     */
+    CaseIterator iterateCases(InputStream stream) throws XMLStreamException, InvalidResponseException {
+        return new CaseIterator(stream);
+    }
+
+    /**
+     * Reads all events from a search response with cols=events.
+     */
+    List<FogbugzEvent> readEvents(InputStream stream, int caseId) throws XMLStreamException, InvalidResponseException {
+        XMLStreamReader reader = this.open(stream);
+        try {
+            List<FogbugzEvent> eventList = new ArrayList<FogbugzEvent>();
+            while (this.nextElement(reader, "event") != null) {
+                eventList.add(this.readEvent(reader, caseId));
+            }
+            return eventList;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads all time intervals from a listIntervals response.
+     */
+    List<FogbugzTimeinterval> readTimeintervals(InputStream stream) throws XMLStreamException, InvalidResponseException {
+        XMLStreamReader reader = this.open(stream);
+        try {
+            List<FogbugzTimeinterval> intervalList = new ArrayList<FogbugzTimeinterval>();
+            while (this.nextElement(reader, "interval") != null) {
+                intervalList.add(this.readTimeinterval(reader));
+            }
+            return intervalList;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * What Fogbugz reported about a saved case.
+     */
+    static class SaveResponse {
+        /** Id of the saved case, 0 when the response did not name one. */
+        final int id;
+        /** dtLastUpdated of the saved case, null when the response did not contain it. */
+        final ZonedDateTime lastUpdated;
+
+        SaveResponse(int id, ZonedDateTime lastUpdated) {
+            this.id = id;
+            this.lastUpdated = lastUpdated;
+        }
+    }
+
+    /**
+     * Reads the response to a new or edit command, which has the columns asked for with cols.
+     */
+    SaveResponse readSaveResponse(InputStream stream) throws XMLStreamException, InvalidResponseException {
+        XMLStreamReader reader = this.open(stream);
+        try {
+            if (this.nextElement(reader, "case") == null) {
+                return new SaveResponse(0, null);
+            }
+            int id = toInt(reader.getAttributeValue(null, "ixBug"));
+            ZonedDateTime lastUpdated = null;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (reader.getLocalName().equals("dtLastUpdated")) {
+                    lastUpdated = toZonedDateTime(reader.getElementText());
+                } else {
+                    skipElement(reader);
+                }
+            }
+            return new SaveResponse(id, lastUpdated);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads one case. The reader must be positioned on the case start tag and is left on its end tag.
+     */
+    FogbugzCase readCase(XMLStreamReader reader) throws XMLStreamException {
+        int id = 0;
+        int parentId = 0;
+        int projectId = 0;
+        int openedBy = 0;
+        int assignedTo = 0;
+        boolean isOpen = false;
+        String title = null;
+        String milestone = null;
+        String projectName = null;
+        String statusName = null;
+        String hrsOrigEst = null;
+        String hrsCurrEst = null;
+        String hrsElapsed = null;
+        ZonedDateTime lastUpdated = null;
+        String featureBranch = "";
+        String originalBranch = "";
+        String targetBranch = "";
+        String approvedRevision = "";
+        String ciProject = "";
+        List<String> tags = new ArrayList<String>();
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            switch (name) {
+                case "tags":
+                    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        tags.add(this.intern(reader.getElementText()));
+                    }
+                    break;
+                case "ixBug": id = toInt(reader.getElementText()); break;
+                case "ixBugParent": parentId = toInt(reader.getElementText()); break;
+                case "ixProject": projectId = toInt(reader.getElementText()); break;
+                case "ixPersonOpenedBy": openedBy = toInt(reader.getElementText()); break;
+                case "ixPersonAssignedTo": assignedTo = toInt(reader.getElementText()); break;
+                case "fOpen": isOpen = Boolean.valueOf(reader.getElementText()); break;
+                case "sTitle": title = reader.getElementText(); break;
+                case "sFixFor": milestone = this.intern(reader.getElementText()); break;
+                case "sProject": projectName = this.intern(toValue(reader.getElementText())); break;
+                case "sStatus": statusName = this.intern(toValue(reader.getElementText())); break;
+                case "hrsOrigEst": hrsOrigEst = toValue(reader.getElementText()); break;
+                case "hrsCurrEst": hrsCurrEst = toValue(reader.getElementText()); break;
+                case "hrsElapsed": hrsElapsed = toValue(reader.getElementText()); break;
+                case "dtLastUpdated": lastUpdated = toZonedDateTime(reader.getElementText()); break;
+                default:
+                    // Custom field names are configured at runtime, so they can not be switch labels.
+                    if (name.equals(this.featureBranchFieldname)) {
+                        featureBranch = reader.getElementText();
+                    } else if (name.equals(this.originalBranchFieldname)) {
+                        originalBranch = this.intern(reader.getElementText());
+                    } else if (name.equals(this.targetBranchFieldname)) {
+                        targetBranch = this.intern(reader.getElementText());
+                    } else if (name.equals(this.approvedRevisionFieldname)) {
+                        approvedRevision = reader.getElementText();
+                    } else if (name.equals(this.ciProjectFieldName)) {
+                        ciProject = this.intern(reader.getElementText());
+                    } else {
+                        skipElement(reader);
+                    }
+            }
+        }
+
+        FogbugzCase c = new FogbugzCase(id, title, openedBy, assignedTo, tags, isOpen, featureBranch,
+                originalBranch, targetBranch, approvedRevision, ciProject, milestone);
+        c.setParentId(parentId);
+        c.setProjectId(projectId);
+        c.setProjectName(projectName);
+        c.setStatusName(statusName);
+        c.setHrsOrigEstimate(toDecimal(hrsOrigEst));
+        c.setHrsCurrEstimate(toDecimal(hrsCurrEst));
+        c.setHrsElapsed(toDecimal(hrsElapsed));
+        c.setLastUpdated(lastUpdated);
+        c.markClean();
+        return c;
+    }
+
+    /**
+     * Reads one event. The reader must be positioned on the event start tag and is left on its end tag.
+     */
+    FogbugzEvent readEvent(XMLStreamReader reader, int caseId) throws XMLStreamException {
+        int id = 0;
+        int person = 0;
+        int personAssignedTo = 0;
+        String verb = null;
+        String dt = null;
+        String description = null;
+        String sPerson = null;
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "ixBugEvent": id = toInt(reader.getElementText()); break;
+                case "sVerb": verb = this.intern(reader.getElementText()); break;
+                case "ixPerson": person = toInt(reader.getElementText()); break;
+                case "ixPersonAssignedTo": personAssignedTo = toInt(reader.getElementText()); break;
+                case "dt": dt = toValue(reader.getElementText()); break;
+                case "evtDescription": description = reader.getElementText(); break;
+                case "sPerson": sPerson = this.intern(reader.getElementText()); break;
+                default: skipElement(reader);
+            }
+        }
+
+        return new FogbugzEvent(id, caseId, verb, person, personAssignedTo,
+                dt == null ? null : DatatypeConverter.parseDateTime(dt).getTime(), description, sPerson);
+    }
+
+    /**
+     * Reads one time interval. The reader must be positioned on the interval start tag and is left on its end tag.
+     */
+    FogbugzTimeinterval readTimeinterval(XMLStreamReader reader) throws XMLStreamException {
+        int id = 0;
+        int caseId = 0;
+        int personId = 0;
+        boolean isDeleted = false;
+        ZonedDateTime from = null;
+        ZonedDateTime till = null;
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "ixInterval": id = toInt(reader.getElementText()); break;
+                case "ixBug": caseId = toInt(reader.getElementText()); break;
+                case "ixPerson": personId = toInt(reader.getElementText()); break;
+                case "fDeleted": isDeleted = Boolean.parseBoolean(toValue(reader.getElementText())); break;
+                case "dtStart": from = toZonedDateTime(reader.getElementText()); break;
+                case "dtEnd": till = toZonedDateTime(reader.getElementText()); break;
+                default: skipElement(reader);
+            }
+        }
+        return new FogbugzTimeinterval(id, caseId, personId, isDeleted, from, till);
+    }
+
+    /**
+     * Skips the element the reader is positioned on, including all children.
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String toValue(String text) {
+        if (text == null) {
+            return null;
+        }
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private static int toInt(String text) {
+        String value = toValue(text);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    private static BigDecimal toDecimal(String value) {
+        return BigDecimal.valueOf(value == null ? 0.0 : Double.parseDouble(value)).setScale(2, RoundingMode.HALF_EVEN);
+    }
+
+    private static ZonedDateTime toZonedDateTime(String text) {
+        String value = toValue(text);
+        return value == null ? null : ZonedDateTime.parse(value);
+    }
+
+    /**
+     * Iterator that decodes the next case only when asked for it, so only one case is held at a time.
+     * Decoding errors halfway the response are thrown as UncheckedIOException.
+     */
+    class CaseIterator implements Iterator<FogbugzCase>, Closeable {
+        private final InputStream stream;
+        private final XMLStreamReader reader;
+        private FogbugzCase next;
+
+        private CaseIterator(InputStream stream) throws XMLStreamException, InvalidResponseException {
+            this.stream = stream;
+            this.reader = FogbugzXmlStreamDecoder.this.open(stream);
+            if (FogbugzXmlStreamDecoder.this.nextElement(this.reader, "case") != null) {
+                this.next = FogbugzXmlStreamDecoder.this.readCase(this.reader);
+            }
+        }
+
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        public FogbugzCase next() {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            FogbugzCase current = this.next;
+            try {
+                this.next = FogbugzXmlStreamDecoder.this.nextElement(this.reader, "case") != null ?
+                        FogbugzXmlStreamDecoder.this.readCase(this.reader) : null;
+            } catch (XMLStreamException | InvalidResponseException e) {
+                throw new UncheckedIOException(new IOException("Could not decode Fogbugz response", e));
+            }
+            return current;
+        }
+
+        public void close() throws IOException {
+            try {
+                this.reader.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                this.stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FogbugzTransport backed by Apache HttpClient, with a bounded pool of persistent connections.
+ */
+public class HttpClientFogbugzTransport implements FogbugzTransport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    private static final int MAX_DRAIN_READS = 8;
+    // Socket timeout while draining, so closing a stream never waits long on a stalled server.
+    private static final int DRAIN_TIMEOUT = 100;
+
+    @Getter private final int maxConnections;
+    @Getter private final int connectTimeout;
+    @Getter private final int readTimeout;
+
+    private CloseableHttpClient client;
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * Creates a transport with default pool size and timeouts.
+     */
+    public HttpClientFogbugzTransport() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Creates a transport.
+     * @param maxConnections maximum number of pooled connections to the Fogbugz server.
+     * @param connectTimeout connect timeout in milliseconds, also used as timeout for leasing a pooled connection.
+     * @param readTimeout socket read timeout in milliseconds.
+     */
+    public HttpClientFogbugzTransport(int maxConnections, int connectTimeout, int readTimeout) {
+        this.maxConnections = maxConnections;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Lazily builds the pooled client, so creating a manager does not initialize SSL or start threads.
+     */
+    private synchronized CloseableHttpClient getClient() {
+        if (this.client == null) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(this.maxConnections);
+            // All requests go to the same Fogbugz host, so one route may use the whole pool.
+            connectionManager.setDefaultMaxPerRoute(this.maxConnections);
+
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(this.connectTimeout)
+                    .setConnectionRequestTimeout(this.connectTimeout)
+                    .setSocketTimeout(this.readTimeout)
+                    .build();
+
+            this.connectionManager = connectionManager;
+            this.client = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .evictIdleConnections(30, TimeUnit.SECONDS)
+                    .build();
+        }
+        return this.client;
+    }
+
+    /**
+     * @return leased, idle and pending connections of the pool, all 0 before the first request.
+     */
+    synchronized PoolStats getPoolStats() {
+        return this.connectionManager == null ? new PoolStats(0, 0, 0, this.maxConnections)
+                : this.connectionManager.getTotalStats();
+    }
+
+    public InputStream get(String url) throws IOException {
+        final HttpClientContext context = HttpClientContext.create();
+        final CloseableHttpResponse response = this.getClient().execute(new HttpGet(url), context);
+        HttpEntity entity = response.getEntity();
+        int status = response.getStatusLine().getStatusCode();
+        if (status < 200 || status >= 300 || entity == null) {
+            try {
+                EntityUtils.consume(entity);
+            } finally {
+                response.close();
+            }
+            throw new FogbugzHttpException(status, "Fogbugz responded with HTTP status " + status + " " +
+                    response.getStatusLine().getReasonPhrase());
+        }
+
+        return new FilterInputStream(entity.getContent()) {
+            private boolean eof;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                this.eof |= b == -1;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                this.eof |= n == -1;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    // Readers often stop right before the end of the body, so drain a little to keep the connection.
+                    if (!this.eof) {
+                        this.shortenTimeout();
+                        byte[] drain = new byte[1024];
+                        for (int i = 0; i < MAX_DRAIN_READS && !this.eof; i++) {
+                            this.read(drain, 0, drain.length);
+                        }
+                    }
+                    if (this.eof) {
+                        super.close();
+                    }
+                } catch (IOException e) {
+                    // Reset or timed out while draining: the connection is dropped below.
+                } finally {
+                    // Drops the connection when the body was not read to the end, instead of downloading the rest.
+                    response.close();
+                }
+            }
+
+            private void shortenTimeout() {
+                ManagedHttpClientConnection connection = context.getConnection(ManagedHttpClientConnection.class);
+                try {
+                    if (connection != null && connection.isOpen()) {
+                        // The next request sets the configured read timeout again.
+                        connection.setSocketTimeout(DRAIN_TIMEOUT);
+                    }
+                } catch (RuntimeException e) {
+                    // Already released, nothing to wait for.
+                }
+            }
+        };
+    }
+
+    public synchronized void close() throws IOException {
+        if (this.client != null) {
+            this.client.close();
+            this.client = null;
+            this.connectionManager = null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.paylogic.fogbugz;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FogbugzMetrics that keeps counters and histograms per command in memory, read through snapshot().
+ * Memory use is fixed per command, so it can stay enabled in long-running processes.
+ */
+public class InMemoryFogbugzMetrics implements FogbugzMetrics {
+
+    private final ConcurrentHashMap<String, CommandMetrics> commands = new ConcurrentHashMap<String, CommandMetrics>();
+
+    private CommandMetrics forCommand(String command) {
+        String key = command == null ? "" : command;
+        CommandMetrics metrics = this.commands.get(key);
+        return metrics != null ? metrics : this.commands.computeIfAbsent(key, k -> new CommandMetrics());
+    }
+
+    @Override
+    public void requestCompleted(String command, long waitNanos, long firstByteNanos, long downloadNanos,
+                                 long decodeNanos, long bytes) {
+        CommandMetrics metrics = this.forCommand(command);
+        metrics.wait.record(waitNanos);
+        metrics.firstByte.record(firstByteNanos);
+        metrics.download.record(downloadNanos);
+        metrics.decode.record(decodeNanos);
+        metrics.total.record(waitNanos + firstByteNanos + downloadNanos + decodeNanos);
+        metrics.bytes.record(bytes);
+    }
+
+    @Override
+    public void requestFailed(String command, Exception e) {
+        this.forCommand(command).errors.increment();
+    }
+
+    @Override
+    public void requestRetried(String command, int attempt) {
+        this.forCommand(command).retries.increment();
+    }
+
+    @Override
+    public void entitiesDecoded(String command, int count) {
+        this.forCommand(command).entities.add(count);
+    }
+
+    /**
+     * @return statistics per command, ordered by command.
+     */
+    public SortedMap<String, CommandSnapshot> snapshot() {
+        SortedMap<String, CommandSnapshot> snapshot = new TreeMap<String, CommandSnapshot>();
+        for (Map.Entry<String, CommandMetrics> entry : this.commands.entrySet()) {
+            CommandMetrics metrics = entry.getValue();
+            snapshot.put(entry.getKey(), new CommandSnapshot(entry.getKey(), metrics.errors.sum(), metrics.retries.sum(),
+                    metrics.entities.sum(), metrics.wait.snapshot(), metrics.firstByte.snapshot(),
+                    metrics.download.snapshot(), metrics.decode.snapshot(), metrics.total.snapshot(),
+                    metrics.bytes.snapshot()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public void reset() {
+        for (CommandMetrics metrics : this.commands.values()) {
+            metrics.reset();
+        }
+    }
+
+    private static class CommandMetrics {
+        final LongAdder errors = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder entities = new LongAdder();
+        final LongHistogram wait = new LongHistogram();
+        final LongHistogram firstByte = new LongHistogram();
+        final LongHistogram download = new LongHistogram();
+        final LongHistogram decode = new LongHistogram();
+        final LongHistogram total = new LongHistogram();
+        final LongHistogram bytes = new LongHistogram();
+
+        void reset() {
+            this.errors.reset();
+            this.retries.reset();
+            this.entities.reset();
+            this.wait.reset();
+            this.firstByte.reset();
+            this.download.reset();
+            this.decode.reset();
+            this.total.reset();
+            this.bytes.reset();
+        }
+    }
+
+    /**
+     * Statistics of one command. Durations are in nanoseconds.
+     */
+    public static class CommandSnapshot {
+        @Getter private final String command;
+        /** Requests that failed and were not retried. */
+        @Getter private final long errors;
+        @Getter private final long retries;
+        /** Objects decoded from the responses. */
+        @Getter private final long entities;
+        /** Time waiting for the throttle. */
+        @Getter private final Distribution wait;
+        /** Time until the server answered, including connecting. */
+        @Getter private final Distribution firstByte;
+        /** Time reading response bodies. */
+        @Getter private final Distribution download;
+        /** Time decoding responses. */
+        @Getter private final Distribution decode;
+        /** Sum of the four phases per request. */
+        @Getter private final Distribution total;
+        /** Sizes of the response bodies. */
+        @Getter private final Distribution bytes;
+
+        public CommandSnapshot(String command, long errors, long retries, long entities, Distribution wait,
+                               Distribution firstByte, Distribution download, Distribution decode,
+                               Distribution total, Distribution bytes) {
+            this.command = command;
+            this.errors = errors;
+            this.retries = retries;
+            this.entities = entities;
+            this.wait = wait;
+            this.firstByte = firstByte;
+            this.download = download;
+            this.decode = decode;
+            this.total = total;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return number of completed requests.
+         */
+        public long getRequests() {
+            return this.total.getCount();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ cmd: %s, requests: %d, errors: %d, retries: %d, entities: %d, bytes: %d, " +
+                            "p50 ms: { wait: %.1f, firstByte: %.1f, download: %.1f, decode: %.1f, total: %.1f }, p99 total ms: %.1f }",
+                    this.command, this.getRequests(), this.errors, this.retries, this.entities, this.bytes.getSum(),
+                    millis(this.wait.getP50()), millis(this.firstByte.getP50()), millis(this.download.getP50()),
+                    millis(this.decode.getP50()), millis(this.total.getP50()), millis(this.total.getP99()));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    /**
+     * Summary of recorded values. Percentiles are accurate to within 12.5%.
+     */
+    public static class Distribution {
+        @Getter private final long count;
+        @Getter private final long sum;
+        @Getter private final long p50;
+        @Getter private final long p90;
+        @Getter private final long p99;
+        @Getter private final long max;
+
+        public Distribution(long count, long sum, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.sum = sum;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0 : this.sum / (double) this.count;
+        }
+    }
+}
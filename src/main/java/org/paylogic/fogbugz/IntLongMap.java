@@ -0,0 +1,134 @@
+package org.paylogic.fogbugz;
+
+import java.util.Arrays;
+
+/**
+ * Map from int to long with open addressing over two primitive arrays, for counters that would
+ * otherwise need a boxed Integer and Long per entry. Integer.MIN_VALUE can not be used as key.
+ */
+class IntLongMap {
+
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    IntLongMap() {
+        this(16);
+    }
+
+    IntLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new int[capacity];
+        this.values = new long[capacity];
+        Arrays.fill(this.keys, FREE);
+    }
+
+    private int home(int key) {
+        return (key * 0x9E3779B9) >>> 7 & (this.keys.length - 1);
+    }
+
+    private int slot(int key) {
+        int mask = this.keys.length - 1;
+        int slot = this.home(key);
+        while (this.keys[slot] != FREE && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    long get(int key) {
+        int slot = this.slot(key);
+        return this.keys[slot] == key ? this.values[slot] : 0;
+    }
+
+    boolean containsKey(int key) {
+        return this.keys[this.slot(key)] == key;
+    }
+
+    /**
+     * Adds delta to the value of the key, starting from 0 for new keys.
+     */
+    void add(int key, long delta) {
+        int slot = this.slot(key);
+        if (this.keys[slot] != key) {
+            this.keys[slot] = key;
+            if (++this.size * 2 > this.keys.length) {
+                this.values[slot] = delta;
+                this.grow();
+                return;
+            }
+        }
+        this.values[slot] += delta;
+    }
+
+    void put(int key, long value) {
+        int slot = this.slot(key);
+        if (this.keys[slot] == key) {
+            this.values[slot] = value;
+        } else {
+            this.add(key, value);
+        }
+    }
+
+    /**
+     * Removes the key, shifting later keys of the same run back so lookups need no tombstones.
+     */
+    void remove(int key) {
+        int slot = this.slot(key);
+        if (this.keys[slot] != key) {
+            return;
+        }
+        int mask = this.keys.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (this.keys[next] == FREE) {
+                break;
+            }
+            // Move the entry back when its home is not between the freed slot and where it is now.
+            if (((next - this.home(this.keys[next])) & mask) >= ((next - slot) & mask)) {
+                this.keys[slot] = this.keys[next];
+                this.values[slot] = this.values[next];
+                slot = next;
+            }
+        }
+        this.keys[slot] = FREE;
+        this.values[slot] = 0;
+        this.size--;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the keys, in no particular order.
+     */
+    int[] keys() {
+        int[] result = new int[this.size];
+        int i = 0;
+        for (int key : this.keys) {
+            if (key != FREE) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = this.keys;
+        long[] oldValues = this.values;
+        this.keys = new int[oldKeys.length * 2];
+        this.values = new long[oldValues.length * 2];
+        Arrays.fill(this.keys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = this.slot(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+}
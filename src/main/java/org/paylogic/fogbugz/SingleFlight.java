@@ -0,0 +1,108 @@
+package org.paylogic.fogbugz;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lets concurrent callers asking for the same key share one call: the first caller runs it, callers that
+ * arrive while it is in flight wait for its result. Nothing is kept after the call completes.
+ */
+class SingleFlight {
+
+    interface Call<V, E extends Exception> {
+        V call() throws E;
+    }
+
+    private static class Flight {
+        private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        private int followers;
+        private boolean landed;
+    }
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    /**
+     * Runs the call, or joins the one already in flight for the key.
+     * When the result is shared, every caller gets its own copy made by the copier, so callers can not see
+     * each other's changes; when nobody joined, the caller gets the result itself.
+     * A caller interrupted while waiting for another caller's call gets a CancellationException,
+     * with its interrupt flag set.
+     */
+    @SuppressWarnings("unchecked")
+    <V, E extends Exception> V execute(String key, Call<V, E> call, UnaryOperator<V> copier) throws E {
+        while (true) {
+            Flight flight = new Flight();
+            Flight existing = this.flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                return this.lead(key, flight, call, copier);
+            }
+            synchronized (existing) {
+                if (existing.landed) {
+                    // Completed while we were looking it up, the leader may already be using the result.
+                    continue;
+                }
+                existing.followers++;
+            }
+            try {
+                return copier.apply((V) existing.result.get());
+            } catch (ExecutionException e) {
+                throw SingleFlight.<E>rethrow(e.getCause());
+            } catch (InterruptedException e) {
+                // Stop waiting, the leader still completes the call for the other callers.
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for " + key);
+            }
+        }
+    }
+
+    private <V, E extends Exception> V lead(String key, Flight flight, Call<V, E> call, UnaryOperator<V> copier) throws E {
+        V value;
+        try {
+            value = call.call();
+        } catch (Throwable t) {
+            this.land(key, flight);
+            flight.result.completeExceptionally(t);
+            throw SingleFlight.<E>rethrow(t);
+        }
+        int followers = this.land(key, flight);
+        // Copy before handing the result to the followers, the leader may change its own copy right away.
+        V own = followers == 0 ? value : copier.apply(value);
+        flight.result.complete(value);
+        return own;
+    }
+
+    /**
+     * Closes the flight for new followers and removes it.
+     * @return number of callers waiting for the result.
+     */
+    private int land(String key, Flight flight) {
+        int followers;
+        synchronized (flight) {
+            flight.landed = true;
+            followers = flight.followers;
+        }
+        this.flights.remove(key, flight);
+        return followers;
+    }
+
+    /**
+     * @return number of calls in flight.
+     */
+    int size() {
+        return this.flights.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E rethrow(Throwable t) throws E {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw (E) t;
+    }
+}
@@ -0,0 +1,47 @@
+package org.paylogic.fogbugz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns small int codes to strings, so columns of repeated values store each distinct string once.
+ * Codes are never reused, null is encoded as -1. Not thread safe.
+ */
+class StringDictionary {
+
+    static final int NULL = -1;
+
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private final List<String> values = new ArrayList<String>();
+
+    int encode(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        Integer code = this.codes.get(value);
+        if (code == null) {
+            code = this.values.size();
+            this.codes.put(value, code);
+            this.values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * @return the code of the value, or NULL when it was never encoded.
+     */
+    int lookup(String value) {
+        Integer code = value == null ? null : this.codes.get(value);
+        return code == null ? NULL : code;
+    }
+
+    String decode(int code) {
+        return code == NULL ? null : this.values.get(code);
+    }
+
+    int size() {
+        return this.values.size();
+    }
+}
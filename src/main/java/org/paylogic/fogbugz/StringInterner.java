@@ -0,0 +1,57 @@
+package org.paylogic.fogbugz;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded canonicalizing map for the repeated strings in API responses, such as project, status, milestone,
+ * tags and event verbs, so decoded objects share one instance per distinct value. Once full, new values are
+ * returned as they are; long strings are never interned. Thread safe.
+ */
+class StringInterner {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int MAX_LENGTH = 64;
+
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+    private volatile int capacity;
+
+    StringInterner(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the canonical instance equal to the value, or the value itself when not interned.
+     */
+    String intern(String value) {
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        String canonical = this.values.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (this.values.size() >= this.capacity) {
+            return value;
+        }
+        canonical = this.values.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Changes the maximum number of values, clearing the interned values when shrinking.
+     */
+    void setCapacity(int capacity) {
+        if (capacity < this.capacity) {
+            this.values.clear();
+        }
+        this.capacity = capacity;
+    }
+
+    int size() {
+        return this.values.size();
+    }
+}
@@ -0,0 +1,73 @@
+package org.paylogic.fogbugz;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter: permits are refilled at a steady rate, up to a burst size.
+ * Callers that find the bucket empty reserve a future permit and sleep until it is due.
+ */
+class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final LongSupplier clock;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond steady rate of permits.
+     * @param burst number of permits that may be taken at once after a quiet period.
+     */
+    TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, LongSupplier clock) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.clock = clock;
+        this.tokens = this.burst;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    private void refill(long now) {
+        this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.permitsPerNano);
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes a permit, going into debt when none is available.
+     * @return nanoseconds the caller has to wait before using the permit.
+     */
+    synchronized long reserve() {
+        this.refill(this.clock.getAsLong());
+        this.tokens -= 1;
+        return this.tokens >= 0 ? 0 : (long) Math.ceil(-this.tokens / this.permitsPerNano);
+    }
+
+    /**
+     * Takes a permit only when one is available right now.
+     */
+    synchronized boolean tryAcquire() {
+        this.refill(this.clock.getAsLong());
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a permit, sleeping until it is due.
+     */
+    void acquire() throws InterruptedException {
+        long wait = this.reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
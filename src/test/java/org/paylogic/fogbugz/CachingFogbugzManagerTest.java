@@ -0,0 +1,106 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the read-through case cache.
+ */
+public class CachingFogbugzManagerTest {
+    private final AtomicLong clock = new AtomicLong();
+    private FogbugzManager backend;
+    private CachingFogbugzManager cached;
+
+    @Before
+    public void setUp() {
+        backend = createMock(FogbugzManager.class);
+        cached = new CachingFogbugzManager(backend,
+                new ExpiringLruCache<Integer, FogbugzCase>(2, 10, TimeUnit.SECONDS, clock::get));
+    }
+
+    private static FogbugzCase newCase(int id) {
+        return new FogbugzCase(id, "Case " + id, 1, 2, "merged", true, "", "", "", "", "", "Undecided");
+    }
+
+    @Test
+    public void testRepeatedGetIsServedFromCache() throws Exception {
+        expect(backend.getCaseById(7)).andReturn(newCase(7)).once();
+        replay(backend);
+
+        FogbugzCase first = cached.getCaseById(7);
+        first.addTag("modified");
+        FogbugzCase second = cached.getCaseById(7);
+        verify(backend);
+
+        assertNotSame(first, second);
+        assertEquals(newCase(7), second);
+        assertEquals(1, cached.getStats().getHits());
+        assertEquals(1, cached.getStats().getMisses());
+    }
+
+    @Test
+    public void testExpiredAndEvictedCasesAreFetchedAgain() throws Exception {
+        expect(backend.getCaseById(1)).andReturn(newCase(1)).times(3);
+        expect(backend.getCaseById(2)).andReturn(newCase(2)).once();
+        expect(backend.getCaseById(3)).andReturn(newCase(3)).once();
+        replay(backend);
+
+        cached.getCaseById(1);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        cached.getCaseById(1);
+        cached.getCaseById(2);
+        cached.getCaseById(3);  // Evicts 1, the least recently used.
+        cached.getCaseById(2);
+        cached.getCaseById(1);
+        verify(backend);
+
+        assertEquals(1, cached.getStats().getExpirations());
+        assertEquals(2, cached.getStats().getEvictions());
+        assertEquals(2, cached.getStats().getSize());
+    }
+
+    @Test
+    public void testSaveInvalidates() throws Exception {
+        FogbugzCase fbCase = newCase(7);
+        expect(backend.getCaseById(7)).andReturn(fbCase).times(2);
+        expect(backend.saveCase(fbCase, "")).andReturn(true);
+        replay(backend);
+
+        cached.getCaseById(7);
+        assertTrue(cached.saveCase(fbCase));
+        cached.getCaseById(7);
+        verify(backend);
+
+        assertEquals(0, cached.getStats().getHits());
+    }
+
+    @Test
+    public void testFetchRacingWithSaveIsNotCached() throws Exception {
+        final FogbugzCase fbCase = newCase(7);
+        // The save completes while the first fetch is still on its way back.
+        expect(backend.getCaseById(7)).andAnswer(() -> {
+            cached.saveCase(fbCase);
+            return newCase(7);
+        });
+        expect(backend.saveCase(fbCase, "")).andReturn(true);
+        expect(backend.getCaseById(7)).andReturn(fbCase);
+        replay(backend);
+
+        cached.getCaseById(7);
+        cached.getCaseById(7);
+        verify(backend);
+
+        assertEquals(0, cached.getStats().getHits());
+    }
+}
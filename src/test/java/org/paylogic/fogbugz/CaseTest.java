@@ -1,6 +1,7 @@
 package org.paylogic.fogbugz;
 
 
+import org.easymock.Capture;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,13 +14,31 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.time.ZonedDateTime;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.powermock.api.easymock.PowerMock.*;
 
 
@@ -48,7 +67,7 @@ class CaseTest {
 
     @Test
     public void testFetchCaseByIdWithCustomFields() throws Exception {
-        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzDocument"},
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
                 "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
                 "plugin_customfields_at_fogcreek_com_originalxbranchv23", "plugin_customfields_at_fogcreek_com_targetxbranchj81",
                 "plugin_customfields_at_fogcreek_com_approvedxrevisiona44", "cixproject", 2, 2);
@@ -56,7 +75,7 @@ class CaseTest {
         FogbugzCase expected = new FogbugzCase(7, "HALLO!", 2, 2, "merged", true,
                                                "maikelwever/repo1#c7", "r1336", "r1336", "1336", "asdf1234", "myproject");
 
-        expectPrivate(tested, "getFogbugzDocument", anyObject()).andReturn(fetchDocumentFromFile("test_case_7.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_7.xml"));
         replay(tested);
 
         FogbugzCase parsed = tested.getCaseById(7);
@@ -67,12 +86,12 @@ class CaseTest {
 
     @Test
     public void testSearchForCase() throws Exception {
-        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzDocument"},
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
                 "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
                 "plugin_customfields_at_fogcreek_com_originalxbranchv23", "plugin_customfields_at_fogcreek_com_targetxbranchj81",
                 "plugin_customfields_at_fogcreek_com_approvedxrevisiona44", "cixproject", 2, 2);
 
-        expectPrivate(tested, "getFogbugzDocument", anyObject()).andReturn(fetchDocumentFromFile("test_case_list.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_list.xml"));
 
         replay(tested);
 
@@ -87,12 +106,12 @@ class CaseTest {
 
     @Test
     public void testFetchCaseByIdWithoutCustomFields() throws Exception {
-        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzDocument"},
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
                 "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 2, 2);
 
         FogbugzCase expected = new FogbugzCase(7, "HALLO!", 2, 2, "merged", true, "", "", "", "", "1336", "myproject");
 
-        expectPrivate(tested, "getFogbugzDocument", anyObject()).andReturn(fetchDocumentFromFile("test_case_7_no_customfields.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_7_no_customfields.xml"));
         replay(tested);
 
         FogbugzCase parsed = tested.getCaseById(7);
@@ -103,11 +122,11 @@ class CaseTest {
 
     @Test
     public void testFetchCaseByIdWithNullCustomFields() throws Exception {
-        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzDocument"});
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"});
 
         FogbugzCase expected = new FogbugzCase(7, "HALLO!", 2, 2, "merged", true, "", "", "", "", "1336", "myproject");
 
-        expectPrivate(tested, "getFogbugzDocument", anyObject()).andReturn(fetchDocumentFromFile("test_case_7_no_customfields.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_7_no_customfields.xml"));
         replay(tested);
 
         FogbugzCase parsed = tested.getCaseById(7);
@@ -118,26 +137,271 @@ class CaseTest {
 
     @Test(expected=NoSuchCaseException.class)
     public void testFetchNonExistingCase() throws Exception {
-        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzDocument"},
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
                 "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
                 "plugin_customfields_at_fogcreek_com_originalxbranchv23", "plugin_customfields_at_fogcreek_com_targetxbranchj81",
                 "plugin_customfields_at_fogcreek_com_approvedxrevisiona44", "cixproject", 2, 2);
 
-        expectPrivate(tested, "getFogbugzDocument", anyObject()).andReturn(fetchDocumentFromFile("test_case_non_existant.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_non_existant.xml"));
         replay(tested);
 
         FogbugzCase parsed = tested.getCaseById(37);
         verify(tested);
     }
 
+    @Test
+    public void testDomAndStreamDecodingAgree() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzDocument", "getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
+                "plugin_customfields_at_fogcreek_com_originalxbranchv23", "plugin_customfields_at_fogcreek_com_targetxbranchj81",
+                "plugin_customfields_at_fogcreek_com_approvedxrevisiona44", "cixproject", 2, 2);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_7.xml"));
+        expectPrivate(tested, "getFogbugzDocument", anyObject()).andReturn(fetchDocumentFromFile("test_case_7.xml"));
+        replay(tested);
+
+        FogbugzCase streamed = tested.getCaseById(7);
+        tested.setDomDecoding(true);
+        FogbugzCase parsed = tested.getCaseById(7);
+        verify(tested);
+
+        assertEquals(parsed, streamed);
+        assertEquals("maikelwever/repo1#c7", streamed.getFeatureBranch());
+        assertEquals(Arrays.asList("merged"), streamed.getTags());
+    }
+
+    @Test
+    public void testStreamCasesClosesResponse() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
+                "plugin_customfields_at_fogcreek_com_originalxbranchv23", "plugin_customfields_at_fogcreek_com_targetxbranchj81",
+                "plugin_customfields_at_fogcreek_com_approvedxrevisiona44", "cixproject", 2, 2);
+
+        final AtomicBoolean closed = new AtomicBoolean();
+        InputStream response = new FilterInputStream(fetchStreamFromFile("test_case_7.xml")) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        expectPrivate(tested, "getFogbugzStream", (Object) anyObject(), (Object) eq(false)).andReturn(response);
+        replay(tested);
+
+        List<FogbugzCase> cases;
+        try (Stream<FogbugzCase> stream = tested.streamCases("7")) {
+            cases = stream.collect(Collectors.toList());
+        }
+        verify(tested);
+
+        assertTrue(closed.get());
+        assertEquals(1, cases.size());
+        assertEquals(7, cases.get(0).getId());
+    }
+
+    @Test
+    public void testGetCasesByIdsReportsMissingIds() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
+                "plugin_customfields_at_fogcreek_com_originalxbranchv23", "plugin_customfields_at_fogcreek_com_targetxbranchj81",
+                "plugin_customfields_at_fogcreek_com_approvedxrevisiona44", "cixproject", 2, 2);
+        tested.setCaseBatchSize(1);
+        tested.setBatchConcurrency(1);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_7.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_non_existant.xml"));
+        replay(tested);
+
+        FogbugzCaseLookup lookup = tested.getCasesByIds(Arrays.asList(7, 37, 7));
+        verify(tested);
+        tested.close();
+
+        assertEquals(Collections.singleton(7), lookup.getCases().keySet());
+        assertEquals(Collections.singleton(37), lookup.getMissingIds());
+    }
+
+    @Test
     public void testSavingModifiedCase() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_edit.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_error.xml"));
+        replay(tested);
 
+        FogbugzCase fbCase = new FogbugzCase(7, "Test case", 2, 2, Arrays.asList("tag"), true, "", "", "", "", "", "");
+        assertTrue(tested.saveCase(fbCase, "Edited"));
+        // The error response must be reported, not ignored.
+        assertFalse(tested.saveCase(fbCase, "Edited"));
+        verify(tested);
+    }
+
+    @Test
+    public void testErrorResponsesAreRecordedAsFailures() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
+        InMemoryFogbugzMetrics metrics = new InMemoryFogbugzMetrics();
+        tested.setMetrics(metrics);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_error.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_error.xml"));
+        replay(tested);
+
+        try {
+            tested.searchForCases("37");
+            fail("Expected the error response to be thrown.");
+        } catch (InvalidResponseException e) {
+            assertTrue(e.getMessage().contains("Case 37 does not exist"));
+        }
+        FogbugzCase fbCase = new FogbugzCase(37, "Gone", 2, 2, Arrays.asList("tag"), true, "", "", "", "", "", "");
+        assertFalse(tested.saveCase(fbCase, "Edited"));
+        verify(tested);
+
+        assertEquals(1, metrics.snapshot().get("search").getErrors());
+        assertEquals(1, metrics.snapshot().get("edit").getErrors());
+    }
+
+    @Test
+    public void testSaveSendsOnlyModifiedFields() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
+                "", "", "", "", 1, 2);
+
+        Capture<Map<String, String>> params = new Capture<Map<String, String>>();
+        expectPrivate(tested, "getFogbugzStream", capture(params)).andReturn(fetchStreamFromFile("test_case_edit.xml"));
+        replay(tested);
+
+        FogbugzCase fbCase = new FogbugzCase(7, "Test case", 2, 2, new ArrayList<String>(Arrays.asList("tag")), true,
+                "feature", "", "", "", "", "1.0");
+        fbCase.markClean();
+        // Unchanged case, and setting a field to its current value, do not hit the server.
+        fbCase.setMilestone("1.0");
+        assertTrue(tested.saveCase(fbCase));
+
+        fbCase.addTag("merged");
+        assertEquals(Collections.singleton(FogbugzCase.Field.TAGS), fbCase.getDirtyFields());
+        assertTrue(tested.saveCase(fbCase));
+        verify(tested);
+
+        Map<String, String> sent = params.getValue();
+        assertEquals(new HashSet<String>(Arrays.asList("cmd", "ixBug", "sTags", "sEvent", "cols")), sent.keySet());
+        assertEquals("tag,merged", sent.get("sTags"));
+        assertFalse(fbCase.isDirty());
+    }
+
+    @Test
+    public void testSaveSendsClearedFields() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "plugin_customfields_at_fogcreek_com_featurexbranchx12",
+                "", "", "", "", 1, 2);
+
+        Capture<Map<String, String>> params = new Capture<Map<String, String>>();
+        expectPrivate(tested, "getFogbugzStream", capture(params)).andReturn(fetchStreamFromFile("test_case_edit.xml"));
+        replay(tested);
+
+        FogbugzCase fbCase = new FogbugzCase(7, "Test case", 2, 2, new ArrayList<String>(Arrays.asList("tag")), true,
+                "feature", "", "", "", "", "1.0");
+        fbCase.markClean();
+        fbCase.removeTag("tag");
+        fbCase.setFeatureBranch(null);
+        fbCase.setMilestone(null);
+        assertTrue(tested.saveCase(fbCase));
+        verify(tested);
+
+        Map<String, String> sent = params.getValue();
+        assertEquals("", sent.get("sTags"));
+        assertEquals("", sent.get("plugin_customfields_at_fogcreek_com_featurexbranchx12"));
+        assertEquals("", sent.get("sFixFor"));
+        assertTrue(new FogbugzRequestBuilder("http://localhost/fogbugz/", "x").build(sent).endsWith("&sFixFor=&sTags="));
+    }
+
+    @Test
+    public void testRepositoryFollowsManager() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_list.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_edit_updated.xml"));
+        replay(tested);
+
+        FogbugzCaseRepository repository = new FogbugzCaseRepository();
+        tested.addCaseListener(repository);
+        FogbugzCase fbCase = tested.searchForCases("123").get(0);
+        String milestone = fbCase.getMilestone();
+        assertEquals(Collections.singleton(123), repository.lookup(FogbugzCaseRepository.Index.MILESTONE, milestone));
+
+        FogbugzCase searchedBeforeSave = new FogbugzCase(fbCase);
+        searchedBeforeSave.setLastUpdated(ZonedDateTime.parse("2016-03-01T08:00:00Z"));
+        fbCase.setMilestone("2.0");
+        assertTrue(tested.saveCase(fbCase));
+        verify(tested);
+        assertEquals(Collections.singleton(123), repository.lookup(FogbugzCaseRepository.Index.MILESTONE, "2.0"));
+        // The repository has the time Fogbugz reported for the save, the saved object is left as it was.
+        assertEquals(ZonedDateTime.parse("2016-03-01T09:00:00Z"), repository.get(123).getLastUpdated());
+        assertNull(fbCase.getLastUpdated());
+
+        // A search that was answered before the save, but reported after it, does not undo the save.
+        repository.caseLoaded(searchedBeforeSave);
+        assertEquals("2.0", repository.get(123).getMilestone());
+        assertTrue(repository.lookup(FogbugzCaseRepository.Index.MILESTONE, milestone).isEmpty());
+
+        // A later copy from the server replaces it, even though its time is long before the local clock.
+        FogbugzCase searchedAfterSave = new FogbugzCase(fbCase);
+        searchedAfterSave.setMilestone("2.1");
+        searchedAfterSave.setLastUpdated(ZonedDateTime.parse("2016-03-01T09:05:00Z"));
+        repository.caseLoaded(searchedAfterSave);
+        assertEquals("2.1", repository.get(123).getMilestone());
+    }
+
+    @Test
+    public void testTagsChangedInPlaceAreTracked() {
+        FogbugzCase fbCase = new FogbugzCase(7, "Test case", 2, 2, "tag", true, "", "", "", "", "", "");
+        fbCase.markClean();
+        List<String> tags = fbCase.getTags();
+        tags.add("merged");
+        fbCase.setTags(tags);
+        assertEquals(Collections.singleton(FogbugzCase.Field.TAGS), fbCase.getDirtyFields());
+
+        // The case keeps its own copy.
+        tags.add("review");
+        assertEquals(Arrays.asList("tag", "merged"), fbCase.getTags());
+    }
+
+    @Test
+    public void testSaveCasesReportsOutcomePerCase() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
+        tested.setSaveConcurrency(1);
+        tested.setSaveRateLimit(1000);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_case_edit.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject()).andReturn(fetchStreamFromFile("test_error.xml"));
+        replay(tested);
+
+        FogbugzCase existing = new FogbugzCase(7, "Test case", 2, 2, Arrays.asList("tag"), true, "", "", "", "", "", "");
+        FogbugzCase missing = new FogbugzCase(37, "Gone", 2, 2, Arrays.asList("tag"), true, "", "", "", "", "", "");
+        FogbugzSaveReport report = tested.saveCases(Arrays.asList(existing, missing), "Release cut");
+        verify(tested);
+
+        assertFalse(report.isSuccess());
+        assertEquals(2, report.getResults().size());
+        assertTrue(report.getResults().get(0).isSuccess());
+        assertEquals(7, report.getResults().get(0).getCaseId());
+        assertEquals(1, report.getFailures().size());
+        assertEquals(37, report.getFailures().get(0).getCaseId());
+        assertTrue(report.getFailures().get(0).getError().contains("Case 37 does not exist"));
     }
 
     public void testCaseCreation() throws Exception {
 
     }
 
+    /**
+     * Helper method to get response streams from files on disk.
+     */
+    private InputStream fetchStreamFromFile(String filename) {
+        return this.getClass().getResourceAsStream("/" + filename);
+    }
+
     /**
      * Helper method to get documents from files on disk.
      */
@@ -0,0 +1,97 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests running blocking manager calls asynchronously.
+ */
+public class DefaultAsyncFogbugzManagerTest {
+
+    private static FogbugzCase newCase(int id) {
+        return new FogbugzCase(id, "Case " + id, 1, 2, "", true, "", "", "", "", "", "Undecided");
+    }
+
+    @Test
+    public void testCallCompletesOnExecutor() throws Exception {
+        final Thread caller = Thread.currentThread();
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.getCaseById(7)).andAnswer(() -> {
+            assertNotEquals(caller, Thread.currentThread());
+            return newCase(7);
+        });
+        replay(backend);
+
+        try (DefaultAsyncFogbugzManager async = new DefaultAsyncFogbugzManager(backend)) {
+            assertEquals(7, async.getCaseById(7).get(10, TimeUnit.SECONDS).getId());
+        }
+        verify(backend);
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.getCaseById(7)).andThrow(new NoSuchCaseException("7"));
+        replay(backend);
+
+        try (DefaultAsyncFogbugzManager async = new DefaultAsyncFogbugzManager(backend)) {
+            CompletableFuture<FogbugzCase> future = async.getCaseById(7);
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("Expected the NoSuchCaseException of the blocking call.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NoSuchCaseException);
+            }
+            assertTrue(future.isCompletedExceptionally());
+        }
+        verify(backend);
+    }
+
+    @Test
+    public void testCloseShutsDownOwnExecutor() throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        replay(backend);
+
+        DefaultAsyncFogbugzManager async = new DefaultAsyncFogbugzManager(backend);
+        async.close();
+        assertTrue(((ExecutorService) async.getExecutor()).isShutdown());
+
+        // Calls after close fail instead of never completing.
+        try {
+            async.getMilestones().get(10, TimeUnit.SECONDS);
+            fail("Expected the call to be rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        verify(backend);
+    }
+
+    @Test
+    public void testCloseKeepsGivenExecutor() throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        replay(backend);
+
+        ExecutorService executor = FogbugzExecutors.newDaemonPool(1, "fogbugz-test");
+        try {
+            new DefaultAsyncFogbugzManager(backend, executor).close();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,15 +1,98 @@
 package org.paylogic.fogbugz;
 
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.List;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.powermock.api.easymock.PowerMock.createPartialMock;
+import static org.powermock.api.easymock.PowerMock.expectPrivate;
+
 /**
  * Tests everything to do with Fogbugz events
  */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DefaultFogbugzManager.class)
 public class EventsTest {
 
+    @Test
     public void testFetchAllEvents() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
 
+        expectPrivate(tested, "getFogbugzStream", anyObject())
+                .andReturn(this.getClass().getResourceAsStream("/test_case_events.xml"));
+        replay(tested);
+
+        List<FogbugzEvent> events = tested.getEventsForCase(7);
+        verify(tested);
+
+        assertEquals(3, events.size());
+        FogbugzEvent assigned = events.get(1);
+        assertEquals(35, assigned.getId());
+        assertEquals(7, assigned.getCaseId());
+        assertEquals("Assigned", assigned.getVerb());
+        assertEquals(3, assigned.getPerson());
+        assertEquals(2, assigned.getPersonAssignedTo());
+        assertEquals("Dev One", assigned.getSPerson());
+        assertEquals("Assigned to Gatekeepers by Dev One", assigned.getDescription());
     }
 
+    @Test
     public void testSearchForGatekeeperAssignmentEvent() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject())
+                .andReturn(this.getClass().getResourceAsStream("/test_case_events.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject())
+                .andReturn(this.getClass().getResourceAsStream("/test_case_events.xml"));
+        replay(tested);
+
+        // One fetch answers both the gatekeeper and the developer question.
+        FogbugzEventTimeline timeline = tested.getEventTimeline(7);
+        assertEquals(35, timeline.findLastAssignedTo(2, 2, 1).getId());
+        // Event 40 is done by the gatekeeper, so the developer's own assignment counts.
+        assertEquals(31, timeline.findLastAssignedTo(3, 2, 1).getId());
+        assertNull(timeline.findLastAssignedTo(5, 2, 1));
+        assertEquals(40, timeline.getLastEventId());
+
+        assertEquals(0, tested.updateEventTimeline(timeline));
+        assertEquals(3, timeline.size());
+        verify(tested);
+    }
+
+    @Test
+    public void testRepeatedValuesAreShared() throws Exception {
+        DefaultFogbugzManager tested = createPartialMock(DefaultFogbugzManager.class, new String[]{"getFogbugzStream"},
+                "http://localhost/fogbugz/", "asdfasdf12341234", "", "", "", "", "", 1, 2);
+
+        expectPrivate(tested, "getFogbugzStream", anyObject())
+                .andReturn(this.getClass().getResourceAsStream("/test_case_events.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject())
+                .andReturn(this.getClass().getResourceAsStream("/test_case_events.xml"));
+        expectPrivate(tested, "getFogbugzStream", anyObject())
+                .andReturn(this.getClass().getResourceAsStream("/test_case_events.xml"));
+        replay(tested);
+
+        List<FogbugzEvent> events = tested.getEventsForCase(7);
+        List<FogbugzEvent> again = tested.getEventsForCase(7);
+        assertSame(events.get(1).getVerb(), events.get(2).getVerb());
+        assertSame(events.get(0).getSPerson(), again.get(1).getSPerson());
 
+        tested.setInternCapacity(0);
+        List<FogbugzEvent> uninterned = tested.getEventsForCase(7);
+        assertEquals(events.get(1).getVerb(), uninterned.get(1).getVerb());
+        assertNotSame(events.get(1).getVerb(), uninterned.get(1).getVerb());
+        verify(tested);
     }
 }
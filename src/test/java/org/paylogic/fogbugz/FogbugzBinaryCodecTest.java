@@ -0,0 +1,113 @@
+package org.paylogic.fogbugz;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trip tests of FogbugzBinaryCodec.
+ */
+public class FogbugzBinaryCodecTest {
+
+    private static FogbugzCase createCase(int id) {
+        FogbugzCase fbCase = new FogbugzCase(id, "Case " + id, 2, 3, "merged,review", id % 2 == 0, "r" + id, "1.0",
+                "default", "", "ci", "release-" + (id % 3));
+        fbCase.setParentId(id - 1);
+        fbCase.setProjectId(4);
+        fbCase.setProjectName("Project");
+        fbCase.setStatusName("Active");
+        fbCase.setHrsOrigEstimate(new BigDecimal("3.50"));
+        fbCase.setHrsCurrEstimate(new BigDecimal("-0.25"));
+        fbCase.setHrsElapsed(null);
+        fbCase.setLastUpdated(ZonedDateTime.parse("2016-03-01T09:00:00Z"));
+        return fbCase;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        FogbugzCase withoutTags = createCase(2);
+        withoutTags.setTags(null);
+        FogbugzEvent event = new FogbugzEvent(31, 7, "Opened", 3, 3, new Date(1364893920000L), "Opened by Dev One", "Dev One");
+        FogbugzTimeinterval interval = new FogbugzTimeinterval(5, 7, 3, true, ZonedDateTime.parse("2016-03-01T09:00:00Z"), null);
+        FogbugzUser user = new FogbugzUser(3, "Dev One", "dev@example.com", null);
+
+        byte[] bytes = FogbugzBinaryCodec.encode(Arrays.asList(createCase(1), withoutTags, event, interval, user,
+                new FogbugzProject(4, "Project", false), new FogbugzMilestone(6, "release-1", true, false)));
+        List<Object> objects = new FogbugzBinaryCodec.Reader(ByteBuffer.wrap(bytes)).readAll();
+        assertEquals(7, objects.size());
+
+        assertEquals(createCase(1), objects.get(0));
+        assertEquals(createCase(1).getLastUpdated(), ((FogbugzCase) objects.get(0)).getLastUpdated());
+        assertNull(((FogbugzCase) objects.get(1)).getTags());
+
+        FogbugzEvent decodedEvent = (FogbugzEvent) objects.get(2);
+        assertEquals(event.formatNicely(), decodedEvent.formatNicely());
+        assertEquals(event.getDateTimeStamp(), decodedEvent.getDateTimeStamp());
+
+        assertEquals(interval.toString(), objects.get(3).toString());
+        assertEquals(user, objects.get(4));
+        assertEquals("{ id: 4, name: 'Project', isDeleted: false }", objects.get(5).toString());
+        FogbugzMilestone milestone = (FogbugzMilestone) objects.get(6);
+        assertEquals("release-1", milestone.getName());
+        assertTrue(milestone.isDeleted());
+    }
+
+    @Test
+    public void testRepeatedStringsAreWrittenOnce() {
+        List<FogbugzCase> cases = new ArrayList<FogbugzCase>();
+        for (int id = 1; id <= 1000; id++) {
+            cases.add(createCase(id));
+        }
+        byte[] bytes = FogbugzBinaryCodec.encode(cases);
+        assertEquals(1000, StringUtils.countMatches(new String(bytes, StandardCharsets.ISO_8859_1), "Case "));
+        assertEquals(1, StringUtils.countMatches(new String(bytes, StandardCharsets.ISO_8859_1), "Project"));
+        assertTrue("Encoded in " + bytes.length + " bytes", bytes.length < 50 * 1000);
+        assertEquals(cases, FogbugzBinaryCodec.decode(ByteBuffer.wrap(bytes), FogbugzCase.class));
+    }
+
+    @Test
+    public void testWritingContinuesAfterFullBuffer() {
+        ByteBuffer first = ByteBuffer.allocateDirect(64);
+        FogbugzBinaryCodec.Writer writer = new FogbugzBinaryCodec.Writer(first);
+        FogbugzEvent event = new FogbugzEvent(31, 7, "Opened", 3, 3, null, StringUtils.repeat("x", 20000), "Dev One");
+        try {
+            writer.write(event);
+            fail("Event does not fit");
+        } catch (BufferOverflowException e) {
+            assertEquals(2, first.position());
+        }
+
+        ByteBuffer second = ByteBuffer.allocateDirect(64 * 1024);
+        second.put((byte) 0xFB).put((byte) FogbugzBinaryCodec.VERSION);
+        // A record type added by a future version, which readers skip.
+        second.put((byte) 99).put((byte) 2).put((byte) 1).put((byte) 2);
+        writer.setBuffer(second);
+        writer.write(event).write(event);
+        second.flip();
+
+        List<FogbugzEvent> events = FogbugzBinaryCodec.decode(second, FogbugzEvent.class);
+        assertEquals(2, events.size());
+        assertEquals(event.getDescription(), events.get(1).getDescription());
+        assertEquals("Dev One", events.get(1).getSPerson());
+        assertNull(events.get(0).getDateTimeStamp());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOtherData() {
+        new FogbugzBinaryCodec.Reader(ByteBuffer.wrap(new byte[]{'{', '}'}));
+    }
+}
@@ -0,0 +1,72 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests index lookups on FogbugzCaseRepository.
+ */
+public class FogbugzCaseRepositoryTest {
+
+    private static FogbugzCase createCase(int id, int assignedTo, String tags, String milestone) {
+        FogbugzCase fbCase = new FogbugzCase(id, "Case " + id, 2, assignedTo, tags, true, "r" + id, "1.0", "default",
+                "", "ci", milestone);
+        fbCase.setProjectId(id % 2);
+        fbCase.setStatusName("Active");
+        return fbCase;
+    }
+
+    @Test
+    public void testLookupAndQuery() {
+        FogbugzCaseRepository repository = new FogbugzCaseRepository();
+        for (int id = 1; id <= 10; id++) {
+            repository.put(createCase(id, id % 3, id % 2 == 0 ? "merged,review" : "review", "1.0"));
+        }
+
+        assertEquals(10, repository.size());
+        assertEquals(new HashSet<Integer>(Arrays.asList(3, 6, 9)),
+                repository.lookup(FogbugzCaseRepository.Index.ASSIGNED_TO, 0));
+        assertEquals(10, repository.lookup(FogbugzCaseRepository.Index.TAG, "review").size());
+        assertEquals(Collections.emptySet(), repository.lookup(FogbugzCaseRepository.Index.TAG, "unknown"));
+        assertEquals(new HashSet<Integer>(Arrays.asList(6)), repository.query()
+                .where(FogbugzCaseRepository.Index.ASSIGNED_TO, 0)
+                .where(FogbugzCaseRepository.Index.TAG, "merged")
+                .where(FogbugzCaseRepository.Index.PROJECT, 0)
+                .ids());
+        assertEquals(0, repository.query()
+                .where(FogbugzCaseRepository.Index.TAG, "merged")
+                .where(FogbugzCaseRepository.Index.MILESTONE, "2.0")
+                .count());
+        assertEquals(10, repository.query().count());
+        assertEquals("r4", repository.find(FogbugzCaseRepository.Index.FEATURE_BRANCH, "r4").get(0).getFeatureBranch());
+    }
+
+    @Test
+    public void testUpdatesReplaceIndexEntries() {
+        FogbugzCaseRepository repository = new FogbugzCaseRepository();
+        FogbugzCase fbCase = createCase(1, 5, "review", "1.0");
+        repository.caseLoaded(fbCase);
+
+        // The repository keeps a copy, so it only changes when told about the saved case.
+        fbCase.setMilestone("2.0");
+        fbCase.addTag("merged");
+        assertEquals(1, repository.find(FogbugzCaseRepository.Index.MILESTONE, "1.0").size());
+        repository.caseLoaded(fbCase);
+        assertTrue(repository.lookup(FogbugzCaseRepository.Index.MILESTONE, "1.0").isEmpty());
+        assertEquals(1, repository.query()
+                .where(FogbugzCaseRepository.Index.MILESTONE, "2.0")
+                .where(FogbugzCaseRepository.Index.TAG, "merged")
+                .count());
+
+        repository.caseRemoved(fbCase);
+        assertNull(repository.get(1));
+        assertTrue(repository.lookup(FogbugzCaseRepository.Index.TAG, "review").isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests storing cases in and reading them back from FogbugzCaseStore.
+ */
+public class FogbugzCaseStoreTest {
+
+    private static FogbugzCase createCase(int id, String tags) {
+        FogbugzCase fbCase = new FogbugzCase(id, "Case " + id, 2, 3, tags, true, "r" + id, "1.0", "default",
+                "", "ci", "release-" + (id % 3));
+        fbCase.setParentId(id - 1);
+        fbCase.setProjectId(id % 4);
+        fbCase.setProjectName("Project " + (id % 4));
+        fbCase.setStatusName("Active");
+        // Scale 2, like the decoders return.
+        fbCase.setHrsOrigEstimate(new BigDecimal("3.50"));
+        fbCase.setHrsCurrEstimate(new BigDecimal("10.00"));
+        fbCase.setHrsElapsed(id % 2 == 0 ? null : new BigDecimal("0.00"));
+        fbCase.setLastUpdated(ZonedDateTime.parse("2016-03-01T09:00:00Z"));
+        return fbCase;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        FogbugzCaseStore store = new FogbugzCaseStore(16);
+        List<FogbugzCase> cases = new ArrayList<FogbugzCase>();
+        for (int id = 1; id <= 100; id++) {
+            cases.add(createCase(id, "merged,review"));
+        }
+        store.putAll(cases);
+
+        assertEquals(100, store.size());
+        assertEquals(cases, store.getCases());
+        FogbugzCase stored = store.get(42);
+        assertEquals(cases.get(41), stored);
+        assertEquals(cases.get(41).getLastUpdated(), stored.getLastUpdated());
+        assertFalse(stored.isDirty());
+        assertNull(store.get(101));
+
+        FogbugzCaseStore.View view = store.view(42);
+        assertEquals("Project 2", view.getProjectName());
+        assertEquals(new BigDecimal("10.00"), view.getHrsCurrEstimate());
+        assertEquals(new BigDecimal("0.00"), store.view(41).getHrsElapsed());
+        assertTrue(view.hasTag("review"));
+        assertFalse(view.hasTag("unknown"));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        FogbugzCaseStore store = new FogbugzCaseStore(16);
+        for (int id = 1; id <= 3; id++) {
+            store.put(createCase(id, "a,b"));
+        }
+        // Replacing cases many times leaves old tags behind, which are compacted away.
+        for (int i = 0; i < 1000; i++) {
+            store.put(createCase(2, "c,d,e"));
+        }
+        assertEquals(3, store.size());
+        assertEquals(createCase(2, "c,d,e"), store.get(2));
+
+        assertTrue(store.remove(1));
+        assertFalse(store.remove(1));
+        assertFalse(store.contains(1));
+        assertEquals(2, store.size());
+        assertEquals(createCase(3, "a,b"), store.get(3));
+
+        final List<Integer> ids = new ArrayList<Integer>();
+        store.forEach(view -> ids.add(view.getId()));
+        assertEquals(2, ids.size());
+        assertTrue(ids.contains(2) && ids.contains(3));
+    }
+
+    @Test
+    public void testViewsOfRemovedAndMovedCases() {
+        FogbugzCaseStore store = new FogbugzCaseStore(16);
+        for (int id = 1; id <= 3; id++) {
+            store.put(createCase(id, "a,b"));
+        }
+        FogbugzCaseStore.View first = store.view(1);
+        FogbugzCaseStore.View last = store.view(3);
+
+        // Case 3 moves into the row of case 1.
+        assertTrue(store.remove(1));
+        assertEquals(createCase(3, "a,b"), last.toCase());
+        try {
+            first.getTitle();
+            fail("Expected the view of a removed case to fail.");
+        } catch (IllegalStateException e) {
+            assertEquals(1, first.getId());
+        }
+
+        // The row of case 3 is now beyond the stored rows.
+        assertTrue(store.remove(3));
+        try {
+            last.getTags();
+            fail("Expected the view of a removed case to fail.");
+        } catch (IllegalStateException e) {
+            assertFalse(store.contains(3));
+        }
+    }
+}
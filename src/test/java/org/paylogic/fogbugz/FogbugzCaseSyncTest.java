@@ -0,0 +1,100 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests incremental syncing of a case replica.
+ */
+public class FogbugzCaseSyncTest {
+
+    private static FogbugzCase newCase(int id, String title, String lastUpdated) {
+        FogbugzCase fbCase = new FogbugzCase(id, title, 1, 2, "", true, "", "", "", "", "", "Undecided");
+        fbCase.setLastUpdated(ZonedDateTime.parse(lastUpdated));
+        return fbCase;
+    }
+
+    @Test
+    public void testDeltaSyncAppliesOnlyNewerCases() throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.streamCases("status:active")).andReturn(Arrays.asList(
+                newCase(1, "One", "2013-04-02T09:00:00Z"),
+                newCase(2, "Two", "2013-04-03T10:00:00Z")).stream());
+        expect(backend.streamCases("(status:active) edited:\"4/2/2013..\"")).andReturn(Arrays.asList(
+                newCase(2, "Two", "2013-04-03T10:00:00Z"),
+                newCase(3, "Three", "2013-04-03T11:00:00Z"),
+                newCase(1, "One, edited", "2013-04-03T12:00:00Z")).stream());
+        replay(backend);
+
+        final List<String> changes = new ArrayList<String>();
+        FogbugzCaseSync sync = new FogbugzCaseSync(backend, "status:active");
+        sync.addListener(new FogbugzCaseListener() {
+            @Override
+            public void caseAdded(FogbugzCase fbCase) {
+                changes.add("added " + fbCase.getId());
+            }
+
+            @Override
+            public void caseUpdated(FogbugzCase previous, FogbugzCase current) {
+                changes.add("updated " + current.getId());
+            }
+        });
+
+        assertEquals(2, sync.sync());
+        assertEquals(2, sync.sync());
+        verify(backend);
+
+        assertEquals(Arrays.asList("added 1", "added 2", "added 3", "updated 1"), changes);
+        assertEquals("One, edited", sync.getCase(1).getTitle());
+        assertEquals(ZonedDateTime.parse("2013-04-03T12:00:00Z"), sync.getWatermark());
+        assertEquals(3, sync.getCases().size());
+    }
+
+    @Test
+    public void testLocalSearchWithoutMatchesThrows() throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.streamCases("status:active")).andReturn(Arrays.asList(
+                newCase(1, "One", "2013-04-02T09:00:00Z")).stream());
+        replay(backend);
+
+        FogbugzCaseSync sync = new FogbugzCaseSync(backend, "status:active");
+        sync.sync();
+        try {
+            sync.search("ixBug:2", Collections.<FogbugzUser>emptyList());
+            fail("Expected NoSuchCaseException, like a server search without matches.");
+        } catch (NoSuchCaseException e) {
+            // Expected.
+        }
+        verify(backend);
+    }
+
+    @Test
+    public void testSearchIsAnsweredLocallyWhenSupported() throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.streamCases("status:active")).andReturn(Arrays.asList(
+                newCase(1, "One", "2013-04-02T09:00:00Z"),
+                newCase(2, "Two", "2013-04-03T10:00:00Z")).stream());
+        expect(backend.searchForCases("One")).andReturn(Arrays.asList(newCase(1, "One", "2013-04-02T09:00:00Z")));
+        replay(backend);
+
+        FogbugzCaseSync sync = new FogbugzCaseSync(backend, "status:active");
+        sync.sync();
+        List<FogbugzCase> found = sync.search("ixBug:2 milestone:undecided", Collections.<FogbugzUser>emptyList());
+        assertEquals(1, found.size());
+        assertEquals("Two", found.get(0).getTitle());
+        assertEquals(1, sync.search("One", Collections.<FogbugzUser>emptyList()).size());
+        verify(backend);
+    }
+}
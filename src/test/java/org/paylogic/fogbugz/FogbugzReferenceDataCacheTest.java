@@ -0,0 +1,122 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the reference data cache against a mocked manager.
+ */
+public class FogbugzReferenceDataCacheTest {
+
+    private static FogbugzManager newBackend(final List<FogbugzMilestone> milestones) throws Exception {
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.getFogbugzUsers()).andReturn(Arrays.asList(new FogbugzUser(2, "Jan Janssen"))).anyTimes();
+        expect(backend.getFogbugzProjects()).andReturn(Arrays.asList(new FogbugzProject(3, "Project", false))).anyTimes();
+        expect(backend.getMilestones()).andAnswer(() -> new ArrayList<FogbugzMilestone>(milestones)).anyTimes();
+        return backend;
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        FogbugzManager backend = newBackend(Arrays.asList(new FogbugzMilestone(1, "Undecided", false, false)));
+        replay(backend);
+
+        try (FogbugzReferenceDataCache cache = new FogbugzReferenceDataCache(backend, 1, TimeUnit.HOURS)) {
+            cache.refresh();
+            assertEquals("Jan Janssen", cache.getUser(2).getName());
+            assertEquals(2, cache.getUserByName("Jan Janssen").getId());
+            assertEquals("Project", cache.getProject(3).getName());
+            assertEquals(1, cache.getMilestoneByName("Undecided").getId());
+            assertNull(cache.getMilestone(4));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testConstructorDoesNotWaitForFogbugz() throws Exception {
+        final CountDownLatch answered = new CountDownLatch(1);
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.getFogbugzUsers()).andAnswer(() -> {
+            answered.await();
+            return Collections.<FogbugzUser>emptyList();
+        }).anyTimes();
+        expect(backend.getFogbugzProjects()).andReturn(Collections.<FogbugzProject>emptyList()).anyTimes();
+        expect(backend.getMilestones()).andReturn(Collections.<FogbugzMilestone>emptyList()).anyTimes();
+        replay(backend);
+
+        try (FogbugzReferenceDataCache cache = new FogbugzReferenceDataCache(backend, 1, TimeUnit.HOURS)) {
+            assertTrue(cache.getUsers().isEmpty());
+        } finally {
+            answered.countDown();
+        }
+    }
+
+    @Test
+    public void testCreatedMilestoneIsReloaded() throws Exception {
+        final List<FogbugzMilestone> milestones = Collections.synchronizedList(new ArrayList<FogbugzMilestone>());
+        milestones.add(new FogbugzMilestone(1, "Undecided", false, false));
+        FogbugzManager backend = newBackend(milestones);
+        expect(backend.createMilestone(anyObject(FogbugzMilestone.class))).andAnswer(() -> {
+            milestones.add(new FogbugzMilestone(5, "1.0", false, false));
+            return true;
+        }).once();
+        replay(backend);
+
+        try (FogbugzReferenceDataCache cache = new FogbugzReferenceDataCache(backend, 1, TimeUnit.HOURS)) {
+            cache.refresh();
+            assertTrue(cache.createMilestoneIfNotExists("1.0"));
+            assertEquals(5, cache.getMilestoneByName("1.0").getId());
+            assertFalse(cache.createMilestoneIfNotExists("1.0"));
+        }
+        verify(backend);
+    }
+
+    @Test
+    public void testCreatedMilestoneIsKeptWhenReloadFails() throws Exception {
+        final List<FogbugzMilestone> milestones = Collections.synchronizedList(new ArrayList<FogbugzMilestone>());
+        milestones.add(new FogbugzMilestone(1, "Undecided", false, false));
+        FogbugzManager backend = newBackend(milestones);
+        expect(backend.createMilestone(anyObject(FogbugzMilestone.class))).andAnswer(() -> {
+            // The reload after the create fails, getMilestones then returns an empty list.
+            milestones.clear();
+            return true;
+        }).once();
+        replay(backend);
+
+        try (FogbugzReferenceDataCache cache = new FogbugzReferenceDataCache(backend, 1, TimeUnit.HOURS)) {
+            cache.refresh();
+            assertTrue(cache.createMilestoneIfNotExists("1.0"));
+            assertEquals(0, cache.getMilestoneByName("1.0").getId());
+            assertEquals(1, cache.getMilestoneByName("Undecided").getId());
+        }
+        verify(backend);
+    }
+
+    @Test
+    public void testCreateBeforeFirstLoadAsksFogbugz() throws Exception {
+        FogbugzManager backend = newBackend(Collections.<FogbugzMilestone>emptyList());
+        expect(backend.createMilestoneIfNotExists("1.0")).andReturn(false);
+        replay(backend);
+
+        try (FogbugzReferenceDataCache cache = new FogbugzReferenceDataCache(backend, 1, TimeUnit.HOURS)) {
+            cache.refresh();
+            assertFalse(cache.createMilestoneIfNotExists("1.0"));
+        }
+        verify(backend);
+    }
+}
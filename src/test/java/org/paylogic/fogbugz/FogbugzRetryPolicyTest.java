@@ -0,0 +1,78 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests retry decisions, the retry budget and the circuit breaker.
+ */
+public class FogbugzRetryPolicyTest {
+
+    @Test
+    public void testUnsafeRequestsAreOnlyRetriedWhenNotSent() {
+        FogbugzRetryPolicy policy = new FogbugzRetryPolicy();
+        assertTrue(policy.shouldRetry(1, new SocketTimeoutException(), true));
+        assertFalse(policy.shouldRetry(1, new SocketTimeoutException(), false));
+        assertTrue(policy.shouldRetry(1, new ConnectException(), false));
+        assertTrue(policy.shouldRetry(1, new FogbugzHttpException(503, "Unavailable"), false));
+        assertFalse(policy.shouldRetry(1, new FogbugzHttpException(404, "Not found"), true));
+        assertFalse(policy.shouldRetry(3, new SocketTimeoutException(), true));
+    }
+
+    @Test
+    public void testBudgetLimitsRetries() {
+        FogbugzRetryPolicy policy = new FogbugzRetryPolicy();
+        policy.setFailureThreshold(100);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.shouldRetry(1, new SocketTimeoutException(), true));
+        }
+        assertFalse(policy.shouldRetry(1, new SocketTimeoutException(), true));
+
+        // Five successful requests earn one retry.
+        for (int i = 0; i < 5; i++) {
+            policy.onSuccess();
+        }
+        assertTrue(policy.shouldRetry(1, new SocketTimeoutException(), true));
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAndRecovers() throws Exception {
+        AtomicLong now = new AtomicLong();
+        FogbugzRetryPolicy policy = new FogbugzRetryPolicy(now::get);
+        for (int i = 0; i < 5; i++) {
+            policy.beforeAttempt();
+            policy.onFailure(new IOException("Connection reset"));
+        }
+        assertOpen(policy);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        // One trial request is let through, which fails and opens the breaker again.
+        policy.beforeAttempt();
+        assertOpen(policy);
+        policy.onFailure(new IOException("Connection reset"));
+        assertOpen(policy);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        policy.beforeAttempt();
+        policy.onSuccess();
+        policy.beforeAttempt();
+    }
+
+    private static void assertOpen(FogbugzRetryPolicy policy) {
+        try {
+            policy.beforeAttempt();
+            fail("Expected the circuit breaker to be open.");
+        } catch (FogbugzRetryPolicy.CircuitOpenException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests parsing and local evaluation of Fogbugz search queries.
+ */
+public class FogbugzSearchQueryTest {
+
+    private static final List<FogbugzUser> USERS = Arrays.asList(new FogbugzUser(2, "First Last"),
+            new FogbugzUser(3, "Other User"));
+
+    private static List<FogbugzCase> createCases() {
+        List<FogbugzCase> cases = new ArrayList<FogbugzCase>();
+        for (int id = 1; id <= 6; id++) {
+            FogbugzCase fbCase = new FogbugzCase(id, "Case " + id, 1, id % 2 == 0 ? 2 : 3,
+                    id <= 3 ? "merged,review" : "review", id != 6, "", "", "", "", "", id <= 2 ? "1.0" : "2.0 beta");
+            fbCase.setParentId(id == 1 ? 0 : 1);
+            fbCase.setProjectId(id % 3);
+            fbCase.setProjectName("Project " + (id % 3));
+            fbCase.setStatusName(id == 6 ? "Closed (Fixed)" : id == 5 ? "Resolved (Fixed)" : "Active");
+            cases.add(fbCase);
+        }
+        return cases;
+    }
+
+    private static List<Integer> ids(String query) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (FogbugzCase fbCase : FogbugzSearchQuery.parse(query, USERS).filter(createCases())) {
+            ids.add(fbCase.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testAxes() {
+        assertEquals(Arrays.asList(2, 5), ids("ixBug:2,5"));
+        assertEquals(Arrays.asList(2, 4, 6), ids("assignedto:\"first last\""));
+        assertEquals(Arrays.asList(1, 3, 5), ids("AssignedTo:3"));
+        assertEquals(Arrays.asList(1, 2, 3, 4), ids("status:active"));
+        assertEquals(Arrays.asList(5), ids("status:resolved"));
+        assertEquals(Arrays.asList(6), ids("status:closed"));
+        assertEquals(Arrays.asList(3, 4, 5, 6), ids("milestone:\"2.0 beta\""));
+        assertEquals(Arrays.asList(1, 2, 3), ids("tag:Merged"));
+        assertEquals(Arrays.asList(3, 6), ids("project:0"));
+        assertEquals(Arrays.asList(1, 4), ids("project:\"Project 1\""));
+        assertEquals(Arrays.asList(2, 3, 4, 5, 6), ids("parent:1"));
+    }
+
+    @Test
+    public void testOperators() {
+        assertEquals(Arrays.asList(2), ids("tag:merged assignedto:2"));
+        assertEquals(Arrays.asList(2), ids("tag:merged AND assignedto:2"));
+        assertEquals(Arrays.asList(1, 2, 6), ids("milestone:1.0 OR status:closed"));
+        assertEquals(Arrays.asList(3, 4, 5, 6), ids("NOT milestone:1.0"));
+        assertEquals(Arrays.asList(3), ids("tag:merged -milestone:1.0"));
+        // AND binds stronger than OR.
+        assertEquals(Arrays.asList(2, 4, 5), ids("assignedto:2 status:open OR ixBug:5"));
+        assertEquals(Arrays.asList(2, 4), ids("assignedto:2 (status:open OR ixBug:5)"));
+    }
+
+    @Test
+    public void testUnsupportedQueries() {
+        assertNull(FogbugzSearchQuery.parse("merged"));
+        assertNull(FogbugzSearchQuery.parse("tag:merged or tag:review"));
+        assertNull(FogbugzSearchQuery.parse("edited:\"4/2/2013..\""));
+        assertNull(FogbugzSearchQuery.parse("assignedto:\"First Last\""));
+        assertNull(FogbugzSearchQuery.parse("(tag:merged"));
+        assertNull(FogbugzSearchQuery.parse("ixBug:abc"));
+        assertNull(FogbugzSearchQuery.parse(""));
+    }
+}
@@ -0,0 +1,173 @@
+package org.paylogic.fogbugz;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests writing to and loading from FogbugzSnapshotStore.
+ */
+public class FogbugzSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FogbugzCase createCase(int id, String title, String lastUpdated) {
+        FogbugzCase fbCase = new FogbugzCase(id, title, 2, 3, "merged,review", true, "r" + id, "1.0", "default",
+                "", "ci", "release");
+        fbCase.setProjectName("Project");
+        fbCase.setHrsElapsed(new BigDecimal("1.25"));
+        fbCase.setLastUpdated(ZonedDateTime.parse(lastUpdated));
+        return fbCase;
+    }
+
+    @Test
+    public void testRecordsSurviveReopening() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("snapshot.bin");
+        FogbugzEvent event = new FogbugzEvent(31, 7, "Opened", 3, 3, new Date(1364893920000L),
+                StringUtils.repeat("Long description. ", 1000), "Dev One");
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            store.append(createCase(7, "First title", "2016-03-01T09:00:00Z"));
+            store.append(createCase(8, "Other case", "2016-03-01T09:00:00Z"));
+            store.append(createCase(7, "Second title", "2016-03-02T09:00:00Z"));
+            store.appendEvents(Collections.singletonList(event));
+            store.append(new FogbugzUser(3, "Dev One", "dev@example.com", null));
+            store.appendMilestones(Collections.singletonList(new FogbugzMilestone(4, "release", false, false)));
+            store.removeCase(8);
+        }
+
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            FogbugzSnapshotStore.Snapshot snapshot = store.load();
+            assertEquals(1, snapshot.getCases().size());
+            FogbugzCase fbCase = snapshot.getCase(7);
+            assertEquals(createCase(7, "Second title", "2016-03-02T09:00:00Z"), fbCase);
+            assertEquals(ZonedDateTime.parse("2016-03-02T09:00:00Z"), fbCase.getLastUpdated());
+            assertNull(snapshot.getCase(8));
+            assertEquals(event.getDescription(), snapshot.getEvents(7).get(0).getDescription());
+            assertEquals(31, snapshot.getTimeline(7).getLastEventId());
+            assertEquals(new FogbugzUser(3, "Dev One", "dev@example.com", null), snapshot.getUsers().iterator().next());
+            assertEquals("release", snapshot.getMilestones().iterator().next().getName());
+
+            // Compacting keeps the latest records only.
+            int size = store.size();
+            store.compact();
+            assertTrue(store.size() < size);
+            assertEquals(fbCase, store.load().getCase(7));
+            store.append(createCase(9, "After compacting", "2016-03-03T09:00:00Z"));
+            assertEquals(2, store.load().getCases().size());
+        }
+    }
+
+    @Test
+    public void testAttachRestoresAndRecordsSync() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("sync.bin");
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            store.append(createCase(7, "Stored", "2016-03-01T09:00:00Z"));
+
+            FogbugzCaseSync sync = new FogbugzCaseSync(null, "project:Test");
+            store.attach(sync);
+            assertEquals("Stored", sync.getCase(7).getTitle());
+            assertEquals(ZonedDateTime.parse("2016-03-01T09:00:00Z"), sync.getWatermark());
+
+            sync.restore(Arrays.asList(createCase(7, "Updated", "2016-03-02T09:00:00Z")));
+            assertEquals("Updated", store.load().getCase(7).getTitle());
+        }
+    }
+
+    @Test
+    public void testCompactedFileSurvivesReopening() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("compact.bin");
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(createCase(7, "Title " + i, "2016-03-01T09:00:00Z"));
+            }
+            store.append(createCase(8, "Removed", "2016-03-01T09:00:00Z"));
+            store.removeCase(8);
+            store.compact();
+        }
+        assertTrue(Files.notExists(file.resolveSibling("compact.bin.compact")));
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            FogbugzSnapshotStore.Snapshot snapshot = store.load();
+            assertEquals(1, snapshot.getCases().size());
+            assertEquals("Title 9", snapshot.getCase(7).getTitle());
+        }
+    }
+
+    @Test
+    public void testFailedCompactKeepsStoreUsable() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("busy.bin");
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file) {
+            @Override
+            void replaceFile(Path compacted) throws IOException {
+                throw new IOException("File is in use");
+            }
+        }) {
+            store.append(createCase(7, "First title", "2016-03-01T09:00:00Z"));
+            store.append(createCase(7, "Second title", "2016-03-02T09:00:00Z"));
+            try {
+                store.compact();
+                fail("Expected the move to fail.");
+            } catch (IOException e) {
+                // Expected.
+            }
+            store.append(createCase(8, "After failed compact", "2016-03-03T09:00:00Z"));
+            FogbugzSnapshotStore.Snapshot snapshot = store.load();
+            assertEquals("Second title", snapshot.getCase(7).getTitle());
+            assertEquals("After failed compact", snapshot.getCase(8).getTitle());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("torn.bin");
+        int end;
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            store.append(createCase(7, "Complete", "2016-03-01T09:00:00Z"));
+            end = store.size();
+            store.append(createCase(8, "Torn", "2016-03-01T09:00:00Z"));
+        }
+        // A crash before the length of the last record was written leaves its payload without a length.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // Records start after the 8 byte file header.
+            channel.write(ByteBuffer.allocate(4), 8 + end);
+        }
+
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            assertEquals(end, store.size());
+            assertEquals(Collections.singleton(7), store.load().getCases().stream()
+                    .map(FogbugzCase::getId).collect(Collectors.toSet()));
+            store.append(createCase(9, "After recovery", "2016-03-02T09:00:00Z"));
+        }
+        try (FogbugzSnapshotStore store = new FogbugzSnapshotStore(file)) {
+            FogbugzSnapshotStore.Snapshot snapshot = store.load();
+            assertEquals(2, snapshot.getCases().size());
+            assertEquals("After recovery", snapshot.getCase(9).getTitle());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        Path file = this.folder.newFile("other.txt").toPath();
+        Files.write(file, "not a snapshot".getBytes("UTF-8"));
+        new FogbugzSnapshotStore(file).close();
+    }
+}
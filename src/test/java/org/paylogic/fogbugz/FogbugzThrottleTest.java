@@ -0,0 +1,81 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the request throttle.
+ */
+public class FogbugzThrottleTest {
+
+    @Test
+    public void testLimitBacksOffOnErrorsAndRecovers() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        FogbugzThrottle throttle = new FogbugzThrottle(0, 8, 8, now::get);
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+
+        List<FogbugzThrottle.Permit> permits = new ArrayList<FogbugzThrottle.Permit>();
+        for (int i = 0; i < 8; i++) {
+            permits.add(throttle.acquire(false));
+        }
+        // All requests in flight fail together, which counts as one overload signal.
+        for (FogbugzThrottle.Permit permit : permits) {
+            permit.release(false, fast);
+        }
+        assertEquals(4, throttle.getLimit());
+        assertEquals(0, throttle.getInFlight());
+
+        // Slow responses count as overload too, once the previous backoff is long enough ago.
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        throttle.acquire(false).release(true, TimeUnit.SECONDS.toNanos(6));
+        assertEquals(2, throttle.getLimit());
+
+        // Additive increase: about one extra slot per round of successful requests.
+        for (int i = 0; i < 3; i++) {
+            throttle.acquire(false).release(true, fast);
+        }
+        assertEquals(3, throttle.getLimit());
+    }
+
+    @Test
+    public void testWaitingReadsAndWritesAlternate() throws Exception {
+        final FogbugzThrottle throttle = new FogbugzThrottle(0, 1, 1);
+        FogbugzThrottle.Permit blocker = throttle.acquire(false);
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final String name : new String[]{"read1", "read2", "read3", "write1", "write2"}) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        FogbugzThrottle.Permit permit = throttle.acquire(name.startsWith("write"));
+                        order.add(name);
+                        permit.release(true, 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            int queued = throttle.getQueued();
+            thread.start();
+            threads.add(thread);
+            while (throttle.getQueued() == queued) {
+                Thread.sleep(1);
+            }
+        }
+
+        blocker.release(true, 0);
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(Arrays.asList("read1", "write1", "read2", "write2", "read3"), order);
+    }
+}
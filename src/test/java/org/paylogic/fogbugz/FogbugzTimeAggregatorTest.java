@@ -0,0 +1,73 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the rollups of FogbugzTimeAggregator.
+ */
+public class FogbugzTimeAggregatorTest {
+
+    private static FogbugzTimeinterval interval(int id, int caseId, int personId, String from, String till) {
+        return new FogbugzTimeinterval(id, caseId, personId, false, ZonedDateTime.parse(from),
+                till == null ? null : ZonedDateTime.parse(till));
+    }
+
+    @Test
+    public void testRollups() {
+        FogbugzTimeAggregator aggregator = new FogbugzTimeAggregator();
+        aggregator.addAll(Arrays.asList(
+                interval(1, 10, 1, "2016-03-01T09:00:00Z", "2016-03-01T10:30:00Z"),
+                interval(2, 10, 2, "2016-03-01T23:00:00Z", "2016-03-02T01:00:00Z"),
+                interval(3, 11, 1, "2016-03-02T12:00:00Z", "2016-03-02T12:15:00Z"),
+                interval(4, 11, 1, "2016-03-02T13:00:00Z", null)));
+
+        assertEquals(new BigDecimal("3.50"), aggregator.getHoursForCase(10));
+        assertEquals(new BigDecimal("0.25"), aggregator.getHoursForCase(11));
+        assertEquals(new BigDecimal("1.75"), aggregator.getHoursForPerson(1));
+        assertEquals(new BigDecimal("2.50"), aggregator.getHoursForDay(LocalDate.of(2016, 3, 1)));
+        assertEquals(new BigDecimal("1.25"), aggregator.getHoursForDay(LocalDate.of(2016, 3, 2)));
+
+        FogbugzCase first = new FogbugzCase(10, "First", 1, 1, "", true, "", "", "", "", "", "");
+        first.setProjectId(5);
+        first.setHrsElapsed(new BigDecimal("3.5"));
+        FogbugzCase second = new FogbugzCase(11, "Second", 1, 1, "", true, "", "", "", "", "", "");
+        second.setProjectId(6);
+        second.setHrsElapsed(new BigDecimal("2"));
+        aggregator.addCases(Arrays.asList(first, second));
+        assertEquals(new BigDecimal("3.50"), aggregator.getHoursForProject(5));
+        assertEquals(new BigDecimal("0.25"), aggregator.getHoursPerProject().get(6));
+
+        List<FogbugzTimeAggregator.Discrepancy> discrepancies =
+                aggregator.reconcile(Arrays.asList(first, second), new BigDecimal("0.01"));
+        assertEquals(1, discrepancies.size());
+        assertEquals(11, discrepancies.get(0).getCaseId());
+    }
+
+    @Test
+    public void testUpdatesReplacePreviousContribution() {
+        FogbugzTimeAggregator aggregator = new FogbugzTimeAggregator(ZoneOffset.ofHours(2));
+        aggregator.add(interval(1, 10, 1, "2016-03-01T21:00:00Z", null));
+        assertTrue(aggregator.getHoursPerCase().isEmpty());
+
+        // Closing the interval crosses midnight in the aggregator's time zone.
+        aggregator.add(interval(1, 10, 1, "2016-03-01T21:00:00Z", "2016-03-01T23:00:00Z"));
+        assertEquals(new BigDecimal("2.00"), aggregator.getHoursForCase(10));
+        assertEquals(new BigDecimal("1.00"), aggregator.getHoursForDay(LocalDate.of(2016, 3, 2)));
+
+        aggregator.add(new FogbugzTimeinterval(1, 10, 1, true, ZonedDateTime.parse("2016-03-01T21:00:00Z"),
+                ZonedDateTime.parse("2016-03-01T23:00:00Z")));
+        assertEquals(BigDecimal.ZERO.setScale(2), aggregator.getHoursForCase(10));
+        assertTrue(aggregator.getHoursPerDay().isEmpty());
+        assertEquals(1, aggregator.size());
+    }
+}
@@ -0,0 +1,99 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the windowed export of time intervals.
+ */
+public class FogbugzTimeintervalExportTest {
+
+    private static FogbugzTimeinterval interval(int id, int personId, String start) {
+        ZonedDateTime from = ZonedDateTime.parse(start);
+        return new FogbugzTimeinterval(id, 7, personId, false, from, from.plusHours(2));
+    }
+
+    @Test
+    public void testExportIsOrderedByWindowAndPerson() throws Exception {
+        LocalDate april1 = LocalDate.of(2013, 4, 1);
+        LocalDate april7 = LocalDate.of(2013, 4, 7);
+        LocalDate april8 = LocalDate.of(2013, 4, 8);
+        LocalDate april10 = LocalDate.of(2013, 4, 10);
+        // Interval 2 runs past midnight into the second window, so Fogbugz returns it for both windows.
+        FogbugzTimeinterval crossing = interval(2, 1, "2013-04-07T23:00:00Z");
+
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.getTimeintervals(1, april1, april7)).andReturn(
+                Arrays.asList(interval(1, 1, "2013-04-02T09:00:00Z"), crossing));
+        expect(backend.getTimeintervals(2, april1, april7)).andReturn(
+                Arrays.asList(interval(3, 2, "2013-04-03T09:00:00Z")));
+        expect(backend.getTimeintervals(1, april8, april10)).andReturn(
+                Arrays.asList(crossing, interval(4, 1, "2013-04-09T09:00:00Z")));
+        expect(backend.getTimeintervals(2, april8, april10)).andReturn(
+                Collections.<FogbugzTimeinterval>emptyList());
+        replay(backend);
+
+        final List<String> progress = new ArrayList<String>();
+        FogbugzTimeintervalExport export = new FogbugzTimeintervalExport(backend, april1, april10, Arrays.asList(1, 2));
+        export.setConcurrency(3);
+        export.setListener(new FogbugzTimeintervalExport.ProgressListener() {
+            public void windowCompleted(LocalDate windowStart, LocalDate windowEnd, int completedWindows, int totalWindows) {
+                progress.add(windowStart + ".." + windowEnd + " " + completedWindows + "/" + totalWindows);
+            }
+        });
+
+        List<Integer> ids;
+        try (Stream<FogbugzTimeinterval> intervals = export.stream()) {
+            ids = intervals.map(FogbugzTimeinterval::getId).collect(Collectors.toList());
+        } finally {
+            export.close();
+        }
+        verify(backend);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4), ids);
+        assertEquals(Arrays.asList("2013-04-01..2013-04-07 1/2", "2013-04-08..2013-04-10 2/2"), progress);
+    }
+
+    @Test
+    public void testIntervalCrossingSeveralWindowsIsExportedOnce() throws Exception {
+        LocalDate april1 = LocalDate.of(2013, 4, 1);
+        LocalDate april2 = LocalDate.of(2013, 4, 2);
+        LocalDate april3 = LocalDate.of(2013, 4, 3);
+        // Runs from the evening of April 1 until the morning of April 3.
+        FogbugzTimeinterval crossing = new FogbugzTimeinterval(1, 7, 1, false,
+                ZonedDateTime.parse("2013-04-01T20:00:00Z"), ZonedDateTime.parse("2013-04-03T08:00:00Z"));
+
+        FogbugzManager backend = createMock(FogbugzManager.class);
+        expect(backend.getTimeintervals(1, april1, april1)).andReturn(Arrays.asList(crossing));
+        expect(backend.getTimeintervals(1, april2, april2)).andReturn(Arrays.asList(crossing));
+        expect(backend.getTimeintervals(1, april3, april3)).andReturn(
+                Arrays.asList(crossing, interval(2, 1, "2013-04-03T09:00:00Z")));
+        replay(backend);
+
+        FogbugzTimeintervalExport export = new FogbugzTimeintervalExport(backend, april1, april3, Arrays.asList(1));
+        export.setWindowDays(1);
+        List<Integer> ids;
+        try (Stream<FogbugzTimeinterval> intervals = export.stream()) {
+            ids = intervals.map(FogbugzTimeinterval::getId).collect(Collectors.toList());
+        } finally {
+            export.close();
+        }
+        verify(backend);
+
+        assertEquals(Arrays.asList(1, 2), ids);
+    }
+}
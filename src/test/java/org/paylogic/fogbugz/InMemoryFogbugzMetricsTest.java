@@ -0,0 +1,51 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the histograms and counters of InMemoryFogbugzMetrics.
+ */
+public class InMemoryFogbugzMetricsTest {
+
+    @Test
+    public void testBucketsCoverValues() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = LongHistogram.bucket(value);
+            assertTrue(value <= LongHistogram.highestValue(bucket));
+            assertTrue(bucket == 0 || value > LongHistogram.highestValue(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        InMemoryFogbugzMetrics metrics = new InMemoryFogbugzMetrics();
+        for (int i = 1; i <= 1000; i++) {
+            metrics.requestCompleted("search", 0, i * 1000L, 10, 20, 4096);
+        }
+        metrics.requestRetried("search", 1);
+        metrics.requestFailed("edit", new IOException("failed"));
+        metrics.entitiesDecoded("search", 25);
+
+        SortedMap<String, InMemoryFogbugzMetrics.CommandSnapshot> snapshot = metrics.snapshot();
+        InMemoryFogbugzMetrics.CommandSnapshot search = snapshot.get("search");
+        assertEquals(1000, search.getRequests());
+        assertEquals(1, search.getRetries());
+        assertEquals(25, search.getEntities());
+        assertEquals(1000 * 4096L, search.getBytes().getSum());
+        assertEquals(1000000, search.getFirstByte().getMax());
+        // Percentiles are bucket bounds, at most 12.5% above the exact value.
+        assertTrue(search.getFirstByte().getP50() >= 500000 && search.getFirstByte().getP50() <= 562500);
+        assertTrue(search.getFirstByte().getP99() >= 990000 && search.getFirstByte().getP99() <= 1000000);
+        assertEquals(1, snapshot.get("edit").getErrors());
+        assertEquals(0, snapshot.get("edit").getRequests());
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().get("search").getRequests());
+    }
+}
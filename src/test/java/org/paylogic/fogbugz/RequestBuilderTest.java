@@ -0,0 +1,42 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests building API urls.
+ */
+public class RequestBuilderTest {
+
+    @Test
+    public void testEncodesLikeUrlEncoder() throws Exception {
+        String[] values = {"status:active project:\"Project 1\"", "a&b=c/d?e#f+g%h", "café € 😀", "-._*~'"};
+        for (String value : values) {
+            StringBuilder encoded = new StringBuilder();
+            FogbugzRequestBuilder.appendEncoded(encoded, value);
+            assertEquals(URLEncoder.encode(value, "UTF-8"), encoded.toString());
+        }
+    }
+
+    @Test
+    public void testParameterOrderIsDeterministic() {
+        FogbugzRequestBuilder builder = new FogbugzRequestBuilder("http://localhost/fogbugz/", "asdfasdf12341234");
+        Map<String, String> first = new LinkedHashMap<String, String>();
+        first.put("q", "ixBug:7");
+        first.put("cmd", "search");
+        first.put("max", null);
+        Map<String, String> second = new HashMap<String, String>();
+        second.put("cmd", "search");
+        second.put("q", "ixBug:7");
+
+        assertEquals("http://localhost/fogbugz/api.asp?token=asdfasdf12341234&cmd=search&q=ixBug%3A7", builder.build(first));
+        assertEquals(builder.build(first), builder.build(second));
+        assertEquals("cmd=search&q=ixBug%3A7", builder.describe(second));
+    }
+}
@@ -0,0 +1,114 @@
+package org.paylogic.fogbugz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests sharing identical calls that are in flight at the same time.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> singleFlight.execute("milestones", () -> {
+                    calls.incrementAndGet();
+                    release.await();
+                    return new ArrayList<String>(Collections.singletonList("1.0"));
+                }, list -> new ArrayList<String>(list))));
+            }
+            // Wait until the other callers joined the first one.
+            Thread.sleep(200);
+            release.countDown();
+
+            Set<List<String>> distinct = Collections.newSetFromMap(new IdentityHashMap<List<String>, Boolean>());
+            for (Future<List<String>> result : results) {
+                List<String> milestones = result.get(5, TimeUnit.SECONDS);
+                assertEquals(Collections.singletonList("1.0"), milestones);
+                distinct.add(milestones);
+            }
+            assertEquals(1, calls.get());
+            // Every caller got its own copy.
+            assertEquals(8, distinct.size());
+            assertEquals(0, singleFlight.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRemembered() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        try {
+            singleFlight.execute("user:1", () -> {
+                throw new InvalidResponseException("Fogbugz is down");
+            }, user -> user);
+            fail("Expected the InvalidResponseException of the call.");
+        } catch (InvalidResponseException e) {
+            assertEquals("Fogbugz is down", e.getMessage());
+        }
+        assertEquals("First Last", singleFlight.execute("user:1", () -> "First Last", user -> user));
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitingCallerCanBeInterrupted() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = pool.submit(() -> singleFlight.execute("user:1", () -> {
+                release.await();
+                return "First Last";
+            }, user -> user));
+            // Wait until the leader is in flight.
+            while (singleFlight.size() == 0) {
+                Thread.sleep(10);
+            }
+
+            final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+            final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+            Thread follower = new Thread(() -> {
+                try {
+                    singleFlight.execute("user:1", () -> "Other", user -> user);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            });
+            follower.start();
+            Thread.sleep(200);
+            follower.interrupt();
+            follower.join();
+
+            assertTrue(thrown.get() instanceof CancellationException);
+            assertTrue(interrupted.get());
+            release.countDown();
+            assertEquals("First Last", leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
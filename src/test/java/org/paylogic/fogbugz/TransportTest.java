@@ -0,0 +1,338 @@
+package org.paylogic.fogbugz;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the pooled HTTP transport against a local stub Fogbugz server.
+ */
+public class TransportTest {
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicReference<String> lastQuery = new AtomicReference<String>();
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fogbugz/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                lastQuery.set(exchange.getRequestURI().getRawQuery());
+                respondWithResource(exchange, 200, "test_user.xml");
+            }
+        });
+        server.createContext("/broken/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                respondWithResource(exchange, 503, "test_user.xml");
+            }
+        });
+        server.createContext("/flaky/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // Every other request fails, starting with the first.
+                respondWithResource(exchange, requestCount.incrementAndGet() % 2 == 1 ? 503 : 200, "test_user.xml");
+            }
+        });
+        server.createContext("/failing/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                respondWithResource(exchange, 500, "test_user.xml");
+            }
+        });
+        server.createContext("/truncated/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (requestCount.incrementAndGet() > 1) {
+                    respondWithResource(exchange, 200, "test_user.xml");
+                    return;
+                }
+                // The connection breaks halfway the body, after the headers were sent.
+                byte[] body;
+                try (InputStream in = TransportTest.class.getResourceAsStream("/test_user.xml")) {
+                    body = IOUtils.toByteArray(in);
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body, 0, body.length / 2);
+                out.flush();
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Closing before the whole body was written drops the connection, as intended.
+                }
+            }
+        });
+        server.createContext("/slow/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respondWithResource(exchange, 200, "test_user.xml");
+            }
+        });
+        server.createContext("/cases/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!exchange.getRequestURI().getRawQuery().contains("cmd=search")) {
+                    respondWithResource(exchange, 200, "test_user.xml");
+                    return;
+                }
+                // Larger than the XML parser buffer, so the response is still open while the first cases are used.
+                String list;
+                try (InputStream in = TransportTest.class.getResourceAsStream("/test_case_list.xml")) {
+                    list = IOUtils.toString(in, "UTF-8");
+                }
+                String fbCase = list.substring(list.indexOf("<case "), list.indexOf("</cases>"));
+                StringBuilder cases = new StringBuilder();
+                for (int i = 0; i < 200; i++) {
+                    cases.append(fbCase);
+                }
+                byte[] body = list.replace(fbCase, cases).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.createContext("/large/api.asp", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    for (int i = 0; i < 1024; i++) {
+                        out.write(new byte[1024]);
+                    }
+                } catch (IOException e) {
+                    // The client hung up, as expected.
+                }
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testManagerUsesTransport() throws Exception {
+        HttpClientFogbugzTransport transport = new HttpClientFogbugzTransport(2, 1000, 1000);
+        DefaultFogbugzManager manager = new DefaultFogbugzManager(transport,
+                baseUrl + "/fogbugz/", "asdfasdf12341234", null, null, null, null, null, 2, 2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(new FogbugzUser(1, "First Last", "example@example.com", null), manager.getFogbugzUser(1));
+            }
+            // Every request reused the one pooled connection, which is back in the pool.
+            assertEquals(0, transport.getPoolStats().getLeased());
+            assertEquals(1, transport.getPoolStats().getAvailable());
+        } finally {
+            manager.close();
+        }
+        assertEquals(5, requestCount.get());
+        assertEquals(1, clientPorts.size());
+        assertTrue(lastQuery.get().contains("token=asdfasdf12341234"));
+        assertTrue(lastQuery.get().contains("cmd=viewPerson"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testErrorStatusThrows() throws Exception {
+        try (HttpClientFogbugzTransport transport = new HttpClientFogbugzTransport()) {
+            transport.get(baseUrl + "/broken/api.asp?token=x");
+        }
+    }
+
+    @Test
+    public void testAbandonedResponseReleasesConnection() throws Exception {
+        try (HttpClientFogbugzTransport transport = new HttpClientFogbugzTransport(1, 1000, 5000)) {
+            long start = System.nanoTime();
+            try (InputStream in = transport.get(baseUrl + "/large/api.asp?token=x")) {
+                in.read(new byte[16]);
+            }
+            assertEquals(0, transport.getPoolStats().getLeased());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testReadTimeout() throws Exception {
+        try (HttpClientFogbugzTransport transport = new HttpClientFogbugzTransport(1, 1000, 200)) {
+            transport.get(baseUrl + "/slow/api.asp?token=x");
+        }
+    }
+
+    @Test
+    public void testReadsAreRetried() throws Exception {
+        DefaultFogbugzManager manager = this.createManager("/flaky/");
+        try {
+            assertEquals(new FogbugzUser(1, "First Last", "example@example.com", null), manager.getFogbugzUser(1));
+        } finally {
+            manager.close();
+        }
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void testWritesAreOnlyRetriedWhenSafe() throws Exception {
+        DefaultFogbugzManager manager = this.createManager("/failing/");
+        FogbugzCase fbCase = new FogbugzCase(7, "Test case", 2, 2, "tag", true, "", "", "", "", "", "");
+        try {
+            // The comment would be added twice, and the server may have processed the edit before failing.
+            assertFalse(manager.saveCase(fbCase, "Merged"));
+            assertEquals(1, requestCount.get());
+
+            // Setting fields to the same values again is harmless.
+            assertFalse(manager.saveCase(fbCase, ""));
+            assertEquals(1 + 3, requestCount.get());
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testMilestoneCreateIsNotRepeated() throws Exception {
+        DefaultFogbugzManager manager = this.createManager("/failing/");
+        try {
+            assertFalse(manager.createMilestone(new FogbugzMilestone(0, "1.0", false, false)));
+        } finally {
+            manager.close();
+        }
+        // One create, which may have reached the server, then a milestone list read with its retries.
+        assertEquals(1 + 3, requestCount.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testRequestsWhileConsumingStreamDoNotDeadlock() throws Exception {
+        DefaultFogbugzManager manager = this.createManager("/cases/");
+        manager.setThrottle(new FogbugzThrottle(0, 1, 1));
+        List<FogbugzUser> users = new ArrayList<FogbugzUser>();
+        try (Stream<FogbugzCase> cases = manager.streamCases("status:active")) {
+            cases.limit(3).forEach(fbCase -> users.add(manager.getFogbugzUser(fbCase.getAssignedTo())));
+        } finally {
+            manager.close();
+        }
+        assertEquals(3, users.size());
+        assertEquals(new FogbugzUser(1, "First Last", "example@example.com", null), users.get(0));
+    }
+
+    @Test
+    public void testMetricsAreRecorded() throws Exception {
+        DefaultFogbugzManager manager = this.createManager("/flaky/");
+        InMemoryFogbugzMetrics metrics = new InMemoryFogbugzMetrics();
+        manager.setMetrics(metrics);
+        try {
+            manager.getFogbugzUser(1);
+        } finally {
+            manager.close();
+        }
+        InMemoryFogbugzMetrics.CommandSnapshot viewPerson = metrics.snapshot().get("viewPerson");
+        assertEquals(1, viewPerson.getRequests());
+        assertEquals(1, viewPerson.getRetries());
+        assertEquals(0, viewPerson.getErrors());
+        assertTrue(viewPerson.getBytes().getSum() > 0);
+        assertTrue(viewPerson.getFirstByte().getMax() > 0);
+    }
+
+    @Test
+    public void testRuntimeExceptionEndsCircuitBreakerTrial() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        FogbugzTransport transport = new FogbugzTransport() {
+            public InputStream get(String url) throws IOException {
+                switch (calls.incrementAndGet()) {
+                    case 1: throw new ConnectException("Connection refused");
+                    case 2: throw new IllegalStateException("Connection pool shut down");
+                    default: return TransportTest.class.getResourceAsStream("/test_user.xml");
+                }
+            }
+
+            public void close() {
+            }
+        };
+        AtomicLong now = new AtomicLong();
+        FogbugzRetryPolicy policy = new FogbugzRetryPolicy(now::get);
+        policy.setFailureThreshold(1);
+        policy.setMaxAttempts(1);
+        DefaultFogbugzManager manager = new DefaultFogbugzManager(transport, baseUrl + "/fogbugz/",
+                "asdfasdf12341234", null, null, null, null, null, 2, 2);
+        manager.setRetryPolicy(policy);
+        try {
+            assertNull(manager.getFogbugzUser(1));
+            now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+            try {
+                manager.getFogbugzUser(1);
+                fail("Expected the transport failure.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            // The failed trial must not keep the breaker open for good.
+            assertEquals(new FogbugzUser(1, "First Last", "example@example.com", null), manager.getFogbugzUser(1));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testResponseBrokenHalfwayIsRetried() throws Exception {
+        DefaultFogbugzManager manager = this.createManager("/truncated/");
+        InMemoryFogbugzMetrics metrics = new InMemoryFogbugzMetrics();
+        manager.setMetrics(metrics);
+        try {
+            assertEquals(new FogbugzUser(1, "First Last", "example@example.com", null), manager.getFogbugzUser(1));
+            assertEquals(2, requestCount.get());
+            assertEquals(1, metrics.snapshot().get("viewPerson").getRetries());
+            assertEquals(0, metrics.snapshot().get("viewPerson").getErrors());
+        } finally {
+            manager.close();
+        }
+    }
+
+    private DefaultFogbugzManager createManager(String path) {
+        DefaultFogbugzManager manager = new DefaultFogbugzManager(new HttpClientFogbugzTransport(2, 1000, 1000),
+                baseUrl + path, "asdfasdf12341234", null, null, null, null, null, 2, 2);
+        manager.getRetryPolicy().setBaseDelayMillis(1);
+        return manager;
+    }
+
+    private void respondWithResource(HttpExchange exchange, int status, String resource) throws IOException {
+        byte[] body;
+        try (InputStream in = TransportTest.class.getResourceAsStream("/" + resource)) {
+            body = IOUtils.toByteArray(in);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}